@@ -6,15 +6,60 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.Material;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Type;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import com.leeinx.xibackpack.main.XiBackpack;
 
 public class NBTUtil {
 
+    /**
+     * 物品编码缓存：相同内容（忽略数量）的物品复用上一次的NBT编码结果
+     */
+    private static final EncodingCache cache = new EncodingCache(4096);
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+
+    /**
+     * 设置物品编码缓存的最大条目数
+     * @param maxEntries 最大条目数，小于等于0时关闭缓存
+     */
+    public static void setCacheSize(int maxEntries) {
+        synchronized (cache) {
+            cache.maxEntries = maxEntries;
+            cache.clear();
+        }
+    }
+
+    /**
+     * 清空物品编码缓存
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public static int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
     /**
      * 获取物品的NBT数据（序列化用）
      * @param item 物品堆
@@ -22,11 +67,26 @@ public class NBTUtil {
      */
     public static String getItemNBTDataForSerialization(ItemStack item) {
         if (item == null || item.getType() == Material.AIR) return null;
+        // 没有ItemMeta的物品不含额外NBT
+        if (!item.hasItemMeta()) return null;
+
+        ItemKey key = new ItemKey(item);
+        CachedEncoding cached = lookup(key);
+        if (cached != null && cached.hasText) {
+            cacheHits.incrementAndGet();
+            return cached.text;
+        }
+        cacheMisses.incrementAndGet();
 
         try {
             // 获取只包含额外数据的NBT，不包含物品ID和Count
             // toString() 通常返回完整的NBT复合标签
-            return NBT.get(item, Object::toString);
+            String text = NBT.get(item, Object::toString);
+            store(key, encoding -> {
+                encoding.text = text;
+                encoding.hasText = true;
+            });
+            return text;
         } catch (Exception e) {
             XiBackpack.getInstance().getLogger().log(Level.WARNING, "Error getting serialization NBT data for item: " + item.getType(), e);
             return null;
@@ -73,4 +133,168 @@ public class NBTUtil {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取物品的二进制NBT数据（二进制存储格式使用）
+     * @param item 物品堆
+     * @return NBT复合标签的二进制数据，物品没有额外NBT时返回null
+     */
+    public static byte[] getItemNBTBytes(ItemStack item) {
+        if (item == null || item.getType() == Material.AIR) return null;
+        // 没有ItemMeta的物品不含额外NBT
+        if (!item.hasItemMeta()) return null;
+
+        ItemKey key = new ItemKey(item);
+        CachedEncoding cached = lookup(key);
+        if (cached != null && cached.hasBytes) {
+            cacheHits.incrementAndGet();
+            return cached.bytes;
+        }
+        cacheMisses.incrementAndGet();
+
+        try {
+            byte[] bytes = NBT.get(item, nbt -> {
+                if (nbt.getKeys().isEmpty()) {
+                    return null;
+                }
+                // 复制到独立的复合标签后写出二进制数据
+                ReadWriteNBT copy = NBT.createNBTObject();
+                copy.mergeCompound(nbt);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                copy.writeCompound(out);
+                return out.toByteArray();
+            });
+            store(key, encoding -> {
+                encoding.bytes = bytes;
+                encoding.hasBytes = true;
+            });
+            return bytes;
+        } catch (Exception e) {
+            XiBackpack.getInstance().getLogger().log(Level.WARNING, "Error getting binary NBT data for item: " + item.getType(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 从类型和二进制NBT数据创建物品
+     * @param type 物品材质类型
+     * @param amount 数量
+     * @param nbtBytes NBT复合标签的二进制数据，可以为null
+     * @return 恢复后的物品
+     */
+    public static ItemStack createItemFromNBTBytes(String type, int amount, byte[] nbtBytes) {
+        try {
+            Material material = Material.getMaterial(type);
+            if (material == null) {
+                XiBackpack.getInstance().getLogger().warning("Unknown material type: " + type);
+                return new ItemStack(Material.STONE, amount);
+            }
+
+            ItemStack item = new ItemStack(material, amount);
+
+            if (nbtBytes != null && nbtBytes.length > 0) {
+                try {
+                    ReadWriteNBT parsedNBT = NBT.readNBT(new ByteArrayInputStream(nbtBytes));
+                    NBT.modify(item, nbt -> {
+                        nbt.mergeCompound(parsedNBT);
+                    });
+                } catch (Exception e) {
+                    XiBackpack.getInstance().getLogger().log(Level.WARNING, "Error applying binary NBT data to item: " + type, e);
+                }
+            }
+
+            return item;
+        } catch (Exception e) {
+            XiBackpack.getInstance().getLogger().log(Level.WARNING, "Error creating item from binary NBT data", e);
+            return null;
+        }
+    }
+
+    private static CachedEncoding lookup(ItemKey key) {
+        synchronized (cache) {
+            return cache.maxEntries > 0 ? cache.get(key) : null;
+        }
+    }
+
+    private static void store(ItemKey key, java.util.function.Consumer<CachedEncoding> update) {
+        synchronized (cache) {
+            if (cache.maxEntries <= 0) {
+                return;
+            }
+            CachedEncoding encoding = cache.get(key);
+            if (encoding == null) {
+                encoding = new CachedEncoding();
+                // 缓存键保存物品副本，避免原物品之后被修改
+                cache.put(key.snapshot(), encoding);
+            }
+            update.accept(encoding);
+        }
+    }
+
+    /**
+     * 按物品内容（类型和ItemMeta，忽略数量）比较的缓存键，缓存的NBT编码不含数量
+     * 计算哈希时会通过getItemMeta()复制一次ItemMeta（背包中的物品是CraftItemStack，取得ItemMeta总是复制），
+     * 缓存省去的是NBT的读取和编码；写入缓存时再通过 {@link #snapshot()} 保存物品副本
+     */
+    private static final class ItemKey {
+        private final ItemStack item;
+        private final Material type;
+        private final int hash;
+
+        private ItemKey(ItemStack item) {
+            this(item, item.getType(), 31 * item.getType().hashCode() + item.getItemMeta().hashCode());
+        }
+
+        private ItemKey(ItemStack item, Material type, int hash) {
+            this.item = item;
+            this.type = type;
+            this.hash = hash;
+        }
+
+        private ItemKey snapshot() {
+            return new ItemKey(item.clone(), type, hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof ItemKey)) return false;
+            ItemKey other = (ItemKey) obj;
+            // isSimilar不比较数量，数量不同的相同物品共用一个缓存条目
+            return hash == other.hash && type == other.type && item.isSimilar(other.item);
+        }
+    }
+
+    /**
+     * 一个物品内容对应的编码结果，文本和二进制格式分别按需填充
+     */
+    private static final class CachedEncoding {
+        // 先写入结果再设置标记，读取方看到标记时一定能看到结果
+        private String text;
+        private volatile boolean hasText;
+        private byte[] bytes;
+        private volatile boolean hasBytes;
+    }
+
+    /**
+     * 按访问顺序淘汰的LRU缓存
+     */
+    private static final class EncodingCache extends LinkedHashMap<ItemKey, CachedEncoding> {
+        private int maxEntries;
+
+        private EncodingCache(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ItemKey, CachedEncoding> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
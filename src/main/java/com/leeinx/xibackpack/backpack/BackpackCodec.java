@@ -0,0 +1,369 @@
+package com.leeinx.xibackpack.backpack;
+
+import com.leeinx.xibackpack.NBTUtil;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 背包数据的二进制存储格式
+ *
+ * 布局（所有整数均为无符号varint）：
+ * <pre>
+ * 'X' 'B' 版本号(1字节)
+ * 背包大小 物品数量
+ * 材质表长度 {材质名长度 材质名UTF-8}...
+ * {槽位 材质表索引 数量 NBT长度 NBT二进制复合标签}...
+ * </pre>
+ * 材质以名称表的形式保存，避免依赖不同服务端版本之间会变化的枚举序号。
+ * 数据库列仍为文本类型，因此编码结果以 {@link #BINARY_PREFIX} 加Base64的形式保存。
+ */
+public final class BackpackCodec {
+    public static final String BINARY_PREFIX = "xbp:";
+
+    private static final byte MAGIC_0 = 'X';
+    private static final byte MAGIC_1 = 'B';
+    private static final int FORMAT_VERSION = 1;
+
+    private BackpackCodec() {
+    }
+
+    /**
+     * 是否使用二进制格式保存背包
+     * @return 配置为二进制格式时返回true
+     */
+    public static boolean isBinaryFormatEnabled() {
+        return "binary".equalsIgnoreCase(com.leeinx.xibackpack.util.ConfigManager.getString("backpack.storage-format", "binary"));
+    }
+
+    /**
+     * 检查数据是否为二进制格式
+     * @param data 数据库中保存的背包数据
+     * @return 是二进制格式时返回true
+     */
+    public static boolean isBinary(String data) {
+        return data != null && data.startsWith(BINARY_PREFIX);
+    }
+
+    /**
+     * 将背包内容编码为二进制格式文本
+     * @param size 背包大小
+     * @param items 背包物品
+     * @return 编码后的文本
+     * @throws IOException 编码失败时抛出
+     */
+    public static String encode(int size, SlotStore items) throws IOException {
+        return BINARY_PREFIX + Base64.getEncoder().encodeToString(encodeBytes(size, items));
+    }
+
+    /**
+     * 将背包内容编码为二进制数据
+     * @param size 背包大小
+     * @param items 背包物品
+     * @return 二进制数据
+     * @throws IOException 编码失败时抛出
+     */
+    public static byte[] encodeBytes(int size, SlotStore items) throws IOException {
+        // 先收集材质表和每个物品的NBT，材质表需要写在物品之前
+        List<String> palette = new ArrayList<>();
+        Map<String, Integer> paletteIndex = new HashMap<>();
+        int count = items.count();
+        int[] slots = new int[count];
+        int[] materials = new int[count];
+        int[] amounts = new int[count];
+        byte[][] nbt = new byte[count][];
+
+        int index = 0;
+        for (int slot = items.nextOccupied(0); slot >= 0; slot = items.nextOccupied(slot + 1)) {
+            ItemStack item = items.get(slot);
+            String material = item.getType().name();
+            Integer materialIndex = paletteIndex.get(material);
+            if (materialIndex == null) {
+                materialIndex = palette.size();
+                palette.add(material);
+                paletteIndex.put(material, materialIndex);
+            }
+            slots[index] = slot;
+            materials[index] = materialIndex;
+            amounts[index] = item.getAmount();
+            nbt[index] = NBTUtil.getItemNBTBytes(item);
+            index++;
+        }
+
+        return writeBody(size, palette, slots, materials, amounts, nbt);
+    }
+
+    /**
+     * 将未还原的槽位数据编码为二进制数据，不需要服务端即可执行
+     * @param size 背包大小
+     * @param items 槽位到槽位数据的映射
+     * @return 二进制数据
+     * @throws IOException 编码失败时抛出
+     */
+    public static byte[] encodeRaw(int size, SortedMap<Integer, RawSlot> items) throws IOException {
+        List<String> palette = new ArrayList<>();
+        Map<String, Integer> paletteIndex = new HashMap<>();
+        int count = items.size();
+        int[] slots = new int[count];
+        int[] materials = new int[count];
+        int[] amounts = new int[count];
+        byte[][] nbt = new byte[count][];
+
+        int index = 0;
+        for (Map.Entry<Integer, RawSlot> entry : items.entrySet()) {
+            RawSlot item = entry.getValue();
+            Integer materialIndex = paletteIndex.get(item.getMaterial());
+            if (materialIndex == null) {
+                materialIndex = palette.size();
+                palette.add(item.getMaterial());
+                paletteIndex.put(item.getMaterial(), materialIndex);
+            }
+            slots[index] = entry.getKey();
+            materials[index] = materialIndex;
+            amounts[index] = item.getAmount();
+            nbt[index] = item.getNbt();
+            index++;
+        }
+        return writeBody(size, palette, slots, materials, amounts, nbt);
+    }
+
+    private static byte[] writeBody(int size, List<String> palette, int[] slots, int[] materials,
+                                    int[] amounts, byte[][] nbt) throws IOException {
+        int count = slots.length;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + count * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(FORMAT_VERSION);
+        writeVarInt(out, size);
+        writeVarInt(out, count);
+
+        writeVarInt(out, palette.size());
+        for (String material : palette) {
+            byte[] name = material.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, name.length);
+            out.write(name);
+        }
+
+        for (int i = 0; i < count; i++) {
+            writeVarInt(out, slots[i]);
+            writeVarInt(out, materials[i]);
+            writeVarInt(out, amounts[i]);
+            if (nbt[i] == null) {
+                writeVarInt(out, 0);
+            } else {
+                writeVarInt(out, nbt[i].length);
+                out.write(nbt[i]);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 打开二进制格式文本进行读取
+     * @param data 以 {@link #BINARY_PREFIX} 开头的背包数据
+     * @return 读取器
+     * @throws IOException 数据格式错误时抛出
+     */
+    public static Reader open(String data) throws IOException {
+        if (!isBinary(data)) {
+            throw new IOException("不是二进制背包数据");
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(data.substring(BINARY_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("二进制背包数据Base64解码失败", e);
+        }
+        return open(bytes);
+    }
+
+    /**
+     * 打开二进制数据进行读取
+     * @param bytes 背包二进制数据
+     * @return 读取器
+     * @throws IOException 数据格式错误时抛出
+     */
+    public static Reader open(byte[] bytes) throws IOException {
+        return new Reader(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * 二进制背包数据读取器，先读取头部信息，再按顺序读取物品
+     */
+    public static final class Reader {
+        private final DataInputStream in;
+        private final int size;
+        private final int count;
+        private final String[] palette;
+
+        private Reader(DataInputStream in) throws IOException {
+            this.in = in;
+            if (in.readByte() != MAGIC_0 || in.readByte() != MAGIC_1) {
+                throw new IOException("二进制背包数据头部无效");
+            }
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("不支持的二进制背包数据版本: " + version);
+            }
+            this.size = readVarInt(in);
+            this.count = readVarInt(in);
+            int paletteSize = readVarInt(in);
+            this.palette = new String[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                byte[] name = new byte[readVarInt(in)];
+                in.readFully(name);
+                palette[i] = new String(name, StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * 获取背包大小
+         * @return 背包大小
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * 获取物品数量
+         * @return 物品数量
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * 依次读取所有物品
+         * @param consumer 槽位回调，无法还原的物品不会回调
+         * @throws IOException 数据格式错误时抛出
+         */
+        public void forEach(SlotStore.SlotConsumer consumer) throws IOException {
+            for (int i = 0; i < count; i++) {
+                int slot = readVarInt(in);
+                RawSlot raw = readSlot();
+                ItemStack item = NBTUtil.createItemFromNBTBytes(raw.getMaterial(), raw.getAmount(), raw.getNbt());
+                if (item != null) {
+                    consumer.accept(slot, item);
+                }
+            }
+        }
+
+        /**
+         * 读取所有物品但不还原为ItemStack
+         * @return 槽位到槽位数据的映射
+         * @throws IOException 数据格式错误时抛出
+         */
+        public SortedMap<Integer, RawSlot> readRaw() throws IOException {
+            SortedMap<Integer, RawSlot> items = new TreeMap<>();
+            for (int i = 0; i < count; i++) {
+                int slot = readVarInt(in);
+                items.put(slot, readSlot());
+            }
+            return items;
+        }
+
+        private RawSlot readSlot() throws IOException {
+            int materialIndex = readVarInt(in);
+            int amount = readVarInt(in);
+            byte[] nbt = null;
+            int nbtLength = readVarInt(in);
+            if (nbtLength > 0) {
+                nbt = new byte[nbtLength];
+                in.readFully(nbt);
+            }
+            if (materialIndex >= palette.length) {
+                throw new IOException("材质索引超出范围: " + materialIndex);
+            }
+            return new RawSlot(palette[materialIndex], amount, nbt);
+        }
+    }
+
+    /**
+     * 未还原为ItemStack的槽位数据（材质名、数量、NBT二进制），用于不依赖服务端的处理，例如计算增量备份
+     */
+    public static final class RawSlot {
+        private final String material;
+        private final int amount;
+        private final byte[] nbt;
+
+        public RawSlot(String material, int amount, byte[] nbt) {
+            this.material = material;
+            this.amount = amount;
+            this.nbt = nbt;
+        }
+
+        public String getMaterial() {
+            return material;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        /**
+         * 获取NBT二进制数据
+         * @return NBT数据，没有NBT时为null
+         */
+        public byte[] getNbt() {
+            return nbt;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RawSlot)) {
+                return false;
+            }
+            RawSlot other = (RawSlot) o;
+            return amount == other.amount && material.equals(other.material) && Arrays.equals(nbt, other.nbt);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * material.hashCode() + amount) + Arrays.hashCode(nbt);
+        }
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (shift < 35) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("二进制背包数据不完整");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+        throw new IOException("varint过长");
+    }
+}
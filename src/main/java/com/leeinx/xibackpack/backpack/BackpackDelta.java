@@ -0,0 +1,144 @@
+package com.leeinx.xibackpack.backpack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 背包的槽位级增量格式，用于增量备份
+ *
+ * 布局（整数均为无符号varint）：
+ * <pre>
+ * 'X' 'D' 版本号(1字节)
+ * 移除的槽位数量 {槽位}...
+ * 变化槽位的二进制背包数据（与 {@link BackpackCodec} 的格式相同，其中的背包大小为新的背包大小）
+ * </pre>
+ * 与 {@link BackpackCodec} 一样以 {@link #DELTA_PREFIX} 加Base64的形式保存。
+ * 只处理二进制格式的背包数据，计算和应用增量都不需要还原物品。
+ */
+public final class BackpackDelta {
+    public static final String DELTA_PREFIX = "xbd:";
+
+    private static final byte MAGIC_0 = 'X';
+    private static final byte MAGIC_1 = 'D';
+    private static final int FORMAT_VERSION = 1;
+
+    private BackpackDelta() {
+    }
+
+    /**
+     * 检查数据是否为增量格式
+     * @param data 备份数据
+     * @return 是增量格式时返回true
+     */
+    public static boolean isDelta(String data) {
+        return data != null && data.startsWith(DELTA_PREFIX);
+    }
+
+    /**
+     * 检查两份二进制格式的背包数据内容是否相同（不要求编码逐字节相同）
+     * @param a 背包数据
+     * @param b 背包数据
+     * @return 大小和每个槽位都相同时返回true；任一方不是二进制格式时返回false
+     * @throws IOException 数据格式错误时抛出
+     */
+    public static boolean sameContent(String a, String b) throws IOException {
+        if (!BackpackCodec.isBinary(a) || !BackpackCodec.isBinary(b)) {
+            return false;
+        }
+        BackpackCodec.Reader readerA = BackpackCodec.open(a);
+        BackpackCodec.Reader readerB = BackpackCodec.open(b);
+        return readerA.getSize() == readerB.getSize() && readerA.readRaw().equals(readerB.readRaw());
+    }
+
+    /**
+     * 计算从base到target的增量
+     * @param base 上一个备份的完整数据
+     * @param target 本次备份的完整数据
+     * @return 增量数据；任一方不是二进制格式时返回null
+     * @throws IOException 数据格式错误时抛出
+     */
+    public static String diff(String base, String target) throws IOException {
+        if (!BackpackCodec.isBinary(base) || !BackpackCodec.isBinary(target)) {
+            return null;
+        }
+        BackpackCodec.Reader baseReader = BackpackCodec.open(base);
+        SortedMap<Integer, BackpackCodec.RawSlot> baseItems = baseReader.readRaw();
+        BackpackCodec.Reader targetReader = BackpackCodec.open(target);
+        SortedMap<Integer, BackpackCodec.RawSlot> targetItems = targetReader.readRaw();
+
+        List<Integer> removed = new ArrayList<>();
+        for (Integer slot : baseItems.keySet()) {
+            if (!targetItems.containsKey(slot)) {
+                removed.add(slot);
+            }
+        }
+        SortedMap<Integer, BackpackCodec.RawSlot> changed = new TreeMap<>();
+        for (Map.Entry<Integer, BackpackCodec.RawSlot> entry : targetItems.entrySet()) {
+            if (!entry.getValue().equals(baseItems.get(entry.getKey()))) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(FORMAT_VERSION);
+        BackpackCodec.writeVarInt(out, removed.size());
+        for (int slot : removed) {
+            BackpackCodec.writeVarInt(out, slot);
+        }
+        out.write(BackpackCodec.encodeRaw(targetReader.getSize(), changed));
+        out.flush();
+        return DELTA_PREFIX + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * 在base上应用增量
+     * @param base 完整的二进制格式背包数据
+     * @param delta 增量数据
+     * @return 应用后的完整二进制格式背包数据
+     * @throws IOException 数据格式错误时抛出
+     */
+    public static String apply(String base, String delta) throws IOException {
+        if (!isDelta(delta)) {
+            throw new IOException("不是增量背包数据");
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(delta.substring(DELTA_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("增量背包数据Base64解码失败", e);
+        }
+        ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(buffer);
+        if (in.readByte() != MAGIC_0 || in.readByte() != MAGIC_1) {
+            throw new IOException("增量背包数据头部无效");
+        }
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("不支持的增量背包数据版本: " + version);
+        }
+
+        SortedMap<Integer, BackpackCodec.RawSlot> items = BackpackCodec.open(base).readRaw();
+        int removed = BackpackCodec.readVarInt(in);
+        for (int i = 0; i < removed; i++) {
+            items.remove(BackpackCodec.readVarInt(in));
+        }
+        // 剩余部分是变化槽位的二进制背包数据
+        byte[] rest = new byte[buffer.available()];
+        in.readFully(rest);
+        BackpackCodec.Reader changed = BackpackCodec.open(rest);
+        items.putAll(changed.readRaw());
+        return BackpackCodec.BINARY_PREFIX + Base64.getEncoder().encodeToString(BackpackCodec.encodeRaw(changed.getSize(), items));
+    }
+}
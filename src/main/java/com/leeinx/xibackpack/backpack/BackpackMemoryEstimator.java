@@ -0,0 +1,73 @@
+package com.leeinx.xibackpack.backpack;
+
+import com.leeinx.xibackpack.NBTUtil;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * 估算已加载背包占用的内存
+ *
+ * 结果是近似值（按64位JVM、开启压缩指针估算），用于统计和限制背包缓存的总大小，不追求精确。
+ * 带ItemMeta的物品按其NBT编码长度估算：反序列化后的ItemMeta包含字符串、集合和文本组件等对象，
+ * 占用的内存通常是编码长度的数倍。
+ */
+public final class BackpackMemoryEstimator {
+    // 背包对象、槽位数组、BitSet和锁等固定开销
+    private static final long BACKPACK_OVERHEAD = 192;
+    // 每个槽位的对象引用
+    private static final long BYTES_PER_SLOT = 4;
+    // ItemStack对象本身（含材质引用、数量等字段）
+    private static final long ITEM_OVERHEAD = 48;
+    // ItemMeta对象的固定开销
+    private static final long META_OVERHEAD = 256;
+    // NBT编码长度到反序列化后对象大小的放大系数
+    private static final long NBT_EXPANSION = 4;
+    // 每个成员UUID（UUID对象 + HashSet节点）
+    private static final long BYTES_PER_MEMBER = 64;
+
+    private BackpackMemoryEstimator() {
+    }
+
+    /**
+     * 估算个人背包占用的内存
+     * @param backpack 个人背包
+     * @return 估算的字节数
+     */
+    public static long estimate(PlayerBackpack backpack) {
+        long[] total = {BACKPACK_OVERHEAD + (long) backpack.getSize() * BYTES_PER_SLOT};
+        backpack.forEachItem((slot, item) -> total[0] += estimateItem(item));
+        return total[0];
+    }
+
+    /**
+     * 估算团队背包占用的内存
+     * @param backpack 团队背包
+     * @return 估算的字节数
+     */
+    public static long estimate(TeamBackpack backpack) {
+        long[] total = {BACKPACK_OVERHEAD + (long) backpack.getSize() * BYTES_PER_SLOT};
+        total[0] += (long) backpack.getMembers().size() * BYTES_PER_MEMBER;
+        String name = backpack.getName();
+        if (name != null) {
+            total[0] += 40 + name.length() * 2L;
+        }
+        backpack.forEachItem((slot, item) -> total[0] += estimateItem(item));
+        return total[0];
+    }
+
+    /**
+     * 估算单个物品占用的内存
+     * @param item 物品
+     * @return 估算的字节数
+     */
+    public static long estimateItem(ItemStack item) {
+        if (item == null) {
+            return 0;
+        }
+        if (!item.hasItemMeta()) {
+            return ITEM_OVERHEAD;
+        }
+        // 编码结果会被NBTUtil缓存，内容未变化的物品不会重复编码
+        byte[] nbt = NBTUtil.getItemNBTBytes(item);
+        return ITEM_OVERHEAD + META_OVERHEAD + (nbt != null ? nbt.length * NBT_EXPANSION : 0);
+    }
+}
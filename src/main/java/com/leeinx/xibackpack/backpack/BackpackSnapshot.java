@@ -0,0 +1,74 @@
+package com.leeinx.xibackpack.backpack;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.UUID;
+
+/**
+ * 玩家背包某一时刻内容的不可变快照
+ *
+ * 由 {@link PlayerBackpack#snapshot()} 在主线程上获取，之后对背包的修改不会影响快照，
+ * 因此可以在异步线程上序列化和写入数据库，不会读到正在被主线程修改的物品。
+ */
+public final class BackpackSnapshot {
+    private final UUID playerUUID;
+    private final int size;
+    private final long version;
+    private final SlotStore items;
+
+    BackpackSnapshot(UUID playerUUID, int size, long version, SlotStore items) {
+        this.playerUUID = playerUUID;
+        this.size = size;
+        this.version = version;
+        this.items = items;
+    }
+
+    /**
+     * 获取玩家UUID
+     * @return 玩家UUID
+     */
+    public UUID getPlayerUUID() {
+        return playerUUID;
+    }
+
+    /**
+     * 获取背包大小
+     * @return 背包大小
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * 获取快照时背包的内容版本号
+     * @return 内容版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 获取指定槽位的物品，返回的物品不应修改
+     * @param slot 槽位索引
+     * @return 物品堆，如果槽位为空则返回null
+     */
+    public ItemStack getItem(int slot) {
+        return items.get(slot);
+    }
+
+    /**
+     * 获取有物品的槽位数量
+     * @return 物品数量
+     */
+    public int getItemCount() {
+        return items.count();
+    }
+
+    /**
+     * 序列化快照内容，格式与 {@link PlayerBackpack#serialize()} 相同，可以在任意线程上调用
+     * @return 序列化的背包数据
+     */
+    public String serialize() {
+        return PlayerBackpack.serialize(playerUUID, size, items);
+    }
+}
@@ -5,17 +5,28 @@ import com.google.gson.reflect.TypeToken;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.Material;
 import java.lang.reflect.Type;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import com.leeinx.xibackpack.NBTUtil;
 import com.leeinx.xibackpack.main.XiBackpack;
+import com.leeinx.xibackpack.util.LogManager;
+import com.leeinx.xibackpack.util.TraceCategory;
 import java.util.logging.Level;
 
 public class PlayerBackpack {
     private UUID playerUUID;
-    private Map<Integer, ItemStack> items;
+    private final SlotStore items;
     private int size;
+    // 内容版本号，每次内容实际发生变化时递增
+    private long version = 1;
+    // 最近一次已提交保存的版本号，与version相同表示没有未保存的修改
+    private long savedVersion = 0;
+    // 自上次保存以来发生变化的槽位
+    private final BitSet dirtySlots = new BitSet();
 
     /**
      * 构造函数，创建一个新的玩家背包
@@ -35,7 +46,7 @@ public class PlayerBackpack {
         
         this.playerUUID = playerUUID;
         this.size = size;
-        this.items = new HashMap<>();
+        this.items = new SlotStore(size);
     }
 
     /**
@@ -50,20 +61,28 @@ public class PlayerBackpack {
             throw new IllegalArgumentException("Slot index cannot be negative, got: " + slot);
         }
         
+        ItemStack current = items.get(slot);
         if (item == null || item.getType().isAir()) {
-            items.remove(slot);
-        } else {
-            items.put(slot, item.clone());
+            if (current != null) {
+                items.remove(slot);
+                markSlotChanged(slot);
+            }
+        } else if (!Objects.equals(current, item)) {
+            // 按物品内容比较，内容相同的物品不会产生新的版本
+            items.set(slot, item.clone());
+            markSlotChanged(slot);
         }
         
         // 如果插入的槽位超出了当前大小，更新背包大小
         if (slot >= size) {
             size = slot + 1;
+            version++;
         }
     }
 
     /**
      * 获取指定槽位的物品
+     * 返回的是背包内部保存的物品，不应直接修改，修改后需通过 {@link #setItem(int, ItemStack)} 写回
      * @param slot 槽位索引
      * @return 物品堆，如果槽位为空则返回null
      * @throws IllegalArgumentException 当slot为负数时抛出
@@ -77,11 +96,47 @@ public class PlayerBackpack {
     }
 
     /**
-     * 获取所有物品的副本
-     * @return 包含所有物品的Map副本
+     * 获取所有物品的只读视图（不复制数据）
+     * @return 槽位到物品的只读Map视图
      */
     public Map<Integer, ItemStack> getItems() {
-        return new HashMap<>(items);
+        return items.asMap();
+    }
+
+    /**
+     * 按槽位顺序遍历所有有物品的槽位
+     * @param consumer 槽位回调
+     */
+    public void forEachItem(SlotStore.SlotConsumer consumer) {
+        items.forEach(consumer);
+    }
+
+    /**
+     * 查找从指定槽位开始的下一个有物品的槽位
+     * @param fromSlot 起始槽位（包含）
+     * @return 槽位索引，没有时返回-1
+     */
+    public int nextOccupiedSlot(int fromSlot) {
+        return items.nextOccupied(fromSlot);
+    }
+
+    /**
+     * 获取有物品的槽位数量
+     * @return 物品数量
+     */
+    public int getItemCount() {
+        return items.count();
+    }
+
+    /**
+     * 清空背包中的所有物品
+     */
+    public void clear() {
+        if (items.count() > 0) {
+            items.forEach((slot, item) -> dirtySlots.set(slot));
+            items.clear();
+            version++;
+        }
     }
 
     /**
@@ -111,61 +166,142 @@ public class PlayerBackpack {
             throw new IllegalArgumentException("Backpack size must be positive, got: " + size);
         }
         
-        this.size = size;
+        if (this.size != size) {
+            this.size = size;
+            version++;
+        }
         
         // 清理超出新大小的物品（仅当新大小更小时）
-        items.entrySet().removeIf(entry -> entry.getKey() >= size);
+        if (items.truncate(size)) {
+            version++;
+        }
+    }
+
+    /**
+     * 获取当前内容版本号
+     * @return 内容版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 检查背包是否有未保存的修改
+     * @return 有未保存的修改时返回true
+     */
+    public boolean isDirty() {
+        return version != savedVersion;
+    }
+
+    /**
+     * 标记指定版本已提交保存
+     * 如果在此期间背包又发生了变化，背包仍然保持为脏状态
+     * @param savedVersion 已保存的版本号
+     */
+    public void markSaved(long savedVersion) {
+        this.savedVersion = savedVersion;
+        if (savedVersion == version) {
+            dirtySlots.clear();
+        }
+    }
+
+    /**
+     * 强制将背包标记为有未保存的修改（例如保存失败时）
+     */
+    public void markDirty() {
+        version++;
+    }
+
+    /**
+     * 获取自上次保存以来发生变化的槽位
+     * @return 变化槽位的副本
+     */
+    public BitSet getDirtySlots() {
+        return (BitSet) dirtySlots.clone();
+    }
+
+    private void markSlotChanged(int slot) {
+        dirtySlots.set(slot);
+        version++;
+    }
+
+    /**
+     * 在主线程上获取背包当前内容的不可变快照
+     * 只复制槽位数组，不复制物品，快照可以在异步线程上序列化
+     * @return 背包快照
+     */
+    public BackpackSnapshot snapshot() {
+        return new BackpackSnapshot(playerUUID, size, version, items.copy());
     }
 
     /**
-     * 将背包数据序列化为JSON字符串，用于数据库存储
+     * 将背包数据序列化为字符串，用于数据库存储
+     * 默认使用紧凑二进制格式，配置为json或二进制编码失败时使用JSON格式
      * @return 序列化的背包数据
      */
     public String serialize() {
-        Map<Integer, Map<String, String>> serializedItems = new HashMap<>();
-        for (Map.Entry<Integer, ItemStack> entry : items.entrySet()) {
-            if (entry.getValue() != null && !entry.getValue().getType().isAir()) {
-                ItemStack item = entry.getValue();
-                Map<String, String> itemData = new HashMap<>();
-                
-                // 保存物品类型
-                itemData.put("type", item.getType().name());
-                
-                // 保存物品数量
-                itemData.put("amount", String.valueOf(item.getAmount()));
-                
-                // 保存NBT数据
-                String nbtData = NBTUtil.getItemNBTDataForSerialization(item);
-                if (nbtData != null) {
-                    itemData.put("nbt", nbtData);
-                }
-                
-                XiBackpack.getInstance().getLogger().info("Serializing item at slot " + entry.getKey() + 
-                    " with type " + item.getType() + 
+        return serialize(playerUUID, size, items);
+    }
+
+    /**
+     * 序列化背包内容，背包和快照共用
+     * @param playerUUID 玩家UUID
+     * @param size 背包大小
+     * @param items 背包物品
+     * @return 序列化的背包数据
+     */
+    static String serialize(UUID playerUUID, int size, SlotStore items) {
+        try {
+            if (BackpackCodec.isBinaryFormatEnabled()) {
+                String encoded = BackpackCodec.encode(size, items);
+                LogManager.trace(TraceCategory.SERIALIZATION, () -> "Encoded binary backpack for player " + playerUUID + ": " + items.count() + " items, " + encoded.length() + " chars");
+                return encoded;
+            }
+        } catch (Exception e) {
+            XiBackpack.getInstance().getLogger().log(Level.WARNING, "Error encoding binary backpack for player: " + playerUUID + ", falling back to JSON", e);
+        }
+
+        Map<String, Map<String, String>> serializedItems = new LinkedHashMap<>();
+        // 只遍历有物品的槽位
+        items.forEach((slot, item) -> {
+            Map<String, String> itemData = new HashMap<>();
+            
+            // 保存物品类型
+            itemData.put("type", item.getType().name());
+            
+            // 保存物品数量
+            itemData.put("amount", String.valueOf(item.getAmount()));
+            
+            // 保存NBT数据
+            String nbtData = NBTUtil.getItemNBTDataForSerialization(item);
+            if (nbtData != null) {
+                itemData.put("nbt", nbtData);
+            }
+            
+            if (LogManager.isTraceEnabled(TraceCategory.SERIALIZATION)) {
+                LogManager.trace(TraceCategory.SERIALIZATION, () -> "Serializing item at slot " + slot +
+                    " with type " + item.getType() +
                     ", display name " + (item.hasItemMeta() ? item.getItemMeta().getDisplayName() : "none") +
                     ", amount " + item.getAmount() +
                     " and NBT: " + nbtData);
-                    
-                serializedItems.put(entry.getKey(), itemData);
             }
-        }
+                
+            serializedItems.put(String.valueOf(slot), itemData);
+        });
 
         Map<String, Object> backpackData = new HashMap<>();
         backpackData.put("size", size);
         backpackData.put("items", serializedItems);
         
-        // 记录序列化数据（仅在DEBUG模式下）
         Gson gson = new Gson();
         String jsonData = gson.toJson(backpackData);
-        if (XiBackpack.getInstance().getConfig().getBoolean("debug.enabled", false)) {
-            XiBackpack.getInstance().getLogger().info("Serialized backpack data: " + jsonData);
-        }
+        LogManager.trace(TraceCategory.SERIALIZATION, () -> "Serialized backpack data: " + jsonData);
 
         return jsonData;
     }
 
     /**
-     * 从序列化的JSON数据反序列化背包
+     * 从序列化的数据反序列化背包，支持二进制格式和旧的JSON格式
      * @param data 序列化的背包数据
      * @param playerUUID 玩家UUID
      * @return 反序列化后的背包实例
@@ -180,6 +316,10 @@ public class PlayerBackpack {
             return new PlayerBackpack(playerUUID, 27);
         }
 
+        if (BackpackCodec.isBinary(data)) {
+            return deserializeBinary(data, playerUUID);
+        }
+
         try {
             Gson gson = new Gson();
             Type typeType = new TypeToken<Map<String, Object>>(){}.getType();
@@ -193,6 +333,7 @@ public class PlayerBackpack {
             if (size <= 0) size = 27;
 
             PlayerBackpack backpack = new PlayerBackpack(playerUUID, size);
+            boolean complete = true;
 
             Map<String, Object> itemsData = (Map<String, Object>) backpackData.get("items");
             if (itemsData != null) {
@@ -218,18 +359,47 @@ public class PlayerBackpack {
 
                             if (item != null) {
                                 backpack.setItem(slot, item);
+                            } else {
+                                complete = false;
                             }
                         }
                     } catch (Exception e) {
+                        complete = false;
                         XiBackpack.getInstance().getLogger().log(Level.WARNING, "Error processing item at slot " + entry.getKey(), e);
                     }
                 }
             }
 
+            // 旧JSON格式的数据保持为脏，下次保存时以二进制格式重写；
+            // 有物品未能还原时不重写，避免用不完整的数据覆盖原有数据
+            backpack.markSaved(backpack.getVersion());
+            if (complete) {
+                backpack.markDirty();
+            }
             return backpack;
         } catch (Exception e) {
             XiBackpack.getInstance().getLogger().log(Level.SEVERE, "Error deserializing player backpack for player: " + playerUUID, e);
             return new PlayerBackpack(playerUUID, 27);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 从二进制格式数据反序列化背包
+     * @param data 以二进制格式前缀开头的背包数据
+     * @param playerUUID 玩家UUID
+     * @return 反序列化后的背包实例
+     */
+    private static PlayerBackpack deserializeBinary(String data, UUID playerUUID) {
+        try {
+            BackpackCodec.Reader reader = BackpackCodec.open(data);
+            int size = reader.getSize() > 0 ? reader.getSize() : 27;
+            PlayerBackpack backpack = new PlayerBackpack(playerUUID, size);
+            reader.forEach(backpack::setItem);
+            backpack.markSaved(backpack.getVersion());
+            return backpack;
+        } catch (Exception e) {
+            XiBackpack.getInstance().getLogger().log(Level.SEVERE, "Error deserializing binary player backpack for player: " + playerUUID, e);
+            return new PlayerBackpack(playerUUID, 27);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.leeinx.xibackpack.backpack;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 背包物品的紧凑槽位存储
+ * 使用稠密的ItemStack数组保存物品，并用BitSet记录已占用的槽位，
+ * 遍历时只访问有物品的槽位，也不需要对槽位索引装箱
+ */
+public final class SlotStore {
+    private static final ItemStack[] EMPTY = new ItemStack[0];
+
+    private ItemStack[] slots;
+    private final BitSet occupied = new BitSet();
+    private int count;
+    private Map<Integer, ItemStack> view;
+
+    /**
+     * 槽位遍历回调
+     */
+    @FunctionalInterface
+    public interface SlotConsumer {
+        /**
+         * 处理一个有物品的槽位
+         * @param slot 槽位索引
+         * @param item 槽位中的物品
+         */
+        void accept(int slot, ItemStack item);
+    }
+
+    /**
+     * 构造函数
+     * @param capacity 初始容量
+     */
+    public SlotStore(int capacity) {
+        this.slots = capacity > 0 ? new ItemStack[capacity] : EMPTY;
+    }
+
+    /**
+     * 获取指定槽位的物品
+     * @param slot 槽位索引
+     * @return 物品，槽位为空或超出容量时返回null
+     */
+    public ItemStack get(int slot) {
+        return slot >= 0 && slot < slots.length ? slots[slot] : null;
+    }
+
+    /**
+     * 设置指定槽位的物品，容量不足时自动扩容
+     * @param slot 槽位索引
+     * @param item 物品，为null时清空该槽位
+     * @return 该槽位原来的物品
+     */
+    public ItemStack set(int slot, ItemStack item) {
+        if (item == null) {
+            return remove(slot);
+        }
+        ensureCapacity(slot + 1);
+        ItemStack previous = slots[slot];
+        slots[slot] = item;
+        if (previous == null) {
+            occupied.set(slot);
+            count++;
+        }
+        return previous;
+    }
+
+    /**
+     * 清空指定槽位
+     * @param slot 槽位索引
+     * @return 该槽位原来的物品
+     */
+    public ItemStack remove(int slot) {
+        if (slot < 0 || slot >= slots.length) {
+            return null;
+        }
+        ItemStack previous = slots[slot];
+        if (previous != null) {
+            slots[slot] = null;
+            occupied.clear(slot);
+            count--;
+        }
+        return previous;
+    }
+
+    /**
+     * 移除所有索引大于等于size的物品，并释放多余的容量
+     * @param size 新的背包大小
+     * @return 是否有物品被移除
+     */
+    public boolean truncate(int size) {
+        boolean removed = false;
+        for (int slot = occupied.nextSetBit(size); slot >= 0; slot = occupied.nextSetBit(slot + 1)) {
+            slots[slot] = null;
+            count--;
+            removed = true;
+        }
+        if (size < slots.length) {
+            occupied.clear(size, slots.length);
+            slots = Arrays.copyOf(slots, size);
+        }
+        return removed;
+    }
+
+    /**
+     * 清空所有槽位
+     */
+    public void clear() {
+        Arrays.fill(slots, null);
+        occupied.clear();
+        count = 0;
+    }
+
+    /**
+     * 复制槽位存储
+     * 只复制槽位数组，物品对象与原存储共用：写入槽位时总是放入新的物品对象而不修改已有对象，
+     * 因此副本不会受到之后对原存储的修改影响
+     * @return 副本
+     */
+    public SlotStore copy() {
+        SlotStore copy = new SlotStore(0);
+        copy.slots = slots.length > 0 ? Arrays.copyOf(slots, slots.length) : EMPTY;
+        copy.occupied.or(occupied);
+        copy.count = count;
+        return copy;
+    }
+
+    /**
+     * 获取有物品的槽位数量
+     * @return 物品数量
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * 查找从指定位置开始的下一个有物品的槽位
+     * @param fromSlot 起始槽位（包含）
+     * @return 槽位索引，没有时返回-1
+     */
+    public int nextOccupied(int fromSlot) {
+        return occupied.nextSetBit(Math.max(0, fromSlot));
+    }
+
+    /**
+     * 获取最大的有物品槽位
+     * @return 槽位索引，背包为空时返回-1
+     */
+    public int highestOccupied() {
+        return occupied.length() - 1;
+    }
+
+    /**
+     * 按槽位顺序遍历所有有物品的槽位
+     * @param consumer 槽位回调
+     */
+    public void forEach(SlotConsumer consumer) {
+        for (int slot = occupied.nextSetBit(0); slot >= 0; slot = occupied.nextSetBit(slot + 1)) {
+            consumer.accept(slot, slots[slot]);
+        }
+    }
+
+    /**
+     * 获取只读的Map视图，不复制底层数据
+     * @return 槽位到物品的只读视图
+     */
+    public Map<Integer, ItemStack> asMap() {
+        if (view == null) {
+            view = new ReadOnlyView();
+        }
+        return view;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(capacity, slots.length + (slots.length >> 1)));
+        }
+    }
+
+    /**
+     * 槽位存储的只读Map视图
+     */
+    private final class ReadOnlyView extends AbstractMap<Integer, ItemStack> {
+        private Set<Map.Entry<Integer, ItemStack>> entrySet;
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && SlotStore.this.get((Integer) key) != null;
+        }
+
+        @Override
+        public ItemStack get(Object key) {
+            return key instanceof Integer ? SlotStore.this.get((Integer) key) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, ItemStack>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Map.Entry<Integer, ItemStack>>() {
+                    @Override
+                    public Iterator<Map.Entry<Integer, ItemStack>> iterator() {
+                        return new Iterator<Map.Entry<Integer, ItemStack>>() {
+                            private int next = occupied.nextSetBit(0);
+
+                            @Override
+                            public boolean hasNext() {
+                                return next >= 0;
+                            }
+
+                            @Override
+                            public Map.Entry<Integer, ItemStack> next() {
+                                if (next < 0) {
+                                    throw new NoSuchElementException();
+                                }
+                                int slot = next;
+                                next = occupied.nextSetBit(slot + 1);
+                                return new AbstractMap.SimpleImmutableEntry<>(slot, slots[slot]);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return count;
+                    }
+                };
+            }
+            return entrySet;
+        }
+    }
+}
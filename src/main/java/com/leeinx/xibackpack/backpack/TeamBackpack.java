@@ -10,8 +10,14 @@ public class TeamBackpack {
     private String name;
     private UUID owner;
     private Set<UUID> members;
-    private Map<Integer, ItemStack> items;
+    private final SlotStore items;
     private int size;
+    // 内容版本号，物品、大小、名称或成员实际发生变化时递增
+    private long version = 1;
+    // 最近一次已提交保存的版本号，与version相同表示没有未保存的修改
+    private long savedVersion = 0;
+    // 自上次保存以来发生变化的槽位
+    private final BitSet dirtySlots = new BitSet();
 
     /**
      * 构造函数，创建一个新的团队背包
@@ -24,8 +30,8 @@ public class TeamBackpack {
         this.owner = owner;
         this.name = name;
         this.members = new HashSet<>();
-        this.items = new HashMap<>();
         this.size = 27; // 默认大小与个人背包相同
+        this.items = new SlotStore(size);
 
         // 添加创建者为成员
         this.members.add(owner);
@@ -52,7 +58,10 @@ public class TeamBackpack {
      * @param name 新的背包名称
      */
     public void setName(String name) {
-        this.name = name;
+        if (!Objects.equals(this.name, name)) {
+            this.name = name;
+            version++;
+        }
     }
 
     /**
@@ -94,7 +103,9 @@ public class TeamBackpack {
      * @param playerUUID 玩家UUID
      */
     public void addMember(UUID playerUUID) {
-        members.add(playerUUID);
+        if (members.add(playerUUID)) {
+            version++;
+        }
     }
 
     /**
@@ -103,7 +114,9 @@ public class TeamBackpack {
      */
     public void removeMember(UUID playerUUID) {
         if (!owner.equals(playerUUID)) { // 不能移除所有者
-            members.remove(playerUUID);
+            if (members.remove(playerUUID)) {
+                version++;
+            }
         }
     }
 
@@ -118,15 +131,22 @@ public class TeamBackpack {
             throw new IllegalArgumentException("Slot index cannot be negative, got: " + slot);
         }
 
+        ItemStack current = items.get(slot);
         if (item == null || item.getType().isAir()) {
-            items.remove(slot);
-        } else {
-            items.put(slot, item.clone());
+            if (current != null) {
+                items.remove(slot);
+                markSlotChanged(slot);
+            }
+        } else if (!Objects.equals(current, item)) {
+            // 按物品内容比较，内容相同的物品不会产生新的版本
+            items.set(slot, item.clone());
+            markSlotChanged(slot);
         }
 
         // 如果插入的槽位超出了当前大小，更新背包大小
         if (slot >= size) {
             size = slot + 1;
+            version++;
         }
     }
 
@@ -145,11 +165,47 @@ public class TeamBackpack {
     }
 
     /**
-     * 获取所有物品的副本
-     * @return 包含所有物品的Map副本
+     * 获取所有物品的只读视图（不复制数据）
+     * @return 槽位到物品的只读Map视图
      */
     public Map<Integer, ItemStack> getItems() {
-        return new HashMap<>(items);
+        return items.asMap();
+    }
+
+    /**
+     * 按槽位顺序遍历所有有物品的槽位
+     * @param consumer 槽位回调
+     */
+    public void forEachItem(SlotStore.SlotConsumer consumer) {
+        items.forEach(consumer);
+    }
+
+    /**
+     * 查找从指定槽位开始的下一个有物品的槽位
+     * @param fromSlot 起始槽位（包含）
+     * @return 槽位索引，没有时返回-1
+     */
+    public int nextOccupiedSlot(int fromSlot) {
+        return items.nextOccupied(fromSlot);
+    }
+
+    /**
+     * 获取有物品的槽位数量
+     * @return 物品数量
+     */
+    public int getItemCount() {
+        return items.count();
+    }
+
+    /**
+     * 清空背包中的所有物品
+     */
+    public void clear() {
+        if (items.count() > 0) {
+            items.forEach((slot, item) -> dirtySlots.set(slot));
+            items.clear();
+            version++;
+        }
     }
 
     /**
@@ -157,13 +213,17 @@ public class TeamBackpack {
      * @param items 物品集合
      */
     public void setItems(Map<Integer, ItemStack> items) {
+        version++;
         this.items.clear();
         if (items != null) {
-            this.items.putAll(items);
+            for (Map.Entry<Integer, ItemStack> entry : items.entrySet()) {
+                if (entry.getKey() >= 0 && entry.getValue() != null && !entry.getValue().getType().isAir()) {
+                    this.items.set(entry.getKey(), entry.getValue());
+                }
+            }
             // 只有当items不为空时才更新背包大小
-            if (!items.isEmpty()) {
-                // 查找最大的槽位索引
-                int maxSlot = Collections.max(items.keySet());
+            int maxSlot = this.items.highestOccupied();
+            if (maxSlot >= 0) {
                 // 确保背包大小至少比最大槽位大1，但不低于默认大小27
                 this.size = Math.max(maxSlot + 1, Math.max(this.size, 27));
             }
@@ -188,35 +248,94 @@ public class TeamBackpack {
             throw new IllegalArgumentException("Backpack size must be positive, got: " + size);
         }
 
-        this.size = size;
+        if (this.size != size) {
+            this.size = size;
+            version++;
+        }
 
         // 清理超出新大小的物品（仅当新大小更小时）
-        items.entrySet().removeIf(entry -> entry.getKey() >= size);
+        if (items.truncate(size)) {
+            version++;
+        }
+    }
+
+    /**
+     * 获取当前内容版本号
+     * @return 内容版本号
+     */
+    public long getVersion() {
+        return version;
     }
 
     /**
-     * 将团队背包数据序列化为JSON字符串，用于数据库存储
+     * 检查背包是否有未保存的修改
+     * @return 有未保存的修改时返回true
+     */
+    public boolean isDirty() {
+        return version != savedVersion;
+    }
+
+    /**
+     * 标记指定版本已提交保存
+     * 如果在此期间背包又发生了变化，背包仍然保持为脏状态
+     * @param savedVersion 已保存的版本号
+     */
+    public void markSaved(long savedVersion) {
+        this.savedVersion = savedVersion;
+        if (savedVersion == version) {
+            dirtySlots.clear();
+        }
+    }
+
+    /**
+     * 强制将背包标记为有未保存的修改（例如保存失败时）
+     */
+    public void markDirty() {
+        version++;
+    }
+
+    /**
+     * 获取自上次保存以来发生变化的槽位
+     * @return 变化槽位的副本
+     */
+    public BitSet getDirtySlots() {
+        return (BitSet) dirtySlots.clone();
+    }
+
+    private void markSlotChanged(int slot) {
+        dirtySlots.set(slot);
+        version++;
+    }
+
+    /**
+     * 将团队背包数据序列化为字符串，用于数据库存储
+     * 默认使用紧凑二进制格式，配置为json或二进制编码失败时使用JSON格式
      * @return 序列化的背包数据
      */
     public String serialize() {
         try {
-            Map<Integer, Map<String, String>> serializedItems = new HashMap<>();
-            // 遍历背包里所有的物品
-            for (Map.Entry<Integer, ItemStack> entry : items.entrySet()) {
-                ItemStack item = entry.getValue();
-                if (item != null && !item.getType().isAir()) {
-                    Map<String, String> itemData = new HashMap<>();
-                    itemData.put("type", item.getType().name());
-                    itemData.put("amount", String.valueOf(item.getAmount()));
-
-                    // 关键：调用 NBTUtil 处理 NBT 数据
-                    String nbtData = NBTUtil.getItemNBTDataForSerialization(item);
-                    if (nbtData != null && !nbtData.isEmpty() && !nbtData.equals("{}")) {
-                        itemData.put("nbt", nbtData);
-                    }
-                    serializedItems.put(entry.getKey(), itemData);
-                }
+            if (BackpackCodec.isBinaryFormatEnabled()) {
+                return BackpackCodec.encode(size, items);
             }
+        } catch (Exception e) {
+            XiBackpack.getInstance().getLogger().warning("二进制编码团队背包失败，改用JSON格式: " + e.getMessage());
+        }
+
+        try {
+            Map<String, Map<String, String>> serializedItems = new LinkedHashMap<>();
+            // 遍历背包里所有有物品的槽位
+            items.forEach((slot, item) -> {
+                Map<String, String> itemData = new HashMap<>();
+                itemData.put("type", item.getType().name());
+                itemData.put("amount", String.valueOf(item.getAmount()));
+
+                // 关键：调用 NBTUtil 处理 NBT 数据
+                String nbtData = NBTUtil.getItemNBTDataForSerialization(item);
+                if (nbtData != null && !nbtData.isEmpty() && !nbtData.equals("{}")) {
+                    itemData.put("nbt", nbtData);
+                }
+                serializedItems.put(String.valueOf(slot), itemData);
+            });
 
             Map<String, Object> root = new HashMap<>();
             root.put("size", size);
@@ -243,7 +362,18 @@ public class TeamBackpack {
             return backpack;
         }
 
+        boolean complete = true;
         try {
+            if (BackpackCodec.isBinary(data)) {
+                BackpackCodec.Reader reader = BackpackCodec.open(data);
+                if (reader.getSize() > 0) {
+                    backpack.setSize(reader.getSize());
+                }
+                reader.forEach(backpack::setItem);
+                backpack.markSaved(backpack.getVersion());
+                return backpack;
+            }
+
             com.google.gson.Gson gson = new com.google.gson.Gson();
             Map<String, Object> root = gson.fromJson(data, new com.google.gson.reflect.TypeToken<Map<String, Object>>(){}.getType());
 
@@ -265,13 +395,22 @@ public class TeamBackpack {
                     );
                     if (item != null) {
                         backpack.setItem(slot, item);
+                    } else {
+                        complete = false;
                     }
                 }
             }
         } catch (Exception e) {
+            complete = false;
             XiBackpack.getInstance().getLogger().severe("反序列化团队背包失败! " + e.getMessage());
             e.printStackTrace();
         }
+        // 旧JSON格式的数据保持为脏，下次保存时以二进制格式重写；
+        // 解析出错时不重写，避免用不完整的数据覆盖原有数据
+        backpack.markSaved(backpack.getVersion());
+        if (complete) {
+            backpack.markDirty();
+        }
         return backpack;
     }
 }
\ No newline at end of file
@@ -45,6 +45,7 @@ public class CommandCompleter implements TabCompleter {
                 completions.add("teamgui");
                 completions.add("help");
                 completions.add("reload");
+                completions.add("stats");
             } else if (args.length == 2) {
                 // 二级命令补全
                 switch (args[0].toLowerCase()) {
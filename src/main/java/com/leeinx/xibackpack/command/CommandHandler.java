@@ -156,6 +156,11 @@ public class CommandHandler implements CommandExecutor {
                         reloadConfig(player);
                         return true;
                     }
+                    // 查看运行统计
+                    else if (cmd.equals("stats")) {
+                        showStats(player);
+                        return true;
+                    }
                     // 未知子命令
                     else {
                         player.sendMessage("§c未知的子命令: " + args[0]);
@@ -164,6 +169,10 @@ public class CommandHandler implements CommandExecutor {
                     }
                 }
             }
+        } catch (com.leeinx.xibackpack.handler.DatabaseUnavailableException e) {
+            // 数据库暂时不可用时不加载背包，提示玩家稍后再试
+            sender.sendMessage(plugin.getMessage("backpack.busy", "§e数据库繁忙，请稍后再试。"));
+            return true;
         } catch (Exception e) {
             plugin.getLogger().log(Level.SEVERE, "处理命令时出错", e);
             sender.sendMessage("§c处理命令时发生错误，请联系管理员");
@@ -181,9 +190,15 @@ public class CommandHandler implements CommandExecutor {
             return;
         }
         
+        // 背包尚未加载时先异步加载，加载完成后再回到主线程执行
+        if (plugin.getBackpackManager().getIfLoaded(player.getUniqueId()) == null) {
+            plugin.getBackpackManager().withBackpack(player, loaded -> upgradeBackpack(player));
+            return;
+        }
+        
         try {
             // 获取玩家当前背包
-            PlayerBackpack backpack = plugin.getBackpackManager().getBackpack(player);
+            PlayerBackpack backpack = plugin.getBackpackManager().getIfLoaded(player.getUniqueId());
             int currentSize = backpack.getSize();
             
             // 检查是否达到最大容量限制 (10页 = 10 * 45 = 450格)
@@ -368,8 +383,14 @@ public class CommandHandler implements CommandExecutor {
                 return;
             }
             
+            // 背包尚未加载时先异步加载，加载完成后再回到主线程执行
+            if (plugin.getBackpackManager().getIfLoaded(player.getUniqueId()) == null) {
+                plugin.getBackpackManager().withBackpack(player, loaded -> createBackup(player));
+                return;
+            }
+            
             // 获取玩家背包
-            PlayerBackpack backpack = plugin.getBackpackManager().getBackpack(player);
+            PlayerBackpack backpack = plugin.getBackpackManager().getIfLoaded(player.getUniqueId());
             
             // 生成备份ID（使用时间戳）
             String backupId = "backup_" + System.currentTimeMillis();
@@ -415,6 +436,12 @@ public class CommandHandler implements CommandExecutor {
                 return;
             }
             
+            // 背包尚未加载时先异步加载，加载完成后再回到主线程执行
+            if (plugin.getBackpackManager().getIfLoaded(player.getUniqueId()) == null) {
+                plugin.getBackpackManager().withBackpack(player, loaded -> restoreBackup(player, backupId));
+                return;
+            }
+            
             // 验证备份ID格式
             if (!backupId.matches("[a-zA-Z0-9_\\-]+")) {
                 player.sendMessage(plugin.getMessage("backpack.backup_invalid_id"));
@@ -436,13 +463,11 @@ public class CommandHandler implements CommandExecutor {
             PlayerBackpack backupBackpack = PlayerBackpack.deserialize(backupData, player.getUniqueId());
             
             // 应用备份到当前背包
-            PlayerBackpack currentBackpack = plugin.getBackpackManager().getBackpack(player);
-            currentBackpack.getItems().clear();
+            PlayerBackpack currentBackpack = plugin.getBackpackManager().getIfLoaded(player.getUniqueId());
+            currentBackpack.clear();
             
             // 复制备份的物品到当前背包
-            for (Map.Entry<Integer, ItemStack> entry : backupBackpack.getItems().entrySet()) {
-                currentBackpack.setItem(entry.getKey(), entry.getValue());
-            }
+            backupBackpack.forEachItem(currentBackpack::setItem);
             
             currentBackpack.setSize(backupBackpack.getSize());
             
@@ -669,6 +694,12 @@ public class CommandHandler implements CommandExecutor {
                 return;
             }
             
+            // 背包尚未加载时先异步加载，加载完成后再回到主线程执行
+            if (plugin.getBackpackManager().getIfLoaded(player.getUniqueId()) == null) {
+                plugin.getBackpackManager().withBackpack(player, loaded -> restoreBackupByIndex(player, indexStr));
+                return;
+            }
+            
             // 解析索引
             int index;
             try {
@@ -713,13 +744,11 @@ public class CommandHandler implements CommandExecutor {
             PlayerBackpack backupBackpack = PlayerBackpack.deserialize(backupData, player.getUniqueId());
             
             // 应用备份到当前背包
-            PlayerBackpack currentBackpack = plugin.getBackpackManager().getBackpack(player);
-            currentBackpack.getItems().clear();
+            PlayerBackpack currentBackpack = plugin.getBackpackManager().getIfLoaded(player.getUniqueId());
+            currentBackpack.clear();
             
             // 复制备份的物品到当前背包
-            for (Map.Entry<Integer, ItemStack> entry : backupBackpack.getItems().entrySet()) {
-                currentBackpack.setItem(entry.getKey(), entry.getValue());
-            }
+            backupBackpack.forEachItem(currentBackpack::setItem);
             
             currentBackpack.setSize(backupBackpack.getSize());
             
@@ -801,12 +830,133 @@ public class CommandHandler implements CommandExecutor {
             player.sendMessage("§6/xibackpack team addmember <ID> <玩家名> §7- 添加成员到团队背包");
             player.sendMessage("§6/xibackpack team removemember <ID> <玩家名> §7- 从团队背包移除成员");
             player.sendMessage("§6/xibackpack reload §7- 重新加载配置文件");
+            player.sendMessage("§6/xibackpack stats §7- 查看存储运行统计");
             player.sendMessage(plugin.getMessage("command.help_help"));
         } catch (Exception e) {
             plugin.getLogger().log(Level.SEVERE, "显示帮助信息时出错", e);
         }
     }
     
+    /**
+     * 显示存储相关的运行统计
+     * @param player 玩家
+     */
+    private void showStats(Player player) {
+        if (player == null) {
+            return;
+        }
+
+        try {
+            // 检查管理权限
+            if (!player.hasPermission("xibackpack.admin")) {
+                player.sendMessage("§c您没有权限执行此操作!");
+                return;
+            }
+
+            player.sendMessage("§e======= §6XiBackpack 运行统计 §e=======");
+            com.leeinx.xibackpack.handler.WriteBehindQueue queue = plugin.getDatabaseManager().getWriteBehindQueue();
+            if (queue == null) {
+                player.sendMessage("§7写回队列: §c未启用");
+            } else {
+                player.sendMessage("§7写回队列: §f待写入 " + queue.getPendingCount()
+                        + " §7| 提交 " + queue.getEnqueuedWrites()
+                        + " §7| 合并 " + queue.getCollapsedWrites()
+                        + " §7| 已写入 " + queue.getFlushedWrites()
+                        + " §7| 失败 " + queue.getFailedWrites());
+            }
+            com.leeinx.xibackpack.handler.KeyedExecutor<?> keyed = plugin.getDatabaseManager().getKeyedExecutor();
+            if (keyed != null) {
+                player.sendMessage("§7按键串行队列: §f活跃 " + keyed.getActiveKeys()
+                        + " §7| 最大单键深度 " + keyed.getMaxQueueDepth()
+                        + " §7| 提交 " + keyed.getSubmittedTasks()
+                        + " §7| 合并 " + keyed.getCoalescedTasks()
+                        + " §7| 拒绝 " + keyed.getRejectedTasks());
+            }
+            com.leeinx.xibackpack.handler.BackupRetention retention = plugin.getDatabaseManager().getBackupRetention();
+            if (retention != null) {
+                player.sendMessage("§7备份维护: §f执行 " + retention.getRuns()
+                        + " §7| 淘汰 " + retention.getMarkedBackups()
+                        + " §7| 删除 " + retention.getRemovedBackups()
+                        + " §7| 上次耗时 " + retention.getLastRunMillis() + " ms");
+            }
+            com.leeinx.xibackpack.handler.BackupChainStore chains = plugin.getDatabaseManager().getBackupChainStore();
+            if (chains != null && chains.isIncremental()) {
+                player.sendMessage("§7增量备份: §f完整 " + chains.getFullBackups()
+                        + " §7| 增量 " + chains.getDeltaBackups()
+                        + " §7| 平均增量 " + chains.getAverageDeltaChars() + " 字符"
+                        + " §7| 节省 " + (chains.getSavedChars() / 1024) + " KB"
+                        + " §7| 已合并 " + chains.getFoldedBackups());
+            }
+            com.leeinx.xibackpack.handler.BackupBlobStore blobs = plugin.getDatabaseManager().getBackupBlobStore();
+            if (blobs != null) {
+                player.sendMessage("§7备份去重: §f新数据块 " + blobs.getWrittenBlobs()
+                        + " §7| 复用 " + blobs.getReusedBlobs()
+                        + " §7| 回收 " + blobs.getCollectedBlobs()
+                        + " §7| 节省 " + (blobs.getSavedChars() / 1024) + " KB");
+            }
+            com.leeinx.xibackpack.handler.SqliteWriter writer = plugin.getDatabaseManager().getSqliteWriter();
+            if (writer != null) {
+                player.sendMessage("§7SQLite写线程: §f队列 " + writer.getQueueDepth()
+                        + " §7| 事务 " + writer.getCommittedTransactions()
+                        + " §7| 写入 " + writer.getCompletedWrites()
+                        + " §7| 最大批量 " + writer.getLargestBatch()
+                        + " §7| 失败 " + writer.getFailedWrites());
+            }
+            com.leeinx.xibackpack.handler.CircuitBreaker breaker = plugin.getDatabaseManager().getCircuitBreaker();
+            player.sendMessage("§7数据库熔断器: §f" + breaker.getState()
+                    + " §7| 连续失败 " + breaker.getConsecutiveFailures()
+                    + " §7| 打开次数 " + breaker.getOpenCount()
+                    + " §7| 拒绝 " + breaker.getRejectedCalls());
+            com.leeinx.xibackpack.handler.SaveJournal journal = plugin.getDatabaseManager().getSaveJournal();
+            if (journal != null) {
+                player.sendMessage("§7保存日志: §f未完成 " + journal.getPendingCount()
+                        + " §7| 记录 " + journal.getAppendedRecords()
+                        + " §7| 刷盘 " + journal.getGroupCommits()
+                        + " §7| 重放 " + journal.getReplayedEntries()
+                        + " §7| 文件 " + (journal.getFileSize() / 1024) + " KB");
+            }
+            com.leeinx.xibackpack.handler.DatabaseExecutor executor = plugin.getDatabaseManager().getExecutor();
+            if (executor != null) {
+                player.sendMessage("§7数据库线程池: §f活跃 " + executor.getActiveCount()
+                        + " §7| 队列 " + executor.getQueue().size() + "/" + executor.getQueueCapacity()
+                        + " §7| 峰值 " + executor.getHighWaterMark()
+                        + " §7| 拒绝 " + executor.getRejectedTasks());
+            }
+            player.sendMessage("§7未变化跳过保存: §f个人 " + plugin.getBackpackManager().getSkippedSaves()
+                    + " §7| 团队 " + plugin.getTeamBackpackManager().getSkippedSaves());
+            player.sendMessage("§7合并并发加载: §f个人 " + plugin.getBackpackManager().getSharedLoads()
+                    + " §7| 团队 " + plugin.getTeamBackpackManager().getSharedLoads());
+            com.leeinx.xibackpack.handler.BackpackCache<?, ?> playerCache = plugin.getBackpackManager().getCache();
+            com.leeinx.xibackpack.handler.BackpackCache<?, ?> teamCache = plugin.getTeamBackpackManager().getCache();
+            player.sendMessage("§7背包缓存: §f个人 " + playerCache.size() + "/" + playerCache.getMaxEntries()
+                    + " §7| 团队 " + teamCache.size() + "/" + teamCache.getMaxEntries()
+                    + " §7| 淘汰 " + (playerCache.getEvictions() + teamCache.getEvictions())
+                    + " §7| 过期 " + (playerCache.getExpirations() + teamCache.getExpirations())
+                    + " §7| 写回 " + (playerCache.getWriteBacks() + teamCache.getWriteBacks())
+                    + " §7| 重新加载 " + (playerCache.getReloads() + teamCache.getReloads()));
+            player.sendMessage(String.format("§7背包缓存内存(估算): §f个人 %.1fMB §7| 团队 §f%.1fMB §7| 上限 §f%s",
+                    playerCache.getTotalWeight() / 1048576.0, teamCache.getTotalWeight() / 1048576.0,
+                    playerCache.getMaxWeight() > 0 ? (playerCache.getMaxWeight() / 1048576) + "MB/类" : "不限制"));
+            player.sendMessage("§7文件日志队列: §f" + com.leeinx.xibackpack.util.LogManager.getQueueDepth()
+                    + "/" + com.leeinx.xibackpack.util.LogManager.getQueueCapacity()
+                    + " §7| 已丢弃 " + com.leeinx.xibackpack.util.LogManager.getDroppedRecords()
+                    + " §7| 写入失败 " + com.leeinx.xibackpack.util.LogManager.getFailedRecords());
+            player.sendMessage("§7物品编码缓存: §f" + com.leeinx.xibackpack.NBTUtil.getCacheSize() + " 条"
+                    + " §7| 命中 " + com.leeinx.xibackpack.NBTUtil.getCacheHits()
+                    + " §7| 未命中 " + com.leeinx.xibackpack.NBTUtil.getCacheMisses());
+            com.leeinx.xibackpack.handler.PayloadCompressor compressor = plugin.getDatabaseManager().getPayloadCompressor();
+            player.sendMessage("§7数据压缩: " + (compressor.isEnabled() ? "§a已启用 §7(级别 " + compressor.getLevel() + ")" : "§c未启用")
+                    + " §7| 已压缩 " + compressor.getCompressedCount()
+                    + " §7| 无收益 " + compressor.getSkippedCount()
+                    + String.format(" §7| 压缩率 §f%.1f%%", compressor.getRatio() * 100)
+                    + " §7| 节省 §f" + compressor.getSavedBytes() + " §7字符");
+            player.sendMessage(String.format("§7压缩耗时: §f平均 %.1fμs §7| 解压耗时: §f平均 %.1fμs",
+                    compressor.getAverageCompressMicros(), compressor.getAverageDecompressMicros()));
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "显示运行统计时出错", e);
+        }
+    }
+
     /**
      * 重新加载配置文件
      * @param player 玩家
@@ -826,6 +976,9 @@ public class CommandHandler implements CommandExecutor {
             
             // 调用ConfigManager的reloadConfig方法
             com.leeinx.xibackpack.util.ConfigManager.reloadConfig();
+            com.leeinx.xibackpack.util.LogManager.configureTrace(plugin.getConfig().getStringList("debug.trace"));
+            plugin.getBackpackManager().reloadCacheSettings();
+            plugin.getTeamBackpackManager().reloadCacheSettings();
             
             // 重新加载消息配置
             plugin.reloadMessagesConfig();
@@ -0,0 +1,359 @@
+package com.leeinx.xibackpack.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * 已加载背包的有界缓存
+ *
+ * 读写与ConcurrentHashMap相同，可以在任意线程上调用；淘汰只在 {@link #sweep(EvictionHandler)} 中进行，
+ * 由管理器定时在主线程上调用。超过条目数或权重上限时按最近访问时间从旧到新淘汰，空闲超过TTL的条目也会被淘汰。
+ * 被固定（玩家在线、界面打开中）的条目不会被淘汰；有未保存修改的条目先提交保存，等下一次清理确认数据已写入后再移除。
+ * 总权重（例如估算的内存占用）在移除和清理时增量维护，背包版本号未变化时不会重新估算。
+ * 放入可能发生在加载线程上，估算需要读取物品，因此新条目先不计权重，等主线程上的下一次清理再估算。
+ *
+ * @param <K> 键类型
+ * @param <V> 背包类型
+ */
+public class BackpackCache<K, V> {
+    private static final int RECENTLY_EVICTED_LIMIT = 4096;
+
+    private final ConcurrentMap<K, Node<V>> entries = new ConcurrentHashMap<>();
+    private final ToLongFunction<V> weigher;
+    private final ToLongFunction<V> versioner;
+
+    private volatile int maxEntries;
+    private volatile long maxWeight;
+    private volatile long idleMillis;
+    private final AtomicLong totalWeight = new AtomicLong();
+
+    // 最近被淘汰的键，用于统计淘汰后又被重新加载的次数
+    private final Set<K> recentlyEvicted = Collections.newSetFromMap(Collections.synchronizedMap(
+            new LinkedHashMap<K, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Boolean> eldest) {
+                    return size() > RECENTLY_EVICTED_LIMIT;
+                }
+            }));
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong writeBacks = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    /**
+     * 淘汰时与管理器交互的回调
+     * @param <K> 键类型
+     * @param <V> 背包类型
+     */
+    public interface EvictionHandler<K, V> {
+        /**
+         * 条目当前是否被固定（不允许淘汰）
+         * @param key 键
+         * @param value 背包
+         * @return 被固定时返回true
+         */
+        boolean isPinned(K key, V value);
+
+        /**
+         * 背包是否有未保存的修改
+         * @param value 背包
+         * @return 有未保存修改时返回true
+         */
+        boolean isDirty(V value);
+
+        /**
+         * 通过保存流程提交背包的修改
+         * @param key 键
+         * @param value 背包
+         */
+        void writeBack(K key, V value);
+
+        /**
+         * 背包是否还有尚未写入数据库的保存
+         * @param key 键
+         * @return 有待写入数据时返回true
+         */
+        boolean hasPendingWrite(K key);
+    }
+
+    /**
+     * 构造函数，每次清理都重新计算权重
+     * @param weigher 估算单个背包权重的函数
+     */
+    public BackpackCache(ToLongFunction<V> weigher) {
+        this(weigher, null);
+    }
+
+    /**
+     * 构造函数
+     * @param weigher 估算单个背包权重的函数
+     * @param versioner 获取背包版本号的函数，版本号未变化时清理不会重新计算权重
+     */
+    public BackpackCache(ToLongFunction<V> weigher, ToLongFunction<V> versioner) {
+        this.weigher = weigher;
+        this.versioner = versioner;
+    }
+
+    /**
+     * 设置缓存上限
+     * @param maxEntries 最大条目数，0为不限制
+     * @param maxWeight 最大总权重，0为不限制
+     * @param idleMillis 空闲淘汰时间（毫秒），0为不按空闲时间淘汰
+     */
+    public void configure(int maxEntries, long maxWeight, long idleMillis) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxWeight = Math.max(0L, maxWeight);
+        this.idleMillis = Math.max(0L, idleMillis);
+    }
+
+    /**
+     * 获取缓存中的背包并刷新访问时间
+     * @param key 键
+     * @return 背包，未缓存时返回null
+     */
+    public V get(K key) {
+        Node<V> node = entries.get(key);
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        node.lastAccess = System.currentTimeMillis();
+        return node.value;
+    }
+
+    /**
+     * 键不存在时放入背包
+     * @param key 键
+     * @param value 背包
+     * @return 已存在的背包，放入成功时返回null
+     */
+    public V putIfAbsent(K key, V value) {
+        Node<V> node = new Node<>(value);
+        Node<V> existing = entries.putIfAbsent(key, node);
+        if (existing != null) {
+            existing.lastAccess = System.currentTimeMillis();
+            return existing.value;
+        }
+        onInsert(key, node);
+        return null;
+    }
+
+    /**
+     * 放入背包，覆盖已有条目
+     * @param key 键
+     * @param value 背包
+     */
+    public void put(K key, V value) {
+        Node<V> node = new Node<>(value);
+        Node<V> previous = entries.put(key, node);
+        if (previous != null) {
+            totalWeight.addAndGet(-previous.weight);
+        }
+        onInsert(key, node);
+    }
+
+    /**
+     * 移除条目（不会保存）
+     * @param key 键
+     * @return 被移除的背包，不存在时返回null
+     */
+    public V remove(K key) {
+        Node<V> node = entries.remove(key);
+        if (node == null) {
+            return null;
+        }
+        totalWeight.addAndGet(-node.weight);
+        return node.value;
+    }
+
+    /**
+     * 获取所有已缓存背包的快照，不会刷新访问时间
+     * @return 背包集合
+     */
+    public Collection<V> values() {
+        List<V> values = new ArrayList<>(entries.size());
+        for (Node<V> node : entries.values()) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * 执行一次淘汰：重新计算权重，淘汰空闲超时的条目，并在超出上限时按最近访问时间淘汰
+     * @param handler 淘汰回调
+     * @return 本次移除的条目数量
+     */
+    public int sweep(EvictionHandler<K, V> handler) {
+        long now = System.currentTimeMillis();
+        List<Candidate<K, V>> candidates = new ArrayList<>();
+        for (Map.Entry<K, Node<V>> entry : entries.entrySet()) {
+            Node<V> node = entry.getValue();
+            reweigh(node);
+            if (handler.isPinned(entry.getKey(), node.value)) {
+                // 固定期间视为一直在使用，解除固定后重新开始计算空闲时间
+                node.lastAccess = now;
+            } else {
+                candidates.add(new Candidate<>(entry.getKey(), node, node.lastAccess));
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+
+        int size = entries.size();
+        long weight = totalWeight.get();
+        int removed = 0;
+        for (Candidate<K, V> candidate : candidates) {
+            boolean expired = idleMillis > 0 && now - candidate.lastAccess >= idleMillis;
+            boolean overCapacity = (maxEntries > 0 && size > maxEntries) || (maxWeight > 0 && weight > maxWeight);
+            if (!expired && !overCapacity) {
+                // 候选按访问时间排序，之后的条目更新，也不会过期
+                break;
+            }
+
+            Node<V> node = candidate.node;
+            if (handler.isDirty(node.value)) {
+                // 先提交保存，确认写入后的下一次清理再移除
+                handler.writeBack(candidate.key, node.value);
+                writeBacks.incrementAndGet();
+                continue;
+            }
+            if (handler.hasPendingWrite(candidate.key) || !entries.remove(candidate.key, node)) {
+                continue;
+            }
+
+            totalWeight.addAndGet(-node.weight);
+            recentlyEvicted.add(candidate.key);
+            size--;
+            weight -= node.weight;
+            removed++;
+            if (expired) {
+                expirations.incrementAndGet();
+            } else {
+                evictions.incrementAndGet();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 获取当前的总权重，新放入的背包和背包内容的变化在下一次清理时计入
+     * @return 总权重
+     */
+    public long getTotalWeight() {
+        return totalWeight.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * 获取因超出上限被淘汰的条目数量
+     * @return 淘汰次数
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * 获取因空闲超时被淘汰的条目数量
+     * @return 过期次数
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * 获取淘汰前提交保存的次数
+     * @return 写回次数
+     */
+    public long getWriteBacks() {
+        return writeBacks.get();
+    }
+
+    /**
+     * 获取被淘汰后又重新加载的次数，过高说明缓存上限设置得太小
+     * @return 重新加载次数
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    private void onInsert(K key, Node<V> node) {
+        // 不在这里估算权重：调用方可能是加载线程，估算会读取物品的NBT
+        if (recentlyEvicted.remove(key)) {
+            reloads.incrementAndGet();
+        }
+    }
+
+    /**
+     * 新条目或背包版本号变化时重新计算权重，并把差值计入总权重（只在清理时调用）
+     */
+    private void reweigh(Node<V> node) {
+        long version = versioner != null ? versioner.applyAsLong(node.value) : Long.MIN_VALUE;
+        if (node.weighed && versioner != null && version == node.weightVersion) {
+            return;
+        }
+        long weight = weigher.applyAsLong(node.value);
+        totalWeight.addAndGet(weight - node.weight);
+        node.weight = weight;
+        node.weightVersion = version;
+        node.weighed = true;
+    }
+
+    private static final class Node<V> {
+        private final V value;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private volatile long weight;
+        private volatile long weightVersion;
+        private volatile boolean weighed;
+
+        private Node(V value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Candidate<K, V> {
+        private final K key;
+        private final Node<V> node;
+        private final long lastAccess;
+
+        private Candidate(K key, Node<V> node, long lastAccess) {
+            this.key = key;
+            this.node = node;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -9,18 +9,27 @@ import org.bukkit.Material;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.Collections;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import com.leeinx.xibackpack.main.XiBackpack;
+import com.leeinx.xibackpack.backpack.BackpackMemoryEstimator;
 import com.leeinx.xibackpack.backpack.PlayerBackpack;
 import com.leeinx.xibackpack.holder.LoadingHolder;
 
 public class BackpackManager extends BaseBackpackManager {
-    private Map<UUID, PlayerBackpack> loadedBackpacks;
+    private final BackpackCache<UUID, PlayerBackpack> loadedBackpacks;
+    // 合并同一玩家并发的背包加载
+    private final SingleFlight<UUID, PlayerBackpack> loads = new SingleFlight<>();
+    // 因背包内容未变化而跳过的保存次数
+    private final AtomicLong skippedSaves = new AtomicLong();
 
     /**
      * 构造函数，初始化背包管理器
@@ -29,15 +38,109 @@ public class BackpackManager extends BaseBackpackManager {
      */
     public BackpackManager(XiBackpack plugin) {
         super(plugin);
-        this.loadedBackpacks = new ConcurrentHashMap<>();
+        this.loadedBackpacks = new BackpackCache<>(BackpackMemoryEstimator::estimate, PlayerBackpack::getVersion);
+        configureCache(loadedBackpacks);
+    }
+
+    /**
+     * 重新读取背包缓存的上限配置
+     */
+    public void reloadCacheSettings() {
+        configureCache(loadedBackpacks);
+    }
+
+    /**
+     * 淘汰空闲或超出缓存上限的背包，需要在主线程上调用
+     * 在线玩家的背包不会被淘汰，有未保存修改的背包先提交保存，下一次清理时再移除
+     * @return 本次移除的背包数量
+     */
+    public int evictIdleBackpacks() {
+        final DatabaseManager databaseManager = plugin.getDatabaseManager();
+        return loadedBackpacks.sweep(new BackpackCache.EvictionHandler<UUID, PlayerBackpack>() {
+            @Override
+            public boolean isPinned(UUID key, PlayerBackpack value) {
+                return Bukkit.getPlayer(key) != null;
+            }
+
+            @Override
+            public boolean isDirty(PlayerBackpack value) {
+                return value.isDirty();
+            }
+
+            @Override
+            public void writeBack(UUID key, PlayerBackpack value) {
+                saveBackpack(value);
+            }
+
+            @Override
+            public boolean hasPendingWrite(UUID key) {
+                WriteBehindQueue queue = databaseManager.getWriteBehindQueue();
+                return queue != null && queue.peekPlayer(key) != null;
+            }
+        });
+    }
+
+    /**
+     * 获取个人背包缓存，用于统计
+     * @return 背包缓存
+     */
+    public BackpackCache<UUID, PlayerBackpack> getCache() {
+        return loadedBackpacks;
+    }
+
+    /**
+     * 获取已加载到缓存中的玩家背包，不会访问数据库
+     * @param playerUUID 玩家UUID
+     * @return 玩家背包实例，未加载时返回null
+     */
+    public PlayerBackpack getIfLoaded(UUID playerUUID) {
+        return playerUUID != null ? loadedBackpacks.get(playerUUID) : null;
+    }
+
+    /**
+     * 获取玩家背包，未加载时异步加载，不会阻塞调用线程
+     * @param playerUUID 玩家UUID
+     * @return 玩家背包实例的CompletableFuture
+     */
+    public CompletableFuture<PlayerBackpack> getOrLoadAsync(UUID playerUUID) {
+        return loadAndCacheBackpackAsync(playerUUID);
+    }
+
+    /**
+     * 在主线程上使用玩家背包
+     * 背包已加载时立即执行，否则异步加载完成后回到主线程执行（玩家已下线时不执行）
+     * @param player 玩家对象
+     * @param action 使用背包的操作
+     */
+    public void withBackpack(Player player, Consumer<PlayerBackpack> action) {
+        PlayerBackpack cached = getIfLoaded(player.getUniqueId());
+        if (cached != null) {
+            action.accept(cached);
+            return;
+        }
+        getOrLoadAsync(player.getUniqueId())
+            .thenAccept(backpack -> {
+                if (backpack == null) return;
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    if (player.isOnline()) {
+                        action.accept(backpack);
+                    }
+                });
+            })
+            .exceptionally(ex -> {
+                com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("异步加载个人背包", ex);
+                return null;
+            });
     }
 
     /**
      * 获取玩家的背包实例
      * 注意：此方法首先从缓存中获取背包。如果缓存中没有，会同步加载背包数据。
-     * 正常游戏流程中，背包应该已经通过异步加载预先放入缓存。
+     * 主线程上应使用 {@link #getIfLoaded(UUID)}、{@link #getOrLoadAsync(UUID)} 或 {@link #withBackpack(Player, Consumer)}，
+     * 在主线程上发生同步加载时会输出警告。
      * @param player 玩家对象
      * @return 玩家的背包实例，永远不会返回null
+     * @throws DatabaseUnavailableException 数据库暂时不可用时抛出，不会把空背包放入缓存
      */
     public PlayerBackpack getBackpack(Player player) {
         if (player == null) {
@@ -48,28 +151,59 @@ public class BackpackManager extends BaseBackpackManager {
         UUID playerUUID = player.getUniqueId();
         PlayerBackpack backpack = loadedBackpacks.get(playerUUID);
         
-        // 如果缓存中没有背包，同步加载
-        if (backpack == null) {
-            backpack = loadBackpackData(playerUUID);
-            loadedBackpacks.put(playerUUID, backpack);
+        if (backpack != null) {
+            return backpack;
         }
-        
-        return backpack;
+
+        // 已有进行中的异步加载时等待其结果，避免重复查询；主线程上不等待（异步加载可能在重试中），直接同步加载
+        CompletableFuture<PlayerBackpack> pending = Bukkit.isPrimaryThread() ? null : loads.getInFlight(playerUUID);
+        if (pending != null) {
+            warnIfBlockingLoad("玩家背包 " + playerUUID);
+            try {
+                backpack = pending.join();
+                if (backpack != null) {
+                    return backpack;
+                }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "等待个人背包异步加载时出错: " + playerUUID, e);
+            }
+        }
+
+        // 如果缓存中没有背包，同步加载；并发加载时以先放入缓存的实例为准
+        warnIfBlockingLoad("玩家背包 " + playerUUID);
+        backpack = loadBackpackData(playerUUID);
+        PlayerBackpack existing = loadedBackpacks.putIfAbsent(playerUUID, backpack);
+        return existing != null ? existing : backpack;
     }
     
     /**
      * 异步加载玩家背包数据并放入缓存
+     * 同一玩家并发的加载请求共享同一次数据库查询，所有调用方得到同一个背包实例
      * @param playerUUID 玩家唯一标识符
      * @return 玩家背包实例的CompletableFuture
      */
     public CompletableFuture<PlayerBackpack> loadAndCacheBackpackAsync(UUID playerUUID) {
-        return loadBackpackDataAsync(playerUUID)
+        PlayerBackpack cached = loadedBackpacks.get(playerUUID);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return loads.load(playerUUID, uuid -> loadBackpackDataAsync(uuid)
             .thenApply(backpack -> {
-                if (backpack != null) {
-                    loadedBackpacks.put(playerUUID, backpack);
+                if (backpack == null) {
+                    return null;
                 }
-                return backpack;
-            });
+                // 缓存中已有实例（例如同步加载先完成）时使用已有实例，避免出现两份不同的数据
+                PlayerBackpack existing = loadedBackpacks.putIfAbsent(uuid, backpack);
+                return existing != null ? existing : backpack;
+            }));
+    }
+
+    /**
+     * 获取因合并并发加载而省去的数据库查询次数
+     * @return 共享加载次数
+     */
+    public long getSharedLoads() {
+        return loads.getSharedLoads();
     }
 
     /**
@@ -94,8 +228,9 @@ public class BackpackManager extends BaseBackpackManager {
         UUID uuid = player.getUniqueId();
 
         // 1. 如果数据已经在缓存中，直接打开（无卡顿）
-        if (loadedBackpacks.containsKey(uuid)) {
-            openBackpackGuiInternal(player, loadedBackpacks.get(uuid), page);
+        PlayerBackpack cached = loadedBackpacks.get(uuid);
+        if (cached != null) {
+            openBackpackGuiInternal(player, cached, page);
             return;
         }
 
@@ -127,7 +262,21 @@ public class BackpackManager extends BaseBackpackManager {
                 });
             })
             .exceptionally(ex -> {
-                com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("异步加载个人背包", ex);
+                boolean busy = DatabaseExecutor.isBusy(ex);
+                if (!busy) {
+                    com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("异步加载个人背包", ex);
+                }
+                if (player.isOnline()) {
+                    Bukkit.getScheduler().runTask(plugin, () -> {
+                        // 数据库繁忙时快速失败，提示玩家稍后再试
+                        player.sendMessage(busy
+                            ? plugin.getMessage("backpack.busy", "§e数据库繁忙，请稍后再试。")
+                            : plugin.getMessage("backpack.load_failed", "§c加载个人背包数据失败，请联系管理员。"));
+                        if (player.getOpenInventory().getTopInventory().getHolder() instanceof LoadingHolder) {
+                            player.closeInventory();
+                        }
+                    });
+                }
                 return null;
             });
     }
@@ -147,12 +296,9 @@ public class BackpackManager extends BaseBackpackManager {
             int startSlot = page * 45; // 前5行用于物品显示（45格），最后一行用于控制按钮
             int endSlot = Math.min(startSlot + 45, backpack.getSize());
 
-            // 将物品放入GUI，确保正确的槽位映射
-            for (int i = startSlot; i < endSlot; i++) {
-                ItemStack item = backpack.getItem(i);
-                if (item != null) {
-                    inventory.setItem(i - startSlot, item);
-                }
+            // 将物品放入GUI，确保正确的槽位映射（只访问当前页中有物品的槽位）
+            for (int i = backpack.nextOccupiedSlot(startSlot); i >= 0 && i < endSlot; i = backpack.nextOccupiedSlot(i + 1)) {
+                inventory.setItem(i - startSlot, backpack.getItem(i));
             }
 
             // 添加屏障方块到未解锁的槽位
@@ -183,6 +329,7 @@ public class BackpackManager extends BaseBackpackManager {
      * 从数据库加载玩家背包数据（支持异步）
      * @param playerUUID 玩家唯一标识符
      * @return 玩家背包实例
+     * @throws DatabaseUnavailableException 数据库暂时不可用时抛出，不能当作新玩家创建空背包
      */
     private PlayerBackpack loadBackpackData(UUID playerUUID) {
         if (playerUUID == null) {
@@ -191,7 +338,7 @@ public class BackpackManager extends BaseBackpackManager {
         }
 
         try {
-            String backpackData = plugin.getDatabaseManager().loadPlayerBackpack(playerUUID);
+            String backpackData = plugin.getDatabaseManager().loadPlayerBackpackOrThrow(playerUUID);
             if (backpackData != null) {
                 try {
                     return PlayerBackpack.deserialize(backpackData, playerUUID);
@@ -199,6 +346,9 @@ public class BackpackManager extends BaseBackpackManager {
                     plugin.getLogger().log(Level.SEVERE, "反序列化个人背包数据时出错: " + playerUUID, e);
                 }
             }
+        } catch (DatabaseUnavailableException e) {
+            // 与异步加载一致：数据库暂时不可用时不打开背包，否则之后的保存会覆盖原有数据
+            throw e;
         } catch (Exception e) {
             plugin.getLogger().log(Level.SEVERE, "从数据库加载个人背包数据时出错: " + playerUUID, e);
         }
@@ -227,6 +377,11 @@ public class BackpackManager extends BaseBackpackManager {
                 return new PlayerBackpack(playerUUID, defaultSize);
             })
             .exceptionally(e -> {
+                if (DatabaseExecutor.isBusy(e)) {
+                    // 数据库暂时不可用：不能当作新玩家创建空背包，否则之后的保存会覆盖原有数据
+                    throw e instanceof java.util.concurrent.CompletionException
+                        ? (java.util.concurrent.CompletionException) e : new java.util.concurrent.CompletionException(e);
+                }
                 plugin.getLogger().log(Level.SEVERE, "从数据库加载个人背包数据时出错: " + playerUUID, e);
                 int defaultSize = plugin.getConfig().getInt("backpack.size", 27);
                 return new PlayerBackpack(playerUUID, defaultSize);
@@ -264,17 +419,27 @@ public class BackpackManager extends BaseBackpackManager {
             return;
         }
 
+        // 背包内容自上次保存以来没有变化，跳过序列化和数据库写入
+        if (!backpack.isDirty()) {
+            skippedSaves.incrementAndGet();
+            return;
+        }
+
         // 异步保存背包数据
-        // 主线程快照 -> 异步线程 IO
+        // 主线程快照 -> 写回队列合并 -> 异步线程 IO
+        final long version = backpack.getVersion();
         final String serializedData = backpack.serialize();
         final UUID uuid = backpack.getPlayerUUID();
+        backpack.markSaved(version);
 
-        plugin.getDatabaseManager().savePlayerBackpackAsync(uuid, serializedData)
+        plugin.getDatabaseManager().queuePlayerBackpackSave(uuid, serializedData)
             .thenAcceptAsync(success -> {
                 // 在主线程上执行插件操作
                 Bukkit.getScheduler().runTask(plugin, () -> {
                     plugin.incrementDatabaseOperations();
                     if (!success) {
+                        // 保存失败，重新标记为脏数据以便下次重试
+                        backpack.markDirty();
                         com.leeinx.xibackpack.util.LogManager.warning("保存玩家 %s 的背包数据失败", uuid);
                     }
                 });
@@ -297,7 +462,8 @@ public class BackpackManager extends BaseBackpackManager {
         }
 
         try {
-            PlayerBackpack backpack = getBackpack(player); // 此时背包应已在缓存中
+            // 界面打开时背包已在缓存中，只从缓存获取，不在主线程上加载或等待加载
+            PlayerBackpack backpack = getIfLoaded(player.getUniqueId());
             if (backpack == null) {
                 com.leeinx.xibackpack.util.LogManager.warning("更新个人背包时未找到背包数据: %s", player.getName());
                 return;
@@ -315,7 +481,8 @@ public class BackpackManager extends BaseBackpackManager {
             // 确保不会超出实际背包大小
             int endSlot = Math.min(startSlot + 45, backpack.getSize());
 
-            com.leeinx.xibackpack.util.LogManager.info("更新个人背包 %s，页面 %d，槽位范围 %d-%d", player.getName(), page, startSlot, endSlot);
+            final int tracePage = page;
+            com.leeinx.xibackpack.util.LogManager.trace(com.leeinx.xibackpack.util.TraceCategory.INVENTORY, () -> "更新个人背包 " + player.getName() + "，页面 " + tracePage + "，槽位范围 " + startSlot + "-" + endSlot);
 
             // 更新背包中的物品
             for (int i = 0; i < 45 && (i + startSlot) < backpack.getSize(); i++) { // 只处理前5行的物品格
@@ -358,7 +525,8 @@ public class BackpackManager extends BaseBackpackManager {
             // 计算总页数（基于实际背包大小）
             int totalPages = (int) Math.ceil((double) backpackSize / 45);
 
-            com.leeinx.xibackpack.util.LogManager.info("处理个人背包控制按钮，当前页面: %d，总页面: %d，点击槽位: %d", currentPage, totalPages, slot);
+            final int tracePage = currentPage;
+            com.leeinx.xibackpack.util.LogManager.trace(com.leeinx.xibackpack.util.TraceCategory.INVENTORY, () -> "处理个人背包控制按钮，当前页面: " + tracePage + "，总页面: " + totalPages + "，点击槽位: " + slot);
 
             // 检查是否点击了控制按钮
             if (slot == 45) { // 上一页
@@ -429,20 +597,51 @@ public class BackpackManager extends BaseBackpackManager {
         }
 
         com.leeinx.xibackpack.util.LogManager.info("关服保存: 正在同步保存所有玩家背包数据...");
-        int count = 0;
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        Map<UUID, String> snapshot = new HashMap<>();
 
         for (PlayerBackpack backpack : loadedBackpacks.values()) {
+            if (!backpack.isDirty()) {
+                skippedSaves.incrementAndGet();
+                continue;
+            }
             try {
-                // 直接在主线程执行序列化和保存 (同步)
-                String serializedData = backpack.serialize();
-                plugin.getDatabaseManager().savePlayerBackpack(backpack.getPlayerUUID(), serializedData);
-                count++;
+                // 直接在主线程执行序列化
+                long version = backpack.getVersion();
+                snapshot.put(backpack.getPlayerUUID(), backpack.serialize());
+                backpack.markSaved(version);
             } catch (Exception e) {
                 com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("关服保存: 玩家 " + backpack.getPlayerUUID() + " 背包", e);
             }
         }
+
+        int count = 0;
+        if (databaseManager.getWriteBehindQueue() != null) {
+            // 合并到写回队列后统一批量写入，避免与队列中的旧数据互相覆盖
+            List<CompletableFuture<Boolean>> saves = new ArrayList<>(snapshot.size());
+            for (Map.Entry<UUID, String> entry : snapshot.entrySet()) {
+                saves.add(databaseManager.queuePlayerBackpackSave(entry.getKey(), entry.getValue()));
+            }
+            databaseManager.flushPendingSaves();
+            for (CompletableFuture<Boolean> save : saves) {
+                if (save.isDone() && !save.isCompletedExceptionally() && Boolean.TRUE.equals(save.join())) {
+                    count++;
+                }
+            }
+        } else if (databaseManager.savePlayerBackpacksBatch(snapshot)) {
+            // 一个事务内批量写入
+            count = snapshot.size();
+        }
         com.leeinx.xibackpack.util.LogManager.info("关服保存: 已同步保存 %d 个个人背包数据", count);
     }
+    /**
+     * 获取因背包内容未变化而跳过的保存次数
+     * @return 跳过的保存次数
+     */
+    public long getSkippedSaves() {
+        return skippedSaves.get();
+    }
+
     // 新增：用来在 Inventory 中携带页码信息
     public static class BackpackPageHolder implements org.bukkit.inventory.InventoryHolder {
         private final int page;
@@ -0,0 +1,158 @@
+package com.leeinx.xibackpack.handler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按内容寻址的备份数据块存储
+ *
+ * 备份的背包数据以SHA-256为键存放在 player_backpack_blobs 表中，备份行只记录哈希。
+ * 内容相同的备份共用同一个数据块，数据块带有引用计数，最后一个引用它的备份删除时一并删除。
+ * 所有方法都在调用方的写事务中执行。
+ */
+public class BackupBlobStore {
+    private final SqlDialect dialect;
+    private final PayloadCompressor payloadCompressor;
+
+    private final AtomicLong reusedBlobs = new AtomicLong();
+    private final AtomicLong writtenBlobs = new AtomicLong();
+    private final AtomicLong collectedBlobs = new AtomicLong();
+    private final AtomicLong savedChars = new AtomicLong();
+
+    /**
+     * 构造函数
+     * @param dialect 数据库方言
+     * @param payloadCompressor 数据块内容的压缩
+     */
+    public BackupBlobStore(SqlDialect dialect, PayloadCompressor payloadCompressor) {
+        this.dialect = dialect;
+        this.payloadCompressor = payloadCompressor;
+    }
+
+    /**
+     * 计算背包数据的内容哈希
+     * @param data 序列化后的背包数据
+     * @return SHA-256的十六进制字符串
+     */
+    public static String hash(String data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前JVM不支持SHA-256", e);
+        }
+        byte[] bytes = digest.digest(data.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 增加数据块的引用，不存在时写入数据块
+     * 先只按哈希增加引用计数，内容已存在时不再传输背包数据
+     * @param connection 处于事务中的连接
+     * @param data 序列化后的背包数据
+     * @return 数据块哈希
+     * @throws SQLException SQL异常
+     */
+    public String acquire(Connection connection, String data) throws SQLException {
+        String hash = hash(data);
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "UPDATE player_backpack_blobs SET ref_count = ref_count + 1 WHERE hash = ?")) {
+            stmt.setString(1, hash);
+            if (stmt.executeUpdate() > 0) {
+                reusedBlobs.incrementAndGet();
+                savedChars.addAndGet(data.length());
+                return hash;
+            }
+        }
+        // 并发写入同一内容时由upsert的冲突处理增加引用
+        try (PreparedStatement stmt = connection.prepareStatement(dialect.upsertBlobSql())) {
+            stmt.setString(1, hash);
+            dialect.setPayload(stmt, 2, payloadCompressor.compress(data));
+            stmt.executeUpdate();
+        }
+        writtenBlobs.incrementAndGet();
+        return hash;
+    }
+
+    /**
+     * 释放数据块的一个引用，引用数归零时删除数据块
+     * @param connection 处于事务中的连接
+     * @param hash 数据块哈希，为null时（旧格式的备份）不做任何事
+     * @return 数据块是否被删除
+     * @throws SQLException SQL异常
+     */
+    public boolean release(Connection connection, String hash) throws SQLException {
+        if (hash == null) {
+            return false;
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "UPDATE player_backpack_blobs SET ref_count = ref_count - 1 WHERE hash = ?")) {
+            stmt.setString(1, hash);
+            stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "DELETE FROM player_backpack_blobs WHERE hash = ? AND ref_count <= 0")) {
+            stmt.setString(1, hash);
+            if (stmt.executeUpdate() > 0) {
+                collectedBlobs.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 统计数据块数量
+     * @param connection 数据库连接
+     * @return 数据块数量
+     * @throws SQLException SQL异常
+     */
+    public int countBlobs(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(*) FROM player_backpack_blobs");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * 获取复用已有数据块的备份数量
+     * @return 复用次数
+     */
+    public long getReusedBlobs() {
+        return reusedBlobs.get();
+    }
+
+    /**
+     * 获取新写入的数据块数量
+     * @return 写入次数
+     */
+    public long getWrittenBlobs() {
+        return writtenBlobs.get();
+    }
+
+    /**
+     * 获取引用数归零后删除的数据块数量
+     * @return 删除次数
+     */
+    public long getCollectedBlobs() {
+        return collectedBlobs.get();
+    }
+
+    /**
+     * 获取因复用数据块而未写入的背包数据字符数
+     * @return 字符数
+     */
+    public long getSavedChars() {
+        return savedChars.get();
+    }
+}
@@ -0,0 +1,396 @@
+package com.leeinx.xibackpack.handler;
+
+import com.leeinx.xibackpack.backpack.BackpackCodec;
+import com.leeinx.xibackpack.backpack.BackpackDelta;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 增量备份链
+ *
+ * 每隔若干个备份保存一次完整快照，其余备份只保存与上一个备份相比变化的槽位（{@link BackpackDelta}），
+ * 并通过 parent_id 指向上一个备份。读取备份时从完整快照开始依次应用增量。
+ *
+ * 被淘汰的备份先由 {@link BackupRetention} 标记为已淘汰（pruned），不再出现在列表和数量统计中；
+ * 由 {@link #compact(Connection, int)} 在后台删除，被其他备份依赖的先合并进下一个备份（下一个备份改存完整快照），
+ * 保存备份时不需要还原和重新编码整条链。
+ * 所有方法都在调用方的写事务或读连接上执行。
+ */
+public class BackupChainStore {
+    // 防止损坏的数据形成环时无限循环
+    private static final int MAX_CHAIN_LENGTH = 1000;
+
+    private final SqlDialect dialect;
+    private final PayloadCompressor payloadCompressor;
+    private final BackupBlobStore blobStore;
+    private final boolean incremental;
+    private final int fullEvery;
+
+    private final AtomicLong fullBackups = new AtomicLong();
+    private final AtomicLong deltaBackups = new AtomicLong();
+    private final AtomicLong deltaChars = new AtomicLong();
+    private final AtomicLong deltaSourceChars = new AtomicLong();
+    private final AtomicLong foldedBackups = new AtomicLong();
+
+    /**
+     * 构造函数
+     * @param dialect 数据库方言
+     * @param payloadCompressor 备份数据的压缩
+     * @param blobStore 备份数据块存储
+     * @param incremental 是否启用增量备份
+     * @param fullEvery 每多少个备份保存一次完整快照（1表示全部保存完整快照）
+     */
+    public BackupChainStore(SqlDialect dialect, PayloadCompressor payloadCompressor, BackupBlobStore blobStore,
+                            boolean incremental, int fullEvery) {
+        this.dialect = dialect;
+        this.payloadCompressor = payloadCompressor;
+        this.blobStore = blobStore;
+        this.incremental = incremental;
+        this.fullEvery = Math.max(1, fullEvery);
+    }
+
+    /**
+     * 写入一个备份，能保存为增量时保存增量
+     * @param connection 处于事务中的连接
+     * @param playerUUID 玩家UUID
+     * @param backupId 备份ID，调用方需保证该玩家没有同名备份
+     * @param data 完整的背包数据
+     * @throws SQLException SQL异常
+     */
+    public void insert(Connection connection, UUID playerUUID, String backupId, String data) throws SQLException {
+        String payload = data;
+        Long parentId = null;
+        if (incremental && fullEvery > 1 && BackpackCodec.isBinary(data)) {
+            Row latest = findLatest(connection, playerUUID);
+            if (latest != null) {
+                try {
+                    List<String> chain = readChain(connection, latest.id);
+                    String previous = materialize(chain);
+                    if (BackpackDelta.sameContent(previous, data)) {
+                        // 内容没有变化时与上一个备份共用数据块和父备份，链不会变长
+                        payload = chain.get(chain.size() - 1);
+                        parentId = latest.parentId;
+                    } else if (chain.size() < fullEvery) {
+                        // 链长度达到上限时保存完整快照，读取任何备份最多应用 fullEvery - 1 个增量
+                        String delta = BackpackDelta.diff(previous, data);
+                        if (delta != null && delta.length() < data.length()) {
+                            payload = delta;
+                            parentId = latest.id;
+                        }
+                    }
+                } catch (IOException e) {
+                    com.leeinx.xibackpack.util.LogManager.warning("读取玩家 %s 的上一个备份失败，保存完整快照: %s", playerUUID, e.getMessage());
+                }
+            }
+        }
+
+        String blobHash = blobStore.acquire(connection, payload);
+        String sql = "INSERT INTO player_backpack_backups (player_uuid, backup_id, blob_hash, parent_id) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, playerUUID.toString());
+            stmt.setString(2, backupId);
+            stmt.setString(3, blobHash);
+            if (parentId == null) {
+                stmt.setNull(4, Types.BIGINT);
+            } else {
+                stmt.setLong(4, parentId);
+            }
+            stmt.executeUpdate();
+        }
+
+        if (parentId == null) {
+            fullBackups.incrementAndGet();
+        } else {
+            deltaBackups.incrementAndGet();
+            deltaChars.addAndGet(payload.length());
+            deltaSourceChars.addAndGet(data.length());
+        }
+    }
+
+    /**
+     * 读取备份的完整数据
+     * @param connection 数据库连接
+     * @param playerUUID 玩家UUID
+     * @param backupId 备份ID
+     * @return 完整的背包数据，备份不存在时返回null
+     * @throws SQLException SQL异常
+     * @throws IOException 备份链不完整或数据损坏时抛出
+     */
+    public String load(Connection connection, UUID playerUUID, String backupId) throws SQLException, IOException {
+        Long id = null;
+        String sql = "SELECT id FROM player_backpack_backups WHERE player_uuid = ? AND backup_id = ? AND pruned = 0";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, playerUUID.toString());
+            stmt.setString(2, backupId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    id = rs.getLong("id");
+                }
+            }
+        }
+        return id == null ? null : materialize(readChain(connection, id));
+    }
+
+    /**
+     * 删除指定备份，有备份依赖它时先把依赖的备份改存为完整快照
+     * @param connection 处于事务中的连接
+     * @param playerUUID 玩家UUID
+     * @param backupId 备份ID
+     * @return 是否删除了备份
+     * @throws SQLException SQL异常
+     */
+    public boolean delete(Connection connection, UUID playerUUID, String backupId) throws SQLException {
+        long id;
+        String blobHash;
+        String sql = "SELECT id, blob_hash FROM player_backpack_backups WHERE player_uuid = ? AND backup_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, playerUUID.toString());
+            stmt.setString(2, backupId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                id = rs.getLong("id");
+                blobHash = rs.getString("blob_hash");
+            }
+        }
+        foldIntoChildren(connection, id);
+        return deleteRow(connection, id, blobHash);
+    }
+
+    /**
+     * 合并已淘汰的备份：把依赖它的备份改存为完整快照，然后删除它并释放数据块
+     * @param connection 处于事务中的连接
+     * @param limit 本次最多处理的备份数量
+     * @return 删除的已淘汰备份数量
+     * @throws SQLException SQL异常
+     */
+    public int compact(Connection connection, int limit) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        // 按id从旧到新处理，祖先先于后代合并
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT id, blob_hash FROM player_backpack_backups WHERE pruned = 1 ORDER BY id ASC")) {
+            stmt.setMaxRows(limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong("id"));
+                    hashes.add(rs.getString("blob_hash"));
+                }
+            }
+        }
+
+        int removed = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            long id = ids.get(i);
+            foldIntoChildren(connection, id);
+            if (deleteRow(connection, id, hashes.get(i))) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 统计等待合并的已淘汰备份数量
+     * @param connection 数据库连接
+     * @return 数量
+     * @throws SQLException SQL异常
+     */
+    public int countPruned(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(*) FROM player_backpack_backups WHERE pruned = 1");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * 把直接依赖指定备份的备份改存为完整快照
+     */
+    private void foldIntoChildren(Connection connection, long id) throws SQLException {
+        List<Long> children = new ArrayList<>();
+        List<String> childHashes = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT id, blob_hash FROM player_backpack_backups WHERE parent_id = ?")) {
+            stmt.setLong(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    children.add(rs.getLong("id"));
+                    childHashes.add(rs.getString("blob_hash"));
+                }
+            }
+        }
+
+        for (int i = 0; i < children.size(); i++) {
+            long child = children.get(i);
+            String full;
+            try {
+                full = materialize(readChain(connection, child));
+            } catch (IOException e) {
+                throw new SQLException("合并增量备份 " + child + " 失败: " + e.getMessage(), e);
+            }
+            String fullHash = blobStore.acquire(connection, full);
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "UPDATE player_backpack_backups SET blob_hash = ?, parent_id = NULL WHERE id = ?")) {
+                stmt.setString(1, fullHash);
+                stmt.setLong(2, child);
+                stmt.executeUpdate();
+            }
+            blobStore.release(connection, childHashes.get(i));
+            foldedBackups.incrementAndGet();
+        }
+    }
+
+    private boolean deleteRow(Connection connection, long id, String blobHash) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM player_backpack_backups WHERE id = ?")) {
+            stmt.setLong(1, id);
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        // 最后一个引用它的备份删除后回收数据块
+        blobStore.release(connection, blobHash);
+        return true;
+    }
+
+    /**
+     * 查询玩家最新的备份（包括等待合并的已淘汰备份）
+     */
+    private Row findLatest(Connection connection, UUID playerUUID) throws SQLException {
+        String sql = "SELECT id, parent_id FROM player_backpack_backups WHERE player_uuid = ? ORDER BY created_at DESC, id DESC";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setMaxRows(1);
+            stmt.setString(1, playerUUID.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                long id = rs.getLong("id");
+                long parent = rs.getLong("parent_id");
+                return new Row(id, rs.wasNull() ? null : parent);
+            }
+        }
+    }
+
+    /**
+     * 从指定备份沿 parent_id 读取到完整快照
+     * @return 从完整快照到指定备份的数据，第一个为完整快照
+     */
+    private List<String> readChain(Connection connection, long id) throws SQLException, IOException {
+        // 旧版本的备份数据直接存在备份行中，新备份引用数据块
+        String sql = "SELECT b.parent_id, b.backpack_data, o.backpack_data AS blob_data FROM player_backpack_backups b " +
+                     "LEFT JOIN player_backpack_blobs o ON o.hash = b.blob_hash WHERE b.id = ?";
+        LinkedList<String> chain = new LinkedList<>();
+        Long current = id;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            while (current != null) {
+                if (chain.size() >= MAX_CHAIN_LENGTH) {
+                    throw new IOException("备份链过长: " + id);
+                }
+                stmt.setLong(1, current);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new IOException("备份链不完整，缺少备份 " + current);
+                    }
+                    long parent = rs.getLong("parent_id");
+                    Long next = rs.wasNull() ? null : parent;
+                    String blobData = dialect.getPayload(rs, "blob_data");
+                    chain.addFirst(payloadCompressor.decompress(blobData != null ? blobData : dialect.getPayload(rs, "backpack_data")));
+                    current = next;
+                }
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * 在完整快照上依次应用增量
+     */
+    private static String materialize(List<String> chain) throws IOException {
+        String data = chain.get(0);
+        if (BackpackDelta.isDelta(data)) {
+            throw new IOException("备份链缺少完整快照");
+        }
+        for (int i = 1; i < chain.size(); i++) {
+            data = BackpackDelta.apply(data, chain.get(i));
+        }
+        return data;
+    }
+
+    private static final class Row {
+        private final long id;
+        private final Long parentId;
+
+        private Row(long id, Long parentId) {
+            this.id = id;
+            this.parentId = parentId;
+        }
+    }
+
+    /**
+     * 是否启用增量备份
+     * @return 启用且完整快照间隔大于1时返回true
+     */
+    public boolean isIncremental() {
+        return incremental && fullEvery > 1;
+    }
+
+    /**
+     * 获取完整快照间隔
+     * @return 每多少个备份保存一次完整快照
+     */
+    public int getFullEvery() {
+        return fullEvery;
+    }
+
+    /**
+     * 获取保存为完整快照的备份数量
+     * @return 数量
+     */
+    public long getFullBackups() {
+        return fullBackups.get();
+    }
+
+    /**
+     * 获取保存为增量的备份数量
+     * @return 数量
+     */
+    public long getDeltaBackups() {
+        return deltaBackups.get();
+    }
+
+    /**
+     * 获取增量备份的平均大小（字符数）
+     * @return 平均大小
+     */
+    public long getAverageDeltaChars() {
+        long count = deltaBackups.get();
+        return count == 0 ? 0 : deltaChars.get() / count;
+    }
+
+    /**
+     * 获取增量备份相比完整快照节省的字符数
+     * @return 字符数
+     */
+    public long getSavedChars() {
+        return deltaSourceChars.get() - deltaChars.get();
+    }
+
+    /**
+     * 获取合并时改存为完整快照的备份数量
+     * @return 数量
+     */
+    public long getFoldedBackups() {
+        return foldedBackups.get();
+    }
+}
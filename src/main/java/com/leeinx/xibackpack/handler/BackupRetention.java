@@ -0,0 +1,271 @@
+package com.leeinx.xibackpack.handler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 备份保留策略
+ *
+ * 每个玩家保留最新的 max-count 个备份；启用分级保留时，另外保留最近 hourly 小时内每小时最新的一个备份、
+ * 最近 daily 天内每天最新的一个备份。其余备份由一条使用窗口函数的UPDATE语句一次性标记为已淘汰，
+ * 之后由 {@link BackupChainStore#compact(Connection, int)} 删除或合并，保存备份时不再统计和删除旧备份。
+ * 数据库不支持窗口函数时（MySQL 5.7、SQLite 3.25以前）改为逐个玩家按时间倒序读取备份，跳过保留的备份后逐条标记。
+ */
+public class BackupRetention {
+    private final int maxCount;
+    private final int hourlyHours;
+    private final int dailyDays;
+    private final String markSql;
+    private final String candidatesSql;
+    private final String playerBackupsSql;
+    private volatile boolean windowFunctions = true;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong markedBackups = new AtomicLong();
+    private final AtomicLong removedBackups = new AtomicLong();
+    private volatile long lastRunMillis;
+    private volatile long lastRunAt;
+
+    /**
+     * 构造函数
+     * @param dialect 数据库方言
+     * @param maxCount 每个玩家保留的最新备份数量
+     * @param hourlyHours 按小时保留的时长（小时），0表示不按小时保留
+     * @param dailyDays 按天保留的时长（天），0表示不按天保留
+     */
+    public BackupRetention(SqlDialect dialect, int maxCount, int hourlyHours, int dailyDays) {
+        this.maxCount = Math.max(1, maxCount);
+        this.hourlyHours = Math.max(0, hourlyHours);
+        this.dailyDays = Math.max(0, dailyDays);
+        this.markSql = buildMarkSql(dialect);
+        this.candidatesSql = "SELECT player_uuid FROM player_backpack_backups WHERE pruned = 0 GROUP BY player_uuid HAVING COUNT(*) > ?";
+        this.playerBackupsSql = buildPlayerBackupsSql(dialect);
+    }
+
+    /**
+     * 生成标记过期备份的语句，参数依次为：max-count、按小时保留的小时数（启用时）、按天保留的小时数（启用时）
+     */
+    private String buildMarkSql(SqlDialect dialect) {
+        String order = "ORDER BY created_at DESC, id DESC";
+        StringBuilder ranked = new StringBuilder("SELECT id, created_at, ROW_NUMBER() OVER (PARTITION BY player_uuid ")
+                .append(order).append(") AS rank_all");
+        StringBuilder expired = new StringBuilder("rank_all > ?");
+        if (hourlyHours > 0) {
+            ranked.append(", ROW_NUMBER() OVER (PARTITION BY player_uuid, ").append(dialect.timeBucketSql("created_at", false))
+                    .append(" ").append(order).append(") AS rank_hour");
+            expired.append(" AND NOT (rank_hour = 1 AND created_at >= ").append(dialect.hoursAgoSql()).append(")");
+        }
+        if (dailyDays > 0) {
+            ranked.append(", ROW_NUMBER() OVER (PARTITION BY player_uuid, ").append(dialect.timeBucketSql("created_at", true))
+                    .append(" ").append(order).append(") AS rank_day");
+            expired.append(" AND NOT (rank_day = 1 AND created_at >= ").append(dialect.hoursAgoSql()).append(")");
+        }
+        ranked.append(" FROM player_backpack_backups WHERE pruned = 0");
+        // 外层再套一层派生表，MySQL不允许在UPDATE的子查询中直接读取被更新的表
+        return "UPDATE player_backpack_backups SET pruned = 1 WHERE id IN (SELECT id FROM (" + ranked +
+                ") ranked WHERE " + expired + ")";
+    }
+
+    /**
+     * 生成按时间倒序读取单个玩家备份的语句，与窗口函数使用相同的时间分组和保留时长
+     * 参数依次为：按小时保留的小时数（启用时）、按天保留的小时数（启用时）、玩家UUID
+     */
+    private String buildPlayerBackupsSql(SqlDialect dialect) {
+        StringBuilder sql = new StringBuilder("SELECT id");
+        if (hourlyHours > 0) {
+            sql.append(", ").append(dialect.timeBucketSql("created_at", false)).append(" AS hour_bucket, CASE WHEN created_at >= ")
+                    .append(dialect.hoursAgoSql()).append(" THEN 1 ELSE 0 END AS hour_recent");
+        }
+        if (dailyDays > 0) {
+            sql.append(", ").append(dialect.timeBucketSql("created_at", true)).append(" AS day_bucket, CASE WHEN created_at >= ")
+                    .append(dialect.hoursAgoSql()).append(" THEN 1 ELSE 0 END AS day_recent");
+        }
+        return sql.append(" FROM player_backpack_backups WHERE player_uuid = ? AND pruned = 0 ORDER BY created_at DESC, id DESC").toString();
+    }
+
+    /**
+     * 检测数据库是否支持窗口函数，不支持时改用逐个玩家标记
+     * @param connection 数据库连接（不在事务中）
+     * @return 是否支持窗口函数
+     */
+    public boolean detectWindowFunctions(Connection connection) {
+        try (Statement stmt = connection.createStatement();
+             ResultSet ignored = stmt.executeQuery("SELECT ROW_NUMBER() OVER (ORDER BY id) FROM player_backpack_backups WHERE 1 = 0")) {
+            windowFunctions = true;
+        } catch (SQLException e) {
+            windowFunctions = false;
+            com.leeinx.xibackpack.util.LogManager.warning("数据库不支持窗口函数 (%s)，备份保留策略改为逐个玩家执行", e.getMessage());
+        }
+        return windowFunctions;
+    }
+
+    /**
+     * 把超出保留策略的备份标记为已淘汰
+     * @param connection 处于事务中的连接
+     * @return 标记的备份数量
+     * @throws SQLException SQL异常
+     */
+    public int markExpired(Connection connection) throws SQLException {
+        if (!windowFunctions) {
+            return markExpiredPerPlayer(connection);
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(markSql)) {
+            int index = 1;
+            stmt.setInt(index++, maxCount);
+            if (hourlyHours > 0) {
+                stmt.setInt(index++, hourlyHours);
+            }
+            if (dailyDays > 0) {
+                stmt.setInt(index, dailyDays * 24);
+            }
+            int marked = stmt.executeUpdate();
+            markedBackups.addAndGet(marked);
+            return marked;
+        }
+    }
+
+    /**
+     * 不使用窗口函数标记过期备份：只处理备份数量超过max-count的玩家，按时间倒序读取其备份，
+     * 跳过最新的max-count个以及每小时、每天最新的备份后逐条标记
+     * @param connection 处于事务中的连接
+     * @return 标记的备份数量
+     * @throws SQLException SQL异常
+     */
+    public int markExpiredPerPlayer(Connection connection) throws SQLException {
+        List<String> players = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(candidatesSql)) {
+            stmt.setInt(1, maxCount);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    players.add(rs.getString(1));
+                }
+            }
+        }
+
+        int marked = 0;
+        try (PreparedStatement select = connection.prepareStatement(playerBackupsSql);
+             PreparedStatement update = connection.prepareStatement("UPDATE player_backpack_backups SET pruned = 1 WHERE id = ?")) {
+            for (String player : players) {
+                int index = 1;
+                if (hourlyHours > 0) {
+                    select.setInt(index++, hourlyHours);
+                }
+                if (dailyDays > 0) {
+                    select.setInt(index++, dailyDays * 24);
+                }
+                select.setString(index, player);
+
+                Set<String> hours = new HashSet<>();
+                Set<String> days = new HashSet<>();
+                int rank = 0;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rank++;
+                        // 与窗口函数的ROW_NUMBER相同：每个时间分组中第一个（最新的）备份排名为1
+                        boolean keep = rank <= maxCount;
+                        if (hourlyHours > 0 && hours.add(String.valueOf(rs.getObject("hour_bucket")))) {
+                            keep |= rs.getInt("hour_recent") == 1;
+                        }
+                        if (dailyDays > 0 && days.add(String.valueOf(rs.getObject("day_bucket")))) {
+                            keep |= rs.getInt("day_recent") == 1;
+                        }
+                        if (!keep) {
+                            update.setLong(1, rs.getLong("id"));
+                            update.addBatch();
+                            marked++;
+                        }
+                    }
+                }
+            }
+            if (marked > 0) {
+                update.executeBatch();
+            }
+        }
+        markedBackups.addAndGet(marked);
+        return marked;
+    }
+
+    /**
+     * 是否使用窗口函数标记过期备份
+     * @return 是否使用窗口函数
+     */
+    public boolean isUsingWindowFunctions() {
+        return windowFunctions;
+    }
+
+    /**
+     * 记录一次维护任务的结果
+     * @param removed 删除的已淘汰备份数量
+     * @param elapsedMillis 耗时（毫秒）
+     */
+    void recordRun(int removed, long elapsedMillis) {
+        runs.incrementAndGet();
+        removedBackups.addAndGet(removed);
+        lastRunMillis = elapsedMillis;
+        lastRunAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取标记过期备份的语句
+     * @return SQL
+     */
+    public String getMarkSql() {
+        return markSql;
+    }
+
+    /**
+     * 获取每个玩家保留的最新备份数量
+     * @return 备份数量
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * 获取维护任务的执行次数
+     * @return 执行次数
+     */
+    public long getRuns() {
+        return runs.get();
+    }
+
+    /**
+     * 获取被标记为已淘汰的备份数量
+     * @return 备份数量
+     */
+    public long getMarkedBackups() {
+        return markedBackups.get();
+    }
+
+    /**
+     * 获取维护任务删除的已淘汰备份数量
+     * @return 备份数量
+     */
+    public long getRemovedBackups() {
+        return removedBackups.get();
+    }
+
+    /**
+     * 获取最近一次维护任务的耗时
+     * @return 耗时（毫秒）
+     */
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    /**
+     * 获取最近一次维护任务的完成时间
+     * @return 时间戳（毫秒），从未执行时为0
+     */
+    public long getLastRunAt() {
+        return lastRunAt;
+    }
+}
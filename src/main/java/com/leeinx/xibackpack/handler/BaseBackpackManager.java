@@ -36,6 +36,31 @@ public abstract class BaseBackpackManager {
         this.playerPages = new ConcurrentHashMap<>();
     }
 
+    /**
+     * 按配置设置背包缓存的上限，个人背包和团队背包分别使用同样的上限
+     * 缓存的权重为估算的内存占用（字节）
+     * @param cache 背包缓存
+     */
+    protected void configureCache(BackpackCache<?, ?> cache) {
+        cache.configure(
+            com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.cache.max-entries", 2000),
+            com.leeinx.xibackpack.util.ConfigManager.getLong("backpack.cache.max-memory-mb", 0L) * 1024L * 1024L,
+            com.leeinx.xibackpack.util.ConfigManager.getLong("backpack.cache.idle-ttl", 1800L) * 1000L
+        );
+    }
+
+    /**
+     * 在主线程上发生同步数据库加载时输出警告和调用栈，便于找到仍在阻塞主线程的调用方
+     * @param what 被加载的对象描述
+     */
+    protected void warnIfBlockingLoad(String what) {
+        if (Bukkit.isPrimaryThread()
+                && com.leeinx.xibackpack.util.ConfigManager.getBoolean("debug.warn-blocking-loads", true)) {
+            plugin.getLogger().log(Level.WARNING, "在主线程上同步加载" + what + "，这会阻塞服务器主线程",
+                    new Throwable("同步加载调用栈"));
+        }
+    }
+
     /**
      * 显示一个加载中动画界面
      * @param player 玩家对象
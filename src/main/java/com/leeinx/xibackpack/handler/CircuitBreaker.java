@@ -0,0 +1,191 @@
+package com.leeinx.xibackpack.handler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据库熔断器
+ *
+ * 连续出现若干次数据库不可用（连接失败、超时等）后打开，打开期间的数据库操作直接失败，不再访问数据库；
+ * 保存由保存日志和写回队列保留，等待恢复后写入。打开一段时间后进入半开状态，只放行一次探测：
+ * 探测成功则关闭熔断器，失败则重新打开。
+ */
+public class CircuitBreaker {
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /** 正常访问数据库 */
+        CLOSED,
+        /** 数据库不可用，操作直接失败 */
+        OPEN,
+        /** 放行一次探测，根据结果关闭或重新打开 */
+        HALF_OPEN
+    }
+
+    /**
+     * 状态变化监听器
+     */
+    public interface Listener {
+        /**
+         * 状态变化后调用（不持有熔断器的锁）
+         * @param from 原状态
+         * @param to 新状态
+         */
+        void onStateChange(State from, State to);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean probeInFlight = new AtomicBoolean(false);
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    private final AtomicLong openCount = new AtomicLong();
+
+    private volatile int failureThreshold;
+    private volatile long openMillis;
+
+    private volatile State state = State.CLOSED;
+    private volatile long lastTransition = System.currentTimeMillis();
+    private int consecutiveFailures;
+
+    /**
+     * 构造函数
+     * @param failureThreshold 打开熔断器所需的连续失败次数
+     * @param openMillis 打开后到允许探测的时间（毫秒）
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        configure(failureThreshold, openMillis);
+    }
+
+    /**
+     * 修改熔断参数
+     * @param failureThreshold 打开熔断器所需的连续失败次数
+     * @param openMillis 打开后到允许探测的时间（毫秒）
+     */
+    public void configure(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0L, openMillis);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 检查是否允许访问数据库，允许时调用方必须在操作结束后调用 {@link #recordSuccess()}、{@link #recordFailure()} 或 {@link #recordIgnored()}
+     * @return 允许访问时返回true
+     */
+    public boolean allowRequest() {
+        State current = state;
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && System.currentTimeMillis() - lastTransition >= openMillis) {
+            transition(State.OPEN, State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN && probeInFlight.compareAndSet(false, true)) {
+            return true;
+        }
+        rejectedCalls.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 记录数据库有响应（包括非连接类的SQL错误）
+     */
+    public void recordSuccess() {
+        State from;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            from = state;
+        }
+        probeInFlight.set(false);
+        if (from != State.CLOSED) {
+            transition(from, State.CLOSED);
+        }
+    }
+
+    /**
+     * 记录一次数据库不可用
+     */
+    public void recordFailure() {
+        State from;
+        boolean open;
+        synchronized (this) {
+            consecutiveFailures++;
+            from = state;
+            open = from == State.HALF_OPEN || (from == State.CLOSED && consecutiveFailures >= failureThreshold);
+        }
+        probeInFlight.set(false);
+        if (open) {
+            transition(from, State.OPEN);
+        }
+    }
+
+    /**
+     * 操作因与数据库无关的原因失败，不改变熔断状态，只释放半开状态下的探测名额
+     */
+    public void recordIgnored() {
+        probeInFlight.set(false);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 获取当前连续失败的次数
+     * @return 连续失败次数
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * 获取熔断器打开的次数
+     * @return 打开次数
+     */
+    public long getOpenCount() {
+        return openCount.get();
+    }
+
+    /**
+     * 获取因熔断器打开而直接失败的操作数量
+     * @return 拒绝次数
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+
+    /**
+     * 获取最近一次状态变化的时间
+     * @return 时间戳（毫秒）
+     */
+    public long getLastTransition() {
+        return lastTransition;
+    }
+
+    /**
+     * 状态仍为from时切换到to，并通知监听器
+     */
+    private void transition(State from, State to) {
+        synchronized (this) {
+            if (state != from || from == to) {
+                return;
+            }
+            state = to;
+            lastTransition = System.currentTimeMillis();
+            if (to == State.OPEN) {
+                openCount.incrementAndGet();
+            }
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChange(from, to);
+            } catch (Exception e) {
+                com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("处理熔断器状态变化", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.leeinx.xibackpack.handler;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据库操作线程池
+ *
+ * 队列已满时直接拒绝（抛出 {@link RejectedExecutionException}），不会像CallerRunsPolicy那样在调用线程上执行，
+ * 避免数据库变慢时JDBC操作落到服务器主线程上。调用方负责处理拒绝：保存合并到写回队列，加载提示玩家稍后再试。
+ */
+public class DatabaseExecutor extends ThreadPoolExecutor {
+    private final int queueCapacity;
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+
+    /**
+     * 构造函数
+     * @param corePoolSize 核心线程数
+     * @param maxPoolSize 最大线程数
+     * @param queueCapacity 等待队列容量
+     * @param threadFactory 线程工厂
+     */
+    public DatabaseExecutor(int corePoolSize, int maxPoolSize, int queueCapacity, ThreadFactory threadFactory) {
+        super(corePoolSize, maxPoolSize, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory, new AbortPolicy());
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        try {
+            super.execute(command);
+        } catch (RejectedExecutionException e) {
+            rejectedTasks.incrementAndGet();
+            throw e;
+        }
+        int depth = getQueue().size();
+        int current;
+        while (depth > (current = highWaterMark.get())) {
+            if (highWaterMark.compareAndSet(current, depth)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 检查异常是否由数据库线程池繁忙（任务被拒绝）或数据库暂时不可用导致
+     * @param throwable 异步操作的异常
+     * @return 是繁忙或暂时不可用时返回true
+     */
+    public static boolean isBusy(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RejectedExecutionException || cause instanceof DatabaseUnavailableException;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * 获取运行以来等待队列的最大长度
+     * @return 队列峰值
+     */
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * 获取因队列已满或线程池已关闭而被拒绝的任务数量
+     * @return 拒绝次数
+     */
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+}
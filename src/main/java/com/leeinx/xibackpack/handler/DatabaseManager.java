@@ -17,9 +17,33 @@ import java.util.concurrent.*;
 import java.util.logging.Level;
 
 public class DatabaseManager {
+    // 备份维护每个事务最多删除或合并的已淘汰备份数量
+    private static final int MAINTENANCE_BATCH_SIZE = 100;
+
     private XiBackpack plugin;
     private HikariDataSource dataSource;
-    private ExecutorService asyncExecutor;
+    // SQLite：只读连接池和单写线程，其他数据库为null
+    private HikariDataSource readDataSource;
+    private SqliteWriter sqliteWriter;
+    private DatabaseExecutor asyncExecutor;
+    // 同一玩家UUID / 团队背包ID的读写按提交顺序执行，避免旧快照在新快照之后写入
+    private KeyedExecutor<Object> keyedExecutor;
+    private WriteBehindQueue writeBehindQueue;
+    // 本地保存日志，保存先记录到日志再写入数据库，未启用时为null
+    private SaveJournal saveJournal;
+    // 异步加载的定时重试和保存日志的定时重放
+    private ScheduledExecutorService scheduler;
+    // 数据库不可用时打开，期间的操作直接失败而不访问数据库
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(5, 10000L);
+    private PayloadCompressor payloadCompressor = new PayloadCompressor(false, 6, 0);
+    // 建表语句、upsert语句和背包数据列的读写方式
+    private SqlDialect dialect = new SqliteDialect();
+    // 备份数据按内容哈希去重存储
+    private BackupBlobStore backupBlobStore = new BackupBlobStore(dialect, payloadCompressor);
+    // 备份按完整快照加增量链保存
+    private BackupChainStore backupChainStore = new BackupChainStore(dialect, payloadCompressor, backupBlobStore, false, 1);
+    // 后台维护任务按保留策略淘汰备份
+    private BackupRetention backupRetention = new BackupRetention(dialect, 10, 0, 0);
 
     /**
      * 构造函数，初始化数据库管理器
@@ -27,6 +51,7 @@ public class DatabaseManager {
      */
     public DatabaseManager(XiBackpack plugin) {
         this.plugin = plugin;
+        circuitBreaker.addListener(this::onCircuitStateChange);
     }
 
     /**
@@ -37,13 +62,11 @@ public class DatabaseManager {
             // 初始化异步执行器
             int corePoolSize = Runtime.getRuntime().availableProcessors();
             int maxPoolSize = corePoolSize * 2;
-            long keepAliveTime = 60L;
-            asyncExecutor = new ThreadPoolExecutor(
+            // 队列满时拒绝任务，由调用方合并保存或提示稍后再试，不在调用线程（可能是主线程）上执行JDBC
+            asyncExecutor = new DatabaseExecutor(
                 corePoolSize,
                 maxPoolSize,
-                keepAliveTime,
-                TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(1000),
+                com.leeinx.xibackpack.util.ConfigManager.getInt("database.executor-queue-size", 1000),
                 new ThreadFactory() {
                     @Override
                     public Thread newThread(Runnable r) {
@@ -51,8 +74,18 @@ public class DatabaseManager {
                         thread.setDaemon(true);
                         return thread;
                     }
-                },
-                new ThreadPoolExecutor.CallerRunsPolicy()
+                }
+            );
+            keyedExecutor = new KeyedExecutor<>(asyncExecutor,
+                com.leeinx.xibackpack.util.ConfigManager.getInt("database.max-queue-per-key", 64));
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "XiBackpack-DB-Scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            circuitBreaker.configure(
+                com.leeinx.xibackpack.util.ConfigManager.getInt("database.circuit-breaker.failure-threshold", 5),
+                com.leeinx.xibackpack.util.ConfigManager.getLong("database.circuit-breaker.open-duration", 10) * 1000L
             );
             
             HikariConfig config = new HikariConfig();
@@ -64,6 +97,7 @@ public class DatabaseManager {
             String database = com.leeinx.xibackpack.util.ConfigManager.getString("database.database");
             String username = com.leeinx.xibackpack.util.ConfigManager.getString("database.username", "");
             String password = com.leeinx.xibackpack.util.ConfigManager.getString("database.password", "");
+            dialect = SqlDialect.forType(dbType);
 
             // 检查是否为测试环境
             boolean isTestEnvironment = plugin.isTestEnvironment();
@@ -85,8 +119,9 @@ public class DatabaseManager {
                     // SQLite数据库文件存储在插件数据目录
                     String dbPath = plugin.getDataFolder() + File.separator + database + ".db";
                     config.setJdbcUrl("jdbc:sqlite:" + dbPath);
-                    // SQLite特定配置
-                    config.setMaximumPoolSize(1); // SQLite不支持多连接
+                    // SQLite特定配置：只有一个写连接，读取使用单独的只读连接池
+                    config.setMaximumPoolSize(1);
+                    applySqlitePragmas(config);
                     config.setMinimumIdle(1);
                     config.setConnectionTimeout(connectionTimeout);
                     config.setIdleTimeout(isTestEnvironment ? 300000 : 600000);
@@ -118,24 +153,57 @@ public class DatabaseManager {
                 }
             }
 
-            // MySQL 特定配置
-            if (dbType.equalsIgnoreCase("mysql")) {
-                config.addDataSourceProperty("cachePrepStmts", "true");
-                config.addDataSourceProperty("prepStmtCacheSize", "250");
-                config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-                config.addDataSourceProperty("useServerPrepStmts", "true");
-                config.addDataSourceProperty("useLocalSessionState", "true");
-                config.addDataSourceProperty("rewriteBatchedStatements", "true");
-                config.addDataSourceProperty("cacheResultSetMetadata", "true");
-                config.addDataSourceProperty("cacheServerConfiguration", "true");
-                config.addDataSourceProperty("elideSetAutoCommits", "true");
-                config.addDataSourceProperty("maintainTimeStats", "false");
-            }
+            // 数据库驱动特定配置
+            dialect.configure(config);
 
             dataSource = new HikariDataSource(config);
 
+            // 初始化背包数据压缩
+            payloadCompressor.close();
+            payloadCompressor = new PayloadCompressor(
+                com.leeinx.xibackpack.util.ConfigManager.getBoolean("database.compression.enabled", false),
+                com.leeinx.xibackpack.util.ConfigManager.getInt("database.compression.level", 6),
+                com.leeinx.xibackpack.util.ConfigManager.getInt("database.compression.min-size", 256)
+            );
+            backupBlobStore = new BackupBlobStore(dialect, payloadCompressor);
+            backupChainStore = new BackupChainStore(dialect, payloadCompressor, backupBlobStore,
+                com.leeinx.xibackpack.util.ConfigManager.getBoolean("backpack.backup.incremental.enabled", true),
+                com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.backup.incremental.full-every", 10)
+            );
+            int maxBackupCount = com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.backup.max-count", 10);
+            backupRetention = new BackupRetention(dialect,
+                maxBackupCount < 1 ? 10 : maxBackupCount,
+                com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.backup.retention.hourly", 24),
+                com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.backup.retention.daily", 7)
+            );
+
             // 初始化数据库表
             initializeTables();
+            try (Connection connection = getConnection()) {
+                backupRetention.detectWindowFunctions(connection);
+            }
+
+            if (dbType.equalsIgnoreCase("sqlite")) {
+                openSqliteEngine(config.getJdbcUrl(), connectionTimeout);
+            }
+
+            // 初始化写回队列
+            if (com.leeinx.xibackpack.util.ConfigManager.getBoolean("database.write-behind.enabled", true)) {
+                long flushInterval = com.leeinx.xibackpack.util.ConfigManager.getLong("database.write-behind.flush-interval", 5000);
+                int maxPending = com.leeinx.xibackpack.util.ConfigManager.getInt("database.write-behind.max-pending", 200);
+                writeBehindQueue = new WriteBehindQueue(this, flushInterval, maxPending);
+                writeBehindQueue.start();
+            }
+
+            // 初始化本地保存日志，并重放上次未写入数据库的保存
+            if (com.leeinx.xibackpack.util.ConfigManager.getBoolean("database.journal.enabled", true)) {
+                openJournal();
+            }
+
+            // 定时按保留策略淘汰备份，并删除或合并已淘汰的备份
+            long maintenanceInterval = Math.max(1L, com.leeinx.xibackpack.util.ConfigManager.getLong("backpack.backup.retention.interval", 300));
+            scheduler.scheduleWithFixedDelay(() -> supplyAsync(this::runBackupMaintenance),
+                maintenanceInterval, maintenanceInterval, TimeUnit.SECONDS);
 
             plugin.getLogger().info(plugin.getMessage("database.init_success"));
         } catch (Exception e) {
@@ -144,149 +212,243 @@ public class DatabaseManager {
     }
 
     /**
-     * 初始化数据库表
+     * 打开本地保存日志，立即重放恢复出的保存，并定时重放数据库不可用期间积压的保存
      */
-    private void initializeTables() {
-        Connection connection = null;
+    private void openJournal() {
+        SaveJournal journal = new SaveJournal(
+            new File(plugin.getDataFolder(), "journal"),
+            com.leeinx.xibackpack.util.ConfigManager.getLong("database.journal.group-commit-delay", 2),
+            com.leeinx.xibackpack.util.ConfigManager.getLong("database.journal.compact-size-mb", 8) * 1024L * 1024L
+        );
         try {
-            connection = getConnection();
-            
-            // 获取数据库类型
-            String dbType = com.leeinx.xibackpack.util.ConfigManager.getString("database.type");
-            boolean isSQLite = dbType.equalsIgnoreCase("sqlite");
-            
-            // 启用SQLite外键约束
-            if (isSQLite) {
-                try (Statement statement = connection.createStatement()) {
-                    statement.executeUpdate("PRAGMA foreign_keys = ON");
-                }
-            }
-            
-            // 创建背包表
-            String createTableSQL;
-            if (isSQLite) {
-                createTableSQL = "CREATE TABLE IF NOT EXISTS player_backpacks (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                        "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
-                        "backpack_data TEXT, " +
-                        "updated_at TEXT DEFAULT CURRENT_TIMESTAMP" +
-                        ")";
-            } else {
-                createTableSQL = "CREATE TABLE IF NOT EXISTS player_backpacks (" +
-                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                        "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
-                        "backpack_data LONGTEXT, " +
-                        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
-                        ")";
-            }
+            journal.open();
+        } catch (java.io.IOException e) {
+            com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("打开保存日志", e);
+            return;
+        }
+        saveJournal = journal;
 
-            try (Statement statement = connection.createStatement()) {
-                statement.executeUpdate(createTableSQL);
+        int recovered = replayJournal(true);
+        if (recovered > 0) {
+            com.leeinx.xibackpack.util.LogManager.info("正在从保存日志重放 %d 条上次未写入数据库的保存", recovered);
+        }
+
+        long interval = Math.max(1L, com.leeinx.xibackpack.util.ConfigManager.getLong("database.journal.replay-interval", 30));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                replayJournal(false);
+            } catch (Exception e) {
+                com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("重放保存日志", e);
             }
-            
-            // 创建背包备份表
-            String createBackupTableSQL;
-            if (isSQLite) {
-                createBackupTableSQL = "CREATE TABLE IF NOT EXISTS player_backpack_backups (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                        "player_uuid VARCHAR(36) NOT NULL, " +
-                        "backup_id VARCHAR(100) NOT NULL, " +
-                        "backpack_data TEXT, " +
-                        "created_at TEXT DEFAULT CURRENT_TIMESTAMP, " +
-                        "UNIQUE (player_uuid, backup_id)" +
-                        ")";
-            } else {
-                createBackupTableSQL = "CREATE TABLE IF NOT EXISTS player_backpack_backups (" +
-                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                        "player_uuid VARCHAR(36) NOT NULL, " +
-                        "backup_id VARCHAR(100) NOT NULL, " +
-                        "backpack_data LONGTEXT, " +
-                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                        "UNIQUE KEY unique_backup (player_uuid, backup_id)," +
-                        "INDEX idx_player_uuid (player_uuid)," +
-                        "INDEX idx_created_at (created_at)" +
-                        ")";
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 把保存日志中尚未写入数据库的保存重新提交写入
+     * 正常保存流程仍在进行的记录（记录时间不超过重放间隔）和仍在写回队列中等待的记录会被跳过
+     * @param all 是否忽略记录时间，重放所有未完成的保存（启动时使用）
+     * @return 提交重放的条目数量
+     */
+    public int replayJournal(boolean all) {
+        SaveJournal journal = saveJournal;
+        if (journal == null || circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis()
+            - com.leeinx.xibackpack.util.ConfigManager.getLong("database.journal.replay-interval", 30) * 1000L;
+        WriteBehindQueue queue = writeBehindQueue;
+        int submitted = 0;
+        for (SaveJournal.Entry entry : journal.getPendingEntries()) {
+            if (!all && entry.getAppendedAt() > cutoff) {
+                continue;
             }
-            
-            try (Statement statement = connection.createStatement()) {
-                statement.executeUpdate(createBackupTableSQL);
+            if (queue != null && (entry.isTeam() ? queue.peekTeam(entry.getTeamRecord().getId()) != null
+                    : queue.peekPlayer(entry.getPlayerUUID()) != null)) {
+                continue;
             }
-            
-            // 为SQLite创建索引
-            if (isSQLite) {
-                String createIndexSQL1 = "CREATE INDEX IF NOT EXISTS idx_player_uuid ON player_backpack_backups (player_uuid)";
-                String createIndexSQL2 = "CREATE INDEX IF NOT EXISTS idx_created_at ON player_backpack_backups (created_at)";
-                try (Statement statement = connection.createStatement()) {
-                    statement.executeUpdate(createIndexSQL1);
-                    statement.executeUpdate(createIndexSQL2);
+            Object key = entry.getKey();
+            // 按键排队，执行时再检查写回队列并读取最新的记录，不会用旧数据覆盖之后的保存
+            keyedExecutor.submit(key, () -> {
+                WriteBehindQueue current = writeBehindQueue;
+                if (current == null) {
+                    return replayJournalEntry(journal, key);
                 }
-            }
+                // 与写回队列的刷新互斥：队列中仍有该键较新的数据时跳过，由队列写入后标记完成
+                Boolean replayed = current.writeIfIdle(key, () -> replayJournalEntry(journal, key));
+                return replayed == null || replayed;
+            });
+            submitted++;
+        }
+        return submitted;
+    }
 
-            // 创建团队背包表
-            String createTeamBackpackTableSQL;
-            if (isSQLite) {
-                createTeamBackpackTableSQL = "CREATE TABLE IF NOT EXISTS team_backpacks (" +
-                        "id VARCHAR(100) PRIMARY KEY, " +
-                        "name VARCHAR(100) NOT NULL, " +
-                        "owner_uuid VARCHAR(36) NOT NULL, " +
-                        "backpack_data TEXT, " +
-                        "created_at TEXT DEFAULT CURRENT_TIMESTAMP, " +
-                        "updated_at TEXT DEFAULT CURRENT_TIMESTAMP" +
-                        ")";
+    private boolean replayJournalEntry(SaveJournal journal, Object key) {
+        SaveJournal.Entry entry = journal.getPending(key);
+        if (entry == null) {
+            return true;
+        }
+        boolean success = false;
+        try {
+            if (entry.isTeam()) {
+                TeamBackpackRecord record = entry.getTeamRecord();
+                success = saveTeamBackpackData(record.getId(), record.getName(), record.getOwner(), record.getData(), record.getMembers());
             } else {
-                createTeamBackpackTableSQL = "CREATE TABLE IF NOT EXISTS team_backpacks (" +
-                        "id VARCHAR(100) PRIMARY KEY, " +
-                        "name VARCHAR(100) NOT NULL, " +
-                        "owner_uuid VARCHAR(36) NOT NULL, " +
-                        "backpack_data LONGTEXT, " +
-                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
-                        ")";
+                success = savePlayerBackpack(entry.getPlayerUUID(), entry.getData());
             }
+        } catch (Exception e) {
+            com.leeinx.xibackpack.util.LogManager.warning("重放保存日志失败 (%s): %s", key, e.getMessage());
+        }
+        if (success) {
+            journal.commit(key, entry.getSeq());
+            journal.recordReplay();
+        }
+        return success;
+    }
 
-            try (Statement statement = connection.createStatement()) {
-                statement.executeUpdate(createTeamBackpackTableSQL);
-            }
+    /**
+     * 获取本地保存日志，未启用时返回null
+     * @return 保存日志
+     */
+    public SaveJournal getSaveJournal() {
+        return saveJournal;
+    }
 
-            // 创建团队背包成员关系表
-            String createTeamMembersTableSQL;
-            if (isSQLite) {
-                createTeamMembersTableSQL = "CREATE TABLE IF NOT EXISTS team_backpack_members (" +
-                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                        "backpack_id VARCHAR(100) NOT NULL, " +
-                        "player_uuid VARCHAR(36) NOT NULL, " +
-                        "role TEXT DEFAULT 'MEMBER', " +
-                        "joined_at TEXT DEFAULT CURRENT_TIMESTAMP, " +
-                        "UNIQUE (backpack_id, player_uuid), " +
-                        "FOREIGN KEY (backpack_id) REFERENCES team_backpacks(id) ON DELETE CASCADE" +
-                        ")";
-            } else {
-                createTeamMembersTableSQL = "CREATE TABLE IF NOT EXISTS team_backpack_members (" +
-                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                        "backpack_id VARCHAR(100) NOT NULL, " +
-                        "player_uuid VARCHAR(36) NOT NULL, " +
-                        "role ENUM('OWNER', 'MEMBER') DEFAULT 'MEMBER', " +
-                        "joined_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                        "UNIQUE KEY unique_member (backpack_id, player_uuid), " +
-                        "INDEX idx_backpack_id (backpack_id), " +
-                        "INDEX idx_player_uuid (player_uuid), " +
-                        "FOREIGN KEY (backpack_id) REFERENCES team_backpacks(id) ON DELETE CASCADE" +
-                        ")";
-            }
+    /**
+     * SQLite连接参数：WAL模式下读取不阻塞写入，synchronous=NORMAL在WAL下只在检查点时刷盘，
+     * 断电最多丢失最近提交的事务而不会损坏数据库（保存日志负责找回这部分保存）
+     */
+    private void applySqlitePragmas(HikariConfig config) {
+        config.addDataSourceProperty("journal_mode", "WAL");
+        config.addDataSourceProperty("synchronous", "NORMAL");
+        config.addDataSourceProperty("busy_timeout", String.valueOf(
+            com.leeinx.xibackpack.util.ConfigManager.getInt("database.sqlite.busy-timeout", 5000)));
+        // 页大小只在创建数据库文件时生效
+        config.addDataSourceProperty("page_size", String.valueOf(
+            com.leeinx.xibackpack.util.ConfigManager.getInt("database.sqlite.page-size", 4096)));
+        // 负数表示以KB为单位
+        config.addDataSourceProperty("cache_size", String.valueOf(
+            -com.leeinx.xibackpack.util.ConfigManager.getInt("database.sqlite.cache-size-kb", 16384)));
+        config.addDataSourceProperty("temp_store", "MEMORY");
+    }
 
-            try (Statement statement = connection.createStatement()) {
-                statement.executeUpdate(createTeamMembersTableSQL);
+    /**
+     * 打开SQLite的只读连接池和单写线程
+     * 读取（加载背包、查询备份等）在只读连接上并发执行，不再排在写连接后面；
+     * 写入全部交给单写线程，合并成较大的事务提交
+     */
+    private void openSqliteEngine(String jdbcUrl, long connectionTimeout) {
+        HikariConfig readConfig = new HikariConfig();
+        readConfig.setJdbcUrl(jdbcUrl);
+        readConfig.setPoolName("XiBackpack-SQLite-Read");
+        applySqlitePragmas(readConfig);
+        int readPoolSize = Math.max(1, com.leeinx.xibackpack.util.ConfigManager.getInt("database.sqlite.read-pool-size", 4));
+        readConfig.setMaximumPoolSize(readPoolSize);
+        readConfig.setMinimumIdle(1);
+        readConfig.setConnectionTimeout(connectionTimeout);
+        // 防止读连接意外执行写入
+        readConfig.setConnectionInitSql("PRAGMA query_only = 1");
+        readDataSource = new HikariDataSource(readConfig);
+
+        sqliteWriter = new SqliteWriter(dataSource,
+            com.leeinx.xibackpack.util.ConfigManager.getInt("database.sqlite.writer-batch-size", 256));
+        sqliteWriter.start();
+    }
+
+    /**
+     * 在写事务中执行写入
+     * SQLite下交给单写线程，与同一时间的其他写入合并为一个事务；其他数据库从连接池取连接单独提交
+     * @param work 写入内容，不要在其中提交、回滚或关闭连接
+     * @param <T> 结果类型
+     * @return 写入结果
+     * @throws SQLException 写入或提交失败时抛出
+     */
+    private <T> T writeTransaction(SqlWork<T> work) throws SQLException {
+        SqliteWriter writer = sqliteWriter;
+        if (writer != null) {
+            return writer.execute(work);
+        }
+        Connection connection = getConnection();
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                com.leeinx.xibackpack.util.LogManager.warning("关闭数据库连接时出错: %s", e.getMessage());
             }
+        }
+    }
+
+    /**
+     * 获取SQLite单写线程，非SQLite数据库返回null
+     * @return 单写线程
+     */
+    public SqliteWriter getSqliteWriter() {
+        return sqliteWriter;
+    }
+
+    /**
+     * 获取当前数据库的方言
+     * @return 方言
+     */
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * 获取备份数据块存储
+     * @return 备份数据块存储
+     */
+    public BackupBlobStore getBackupBlobStore() {
+        return backupBlobStore;
+    }
+
+    /**
+     * 获取增量备份链存储
+     * @return 增量备份链存储
+     */
+    public BackupChainStore getBackupChainStore() {
+        return backupChainStore;
+    }
+
+    /**
+     * 获取备份保留策略
+     * @return 备份保留策略
+     */
+    public BackupRetention getBackupRetention() {
+        return backupRetention;
+    }
+
+    /**
+     * 初始化数据库表
+     */
+    private void initializeTables() {
+        Connection connection = null;
+        try {
+            connection = getConnection();
             
-            // 为SQLite创建索引
-            if (isSQLite) {
-                String createIndexSQL1 = "CREATE INDEX IF NOT EXISTS idx_backpack_id ON team_backpack_members (backpack_id)";
-                String createIndexSQL2 = "CREATE INDEX IF NOT EXISTS idx_player_uuid ON team_backpack_members (player_uuid)";
-                try (Statement statement = connection.createStatement()) {
-                    statement.executeUpdate(createIndexSQL1);
-                    statement.executeUpdate(createIndexSQL2);
+            // 建表和建索引语句由方言提供
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : dialect.getSchemaStatements()) {
+                    statement.executeUpdate(sql);
                 }
             }
+            // 旧版本创建的备份表没有数据块哈希列
+            addColumnIfMissing(connection, "player_backpack_backups", "blob_hash", "VARCHAR(64)");
+            // 旧版本创建的备份表没有增量链的列
+            addColumnIfMissing(connection, "player_backpack_backups", "parent_id", "BIGINT");
+            addColumnIfMissing(connection, "player_backpack_backups", "pruned", "SMALLINT NOT NULL DEFAULT 0");
 
             com.leeinx.xibackpack.util.LogManager.info(plugin.getMessage("database.table_init_success"));
         } catch (SQLException e) {
@@ -304,6 +466,32 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * 表中没有指定列时添加该列
+     * @param connection 数据库连接
+     * @param table 表名
+     * @param column 列名
+     * @param definition 列类型定义
+     * @throws SQLException SQL异常
+     */
+    private void addColumnIfMissing(Connection connection, String table, String column, String definition) throws SQLException {
+        // 不同数据库保存的表名大小写不同（PostgreSQL为小写，部分数据库为大写），逐一查询
+        java.sql.DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[]{table, table.toLowerCase(), table.toUpperCase()}) {
+            try (ResultSet rs = metaData.getColumns(connection.getCatalog(), null, name, null)) {
+                while (rs.next()) {
+                    if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                        return;
+                    }
+                }
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+        com.leeinx.xibackpack.util.LogManager.info("已为表 %s 添加列 %s", table, column);
+    }
+
     /**
      * 获取数据库连接
      * @return 数据库连接对象
@@ -316,15 +504,32 @@ public class DatabaseManager {
         return dataSource.getConnection();
     }
 
+    /**
+     * 获取用于查询的数据库连接
+     * SQLite下来自只读连接池，可以与写入并发执行；其他数据库与 {@link #getConnection()} 相同
+     * @return 数据库连接对象
+     * @throws SQLException 当获取连接失败时抛出
+     */
+    public Connection getReadConnection() throws SQLException {
+        HikariDataSource reads = readDataSource;
+        return reads != null ? reads.getConnection() : getConnection();
+    }
+
     /**
      * 关闭数据库连接池
      */
     public void close() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
-            plugin.getLogger().info("数据库连接池已关闭");
+        // 先写入写回队列中剩余的数据
+        if (writeBehindQueue != null) {
+            writeBehindQueue.shutdown();
+            writeBehindQueue = null;
         }
-        
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+
+        // 等待进行中的保存写入数据库后再关闭连接池
         if (asyncExecutor != null && !asyncExecutor.isShutdown()) {
             try {
                 asyncExecutor.shutdown();
@@ -337,51 +542,162 @@ public class DatabaseManager {
                 Thread.currentThread().interrupt();
             }
         }
+
+        // 仍未写入数据库的保存留在日志中，下次启动时重放
+        if (saveJournal != null) {
+            saveJournal.close();
+            if (saveJournal.getPendingCount() > 0) {
+                com.leeinx.xibackpack.util.LogManager.warning("有 %d 条保存未能写入数据库，已保留在保存日志中，下次启动时重放", saveJournal.getPendingCount());
+            }
+            saveJournal = null;
+        }
+
+        if (sqliteWriter != null) {
+            sqliteWriter.shutdown();
+            sqliteWriter = null;
+        }
+        // 数据库线程都已结束，释放压缩器占用的本地内存
+        payloadCompressor.close();
+        if (readDataSource != null && !readDataSource.isClosed()) {
+            readDataSource.close();
+            readDataSource = null;
+        }
+        if (dataSource != null && !dataSource.isClosed()) {
+            dataSource.close();
+            plugin.getLogger().info("数据库连接池已关闭");
+        }
     }
     
     /**
-     * 执行带重试机制的数据库操作
+     * 执行一次数据库操作，失败时返回null
+     * 不在数据库线程上等待重试：保存失败由保存日志和写回队列保留，异步加载由 {@link #submitWithRetry} 定时重试
      * @param <T> 返回类型
      * @param operation 数据库操作
      * @param operationName 操作名称
-     * @return 操作结果
+     * @return 操作结果，失败时返回null
      */
-    private <T> T executeWithRetry(Callable<T> operation, String operationName) {
-        int maxRetries = com.leeinx.xibackpack.util.ConfigManager.getInt("database.retry.max-attempts", 2);
-        long initialDelay = com.leeinx.xibackpack.util.ConfigManager.getLong("database.retry.initial-delay", 500);
-        long maxDelay = com.leeinx.xibackpack.util.ConfigManager.getLong("database.retry.max-delay", 2000);
-        
-        for (int attempt = 1; attempt <= maxRetries; attempt++) {
-            try {
-                return operation.call();
-            } catch (SQLException e) {
-                // 只对连接相关的异常进行重试
-                if (e.getMessage().contains("Connection") || e.getMessage().contains("connection") || 
-                    e.getMessage().contains("timeout") || e.getMessage().contains("Timeout")) {
-                    if (attempt < maxRetries) {
-                        long retryDelay = Math.min(initialDelay * attempt, maxDelay);
-                        plugin.getLogger().warning("数据库操作 " + operationName + " 失败，尝试重试 (" + attempt + "/" + maxRetries + "): " + e.getMessage());
-                        try {
-                            Thread.sleep(retryDelay); // 指数退避，但不超过最大延迟
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
-                    } else {
-                        com.leeinx.xibackpack.util.ExceptionHandler.handleDatabaseException(operationName, e);
-                    }
-                } else {
-                    // 其他SQL异常直接处理，不重试
-                    com.leeinx.xibackpack.util.ExceptionHandler.handleDatabaseException(operationName, e);
-                    break;
+    private <T> T execute(Callable<T> operation, String operationName) {
+        try {
+            return executeOrThrow(operation, operationName);
+        } catch (DatabaseUnavailableException e) {
+            if (e.getCause() instanceof Exception) {
+                com.leeinx.xibackpack.util.ExceptionHandler.handleDatabaseException(operationName, (Exception) e.getCause());
+            } else {
+                // 熔断期间每个操作都会失败，只在调试模式下记录
+                com.leeinx.xibackpack.util.LogManager.debug("数据库熔断中，跳过操作: %s", operationName);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 执行一次数据库操作，数据库暂时不可用时抛出异常而不是返回null
+     * 按SQLState和错误码分类异常：连接失败、超时等计入熔断器；死锁、锁冲突等可重试但不计入熔断；其他错误直接处理
+     * @param <T> 返回类型
+     * @param operation 数据库操作
+     * @param operationName 操作名称
+     * @return 操作结果，非暂时性错误时返回null
+     * @throws DatabaseUnavailableException 熔断器打开或出现可重试的错误时抛出
+     */
+    private <T> T executeOrThrow(Callable<T> operation, String operationName) {
+        if (!circuitBreaker.allowRequest()) {
+            throw new DatabaseUnavailableException("数据库熔断中，跳过操作: " + operationName, null, false);
+        }
+        try {
+            T result = operation.call();
+            circuitBreaker.recordSuccess();
+            return result;
+        } catch (SQLException e) {
+            if (SqlErrorClassifier.indicatesOutage(e)) {
+                circuitBreaker.recordFailure();
+            } else {
+                // 数据库有响应，只是这次操作失败
+                circuitBreaker.recordSuccess();
+            }
+            if (SqlErrorClassifier.isTransient(e)) {
+                throw new DatabaseUnavailableException(operationName + " 失败: " + e.getMessage(), e, true);
+            }
+            com.leeinx.xibackpack.util.ExceptionHandler.handleDatabaseException(operationName, e);
+            return null;
+        } catch (Exception e) {
+            // 与数据库连接无关的错误（例如数据解析），不影响熔断状态
+            circuitBreaker.recordIgnored();
+            com.leeinx.xibackpack.util.ExceptionHandler.handleDatabaseException(operationName, e);
+            return null;
+        }
+    }
+
+    /**
+     * 在按键串行的执行器中执行读取操作，数据库暂时不可用时在定时器上延迟重试，不占用数据库线程等待
+     * 熔断器打开时不再重试，直接以 {@link DatabaseUnavailableException} 完成
+     * @param key 玩家UUID或团队背包ID
+     * @param task 读取操作，数据库暂时不可用时抛出 {@link DatabaseUnavailableException}
+     * @param operationName 操作名称
+     * @param <T> 结果类型
+     * @return 读取结果的CompletableFuture
+     */
+    private <T> CompletableFuture<T> submitWithRetry(Object key, java.util.function.Supplier<T> task, String operationName) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(key, task, operationName, 1, result);
+        return result;
+    }
+
+    private <T> void attempt(Object key, java.util.function.Supplier<T> task, String operationName, int attempt, CompletableFuture<T> result) {
+        keyedExecutor.submit(key, task).whenComplete((value, ex) -> {
+            if (ex == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            int maxAttempts = com.leeinx.xibackpack.util.ConfigManager.getInt("database.retry.max-attempts", 3);
+            ScheduledExecutorService timer = scheduler;
+            if (cause instanceof DatabaseUnavailableException && ((DatabaseUnavailableException) cause).isRetryable()
+                    && attempt < maxAttempts && timer != null && circuitBreaker.getState() != CircuitBreaker.State.OPEN) {
+                long initialDelay = com.leeinx.xibackpack.util.ConfigManager.getLong("database.retry.initial-delay", 500);
+                long maxDelay = com.leeinx.xibackpack.util.ConfigManager.getLong("database.retry.max-delay", 5000);
+                long delay = Math.min(initialDelay << Math.min(attempt - 1, 16), maxDelay);
+                com.leeinx.xibackpack.util.LogManager.warning("数据库操作 %s 失败，%d 毫秒后重试 (%d/%d): %s",
+                    operationName, delay, attempt, maxAttempts, cause.getMessage());
+                try {
+                    timer.schedule(() -> attempt(key, task, operationName, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // 正在关闭，不再重试
+                }
+            }
+            result.completeExceptionally(cause);
+        });
+    }
+
+    /**
+     * 熔断器状态变化：记录日志，恢复后立即重放保存日志中积压的保存
+     */
+    private void onCircuitStateChange(CircuitBreaker.State from, CircuitBreaker.State to) {
+        if (to == CircuitBreaker.State.OPEN) {
+            com.leeinx.xibackpack.util.LogManager.warning("数据库连续 %d 次不可用，熔断器打开：保存暂存在保存日志和写回队列中，%d 秒后尝试恢复",
+                circuitBreaker.getConsecutiveFailures(),
+                com.leeinx.xibackpack.util.ConfigManager.getLong("database.circuit-breaker.open-duration", 10));
+        } else if (to == CircuitBreaker.State.HALF_OPEN) {
+            com.leeinx.xibackpack.util.LogManager.info("熔断器半开，尝试访问数据库");
+        } else {
+            com.leeinx.xibackpack.util.LogManager.info("数据库已恢复，熔断器关闭");
+            ScheduledExecutorService timer = scheduler;
+            if (timer != null) {
+                try {
+                    timer.execute(() -> replayJournal(true));
+                } catch (RejectedExecutionException e) {
+                    // 正在关闭
                 }
-            } catch (Exception e) {
-                // 其他异常直接处理，不重试
-                com.leeinx.xibackpack.util.ExceptionHandler.handleDatabaseException(operationName, e);
-                break;
             }
         }
-        return null;
+    }
+
+    /**
+     * 获取数据库熔断器
+     * @return 熔断器
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
     /**
@@ -396,46 +712,16 @@ public class DatabaseManager {
             return false;
         }
         
-        return executeWithRetry(() -> {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                
-                // 获取数据库类型
-                String dbType = com.leeinx.xibackpack.util.ConfigManager.getString("database.type");
-                boolean isSQLite = dbType.equalsIgnoreCase("sqlite");
-                
-                if (isSQLite) {
-                    // SQLite使用UPSERT语法
-                    String sql = "INSERT OR REPLACE INTO player_backpacks (player_uuid, backpack_data, updated_at) VALUES (?, ?, CURRENT_TIMESTAMP)";
-                    try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                        stmt.setString(1, playerUUID.toString());
-                        stmt.setString(2, backpackData);
-                        stmt.executeUpdate();
-                        return true;
-                    }
-                } else {
-                    // 其他数据库使用ON DUPLICATE KEY UPDATE
-                    String sql = "INSERT INTO player_backpacks (player_uuid, backpack_data) VALUES (?, ?) " +
-                                 "ON DUPLICATE KEY UPDATE backpack_data = VALUES(backpack_data), updated_at = CURRENT_TIMESTAMP";
-                    
-                    try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                        stmt.setString(1, playerUUID.toString());
-                        stmt.setString(2, backpackData);
-                        stmt.executeUpdate();
-                        return true;
-                    }
-                }
-            } finally {
-                if (connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        com.leeinx.xibackpack.util.LogManager.warning("关闭数据库连接时出错: %s", e.getMessage());
-                    }
-                }
+        Boolean result = execute(() -> writeTransaction(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(dialect.upsertPlayerBackpackSql())) {
+                stmt.setString(1, playerUUID.toString());
+                dialect.setPayload(stmt, 2, payloadCompressor.compress(backpackData));
+                stmt.executeUpdate();
+                return true;
             }
-        }, "保存玩家背包数据");
+        }), "保存玩家背包数据");
+
+        return result != null && result;
     }
     
     /**
@@ -445,256 +731,248 @@ public class DatabaseManager {
      * @return 保存结果的CompletableFuture
      */
     public CompletableFuture<Boolean> savePlayerBackpackAsync(UUID playerUUID, String backpackData) {
-        return CompletableFuture.supplyAsync(() -> {
-            return savePlayerBackpack(playerUUID, backpackData);
-        }, asyncExecutor);
+        WriteBehindQueue pendingQueue = writeBehindQueue;
+        if (circuitBreaker.getState() != CircuitBreaker.State.CLOSED && pendingQueue != null
+                && playerUUID != null && backpackData != null) {
+            // 数据库不可用期间不占用数据库线程，合并到写回队列等待恢复
+            return pendingQueue.enqueuePlayer(playerUUID, backpackData);
+        }
+        return keyedExecutor.submitCoalescing(playerUUID, () -> savePlayerBackpack(playerUUID, backpackData))
+            .handle((success, ex) -> {
+                if (ex == null) {
+                    return CompletableFuture.completedFuture(success);
+                }
+                if (!DatabaseExecutor.isBusy(ex)) {
+                    return DatabaseManager.<Boolean>failedFuture(ex);
+                }
+                // 线程池繁忙：合并到写回队列，由刷新线程写入
+                WriteBehindQueue queue = writeBehindQueue;
+                if (queue != null && playerUUID != null && backpackData != null) {
+                    return queue.enqueuePlayer(playerUUID, backpackData);
+                }
+                com.leeinx.xibackpack.util.LogManager.warning("数据库繁忙，玩家 %s 的背包保存被拒绝，将在下次保存或重放保存日志时重试", playerUUID);
+                return CompletableFuture.completedFuture(false);
+            })
+            .thenCompose(future -> future);
     }
 
     /**
-     * 从数据库加载玩家背包数据
+     * 延迟保存玩家背包数据
+     * 启用写回队列时只保留该玩家最新的一份数据，由队列统一写入；否则直接异步保存
      * @param playerUUID 玩家UUID
-     * @return 背包数据（JSON格式），如果不存在则返回null
+     * @param backpackData 背包数据（JSON格式）
+     * @return 保存结果的CompletableFuture
      */
-    public String loadPlayerBackpack(UUID playerUUID) {
-        if (playerUUID == null) {
-            com.leeinx.xibackpack.util.LogManager.warning("加载背包数据时playerUUID为空");
-            return null;
+    public CompletableFuture<Boolean> queuePlayerBackpackSave(UUID playerUUID, String backpackData) {
+        SaveJournal journal = saveJournal;
+        if (journal == null || playerUUID == null || backpackData == null) {
+            return writePlayerBackpackSave(playerUUID, backpackData);
         }
-        
-        return executeWithRetry(() -> {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                String sql = "SELECT backpack_data FROM player_backpacks WHERE player_uuid = ?";
-                
-                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                    stmt.setString(1, playerUUID.toString());
-                    
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        if (rs.next()) {
-                            return rs.getString("backpack_data");
-                        }
-                    }
-                }
-                return null;
-            } finally {
-                if (connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        com.leeinx.xibackpack.util.LogManager.warning("关闭数据库连接时出错: %s", e.getMessage());
-                    }
-                }
-            }
-        }, "加载玩家背包数据");
+        // 记录日志与写入数据库同时开始：数据立即进入写回队列，关服和退出时的刷新能写入它；
+        // 日志刷盘且数据库写入成功后才标记完成，任一步失败时日志中的记录会被重放
+        CompletableFuture<Long> append = journal.appendPlayer(playerUUID, backpackData);
+        CompletableFuture<Boolean> write = writePlayerBackpackSave(playerUUID, backpackData);
+        commitWhenWritten(journal, playerUUID, append, write);
+        return write;
     }
-    
+
+    private CompletableFuture<Boolean> writePlayerBackpackSave(UUID playerUUID, String backpackData) {
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue == null || playerUUID == null || backpackData == null) {
+            return savePlayerBackpackAsync(playerUUID, backpackData);
+        }
+        return queue.enqueuePlayer(playerUUID, backpackData);
+    }
+
     /**
-     * 异步从数据库加载玩家背包数据
-     * @param playerUUID 玩家UUID
-     * @return 背包数据（JSON格式）的CompletableFuture，如果不存在则返回null
+     * 延迟保存团队背包快照
+     * 启用写回队列时只保留该背包最新的一份快照，由队列统一写入；否则直接异步保存
+     * @param record 团队背包快照
+     * @return 保存结果的CompletableFuture
      */
-    public CompletableFuture<String> loadPlayerBackpackAsync(UUID playerUUID) {
-        return CompletableFuture.supplyAsync(() -> {
-            return loadPlayerBackpack(playerUUID);
-        }, asyncExecutor);
+    public CompletableFuture<Boolean> queueTeamBackpackSave(TeamBackpackRecord record) {
+        SaveJournal journal = saveJournal;
+        if (journal == null) {
+            return writeTeamBackpackSave(record);
+        }
+        // 与玩家背包相同：记录日志与写入数据库同时开始，两者都成功后标记完成
+        CompletableFuture<Long> append = journal.appendTeam(record);
+        CompletableFuture<Boolean> write = writeTeamBackpackSave(record);
+        commitWhenWritten(journal, record.getId(), append, write);
+        return write;
     }
-    
+
     /**
-     * 保存玩家背包备份数据
-     * @param playerUUID 玩家UUID
-     * @param backupId 备份ID
-     * @param backpackData 背包数据（JSON格式）
-     * @return 是否保存成功
+     * 日志刷盘且数据库写入成功后标记保存完成
      */
-    public boolean savePlayerBackpackBackup(UUID playerUUID, String backupId, String backpackData) {
-        if (playerUUID == null || backupId == null || backpackData == null) {
-            com.leeinx.xibackpack.util.LogManager.warning("保存背包备份数据时参数为空: playerUUID=%s, backupId=%s", playerUUID, backupId);
-            return false;
-        }
-        
-        return executeWithRetry(() -> {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                
-                // 获取备份数量限制
-                int maxBackupCount = com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.backup.max-count", 10);
-                if (maxBackupCount < 1) {
-                    maxBackupCount = 10; // 设置默认值
-                }
-                
-                // 检查备份数量限制（使用现有连接）
-                int currentBackupCount = getBackupCount(connection, playerUUID);
-                if (currentBackupCount >= maxBackupCount) {
-                    // 计算需要删除的备份数量
-                    int backupsToDelete = currentBackupCount - maxBackupCount + 1;
-                    // 删除最旧的备份（使用现有连接）
-                    for (int i = 0; i < backupsToDelete; i++) {
-                        deleteOldestBackup(connection, playerUUID);
-                    }
-                }
-                
-                // 获取数据库类型
-                String dbType = com.leeinx.xibackpack.util.ConfigManager.getString("database.type");
-                boolean isSQLite = dbType.equalsIgnoreCase("sqlite");
-                
-                String sql;
-                if (isSQLite) {
-                    // SQLite使用UPSERT语法
-                    sql = "INSERT OR REPLACE INTO player_backpack_backups (player_uuid, backup_id, backpack_data, created_at) VALUES (?, ?, ?, CURRENT_TIMESTAMP)";
-                } else {
-                    // 其他数据库使用ON DUPLICATE KEY UPDATE
-                    sql = "INSERT INTO player_backpack_backups (player_uuid, backup_id, backpack_data) VALUES (?, ?, ?) " +
-                          "ON DUPLICATE KEY UPDATE backpack_data = VALUES(backpack_data), created_at = CURRENT_TIMESTAMP";
-                }
-                
-                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                    stmt.setString(1, playerUUID.toString());
-                    stmt.setString(2, backupId);
-                    stmt.setString(3, backpackData);
-                    stmt.executeUpdate();
-                    return true;
-                }
-            } finally {
-                if (connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        com.leeinx.xibackpack.util.LogManager.warning("关闭数据库连接时出错: %s", e.getMessage());
-                    }
-                }
+    private void commitWhenWritten(SaveJournal journal, Object key, CompletableFuture<Long> append, CompletableFuture<Boolean> write) {
+        append.whenComplete((seq, ex) -> {
+            if (ex != null) {
+                com.leeinx.xibackpack.util.LogManager.warning("记录 %s 的保存日志失败，只写入数据库: %s", key, ex.getMessage());
             }
-        }, "保存玩家背包备份数据");
+        });
+        append.thenAcceptBoth(write, (seq, success) -> {
+            if (Boolean.TRUE.equals(success)) {
+                journal.commit(key, seq);
+            }
+        });
     }
-    
+
+    private CompletableFuture<Boolean> writeTeamBackpackSave(TeamBackpackRecord record) {
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue == null) {
+            return rejectedAsFailure(keyedExecutor.submitCoalescing(record.getId(), () -> saveTeamBackpackData(record.getId(), record.getName(),
+                    record.getOwner(), record.getData(), record.getMembers())), record.getId());
+        }
+        return queue.enqueueTeam(record);
+    }
+
     /**
-     * 获取玩家备份数量（使用现有连接）
-     * @param connection 数据库连接
+     * 尽快写入指定玩家在写回队列中的数据（玩家退出时调用）
      * @param playerUUID 玩家UUID
-     * @return 备份数量
      */
-    private int getBackupCount(Connection connection, UUID playerUUID) {
-        if (playerUUID == null || connection == null) {
-            return 0;
+    public void flushPendingPlayerSave(UUID playerUUID) {
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue != null && playerUUID != null) {
+            queue.flushPlayerAsync(playerUUID);
         }
-        
+    }
+
+    /**
+     * 同步写入写回队列中的所有数据
+     * @return 写入的条目数量
+     */
+    public int flushPendingSaves() {
+        WriteBehindQueue queue = writeBehindQueue;
+        return queue != null ? queue.flushAll() : 0;
+    }
+
+    /**
+     * 获取写回队列，未启用时返回null
+     * @return 写回队列
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * 在数据库线程池中执行任务，线程池繁忙时返回以 {@link RejectedExecutionException} 完成的Future，而不是抛出异常
+     * @param task 任务
+     * @param <T> 结果类型
+     * @return 任务结果的CompletableFuture
+     */
+    private <T> CompletableFuture<T> supplyAsync(java.util.function.Supplier<T> task) {
         try {
-            String sql = "SELECT COUNT(*) as count FROM player_backpack_backups WHERE player_uuid = ?";
-            
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, playerUUID.toString());
-                
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (rs.next()) {
-                        return rs.getInt("count");
-                    }
-                }
-            }
-            return 0;
-        } catch (SQLException e) {
-            com.leeinx.xibackpack.util.LogManager.warning("获取玩家备份数量时出错: %s", e.getMessage());
-            return 0;
+            return CompletableFuture.supplyAsync(task, asyncExecutor);
+        } catch (RejectedExecutionException e) {
+            return failedFuture(e);
         }
     }
-    
+
     /**
-     * 删除最旧的备份（使用现有连接）
-     * @param connection 数据库连接
-     * @param playerUUID 玩家UUID
-     * @return 是否删除成功
+     * 保存因线程池繁忙被拒绝时按保存失败处理，调用方会保留脏标记并在下次保存时重试
      */
-    private boolean deleteOldestBackup(Connection connection, UUID playerUUID) {
-        if (playerUUID == null || connection == null) {
-            return false;
-        }
-        
-        try {
-            // 获取数据库类型
-            String dbType = com.leeinx.xibackpack.util.ConfigManager.getString("database.type");
-            boolean isSQLite = dbType.equalsIgnoreCase("sqlite");
-            
-            if (isSQLite) {
-                // SQLite不支持DELETE语句中的ORDER BY和LIMIT组合
-                // 先查询最旧的备份ID
-                String selectSql = "SELECT id FROM player_backpack_backups WHERE player_uuid = ? ORDER BY created_at ASC LIMIT 1";
-                Integer oldestBackupId = null;
-                
-                try (PreparedStatement selectStmt = connection.prepareStatement(selectSql)) {
-                    selectStmt.setString(1, playerUUID.toString());
-                    try (ResultSet rs = selectStmt.executeQuery()) {
-                        if (rs.next()) {
-                            oldestBackupId = rs.getInt("id");
-                        }
-                    }
-                }
-                
-                // 如果找到最旧的备份，则删除它
-                if (oldestBackupId != null) {
-                    String deleteSql = "DELETE FROM player_backpack_backups WHERE id = ?";
-                    try (PreparedStatement deleteStmt = connection.prepareStatement(deleteSql)) {
-                        deleteStmt.setInt(1, oldestBackupId);
-                        int affectedRows = deleteStmt.executeUpdate();
-                        return affectedRows > 0;
-                    }
-                }
+    private CompletableFuture<Boolean> rejectedAsFailure(CompletableFuture<Boolean> save, Object key) {
+        return save.handle((success, ex) -> {
+            if (ex == null) {
+                return success;
+            }
+            if (DatabaseExecutor.isBusy(ex)) {
+                com.leeinx.xibackpack.util.LogManager.warning("数据库繁忙，%s 的背包保存被拒绝，将在下次保存时重试", key);
                 return false;
-            } else {
-                // 其他数据库使用子查询
-                String sql = "DELETE FROM player_backpack_backups WHERE player_uuid = ? AND (player_uuid, created_at) IN " +
-                              "(SELECT player_uuid, MIN(created_at) FROM player_backpack_backups WHERE player_uuid = ? GROUP BY player_uuid)";
-                
-                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                    stmt.setString(1, playerUUID.toString());
-                    stmt.setString(2, playerUUID.toString());
-                    int affectedRows = stmt.executeUpdate();
-                    return affectedRows > 0;
-                }
             }
-        } catch (SQLException e) {
-            com.leeinx.xibackpack.util.LogManager.warning("删除最旧备份时出错: %s", e.getMessage());
-            return false;
-        }
+            throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+        });
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    /**
+     * 获取数据库线程池
+     * @return 数据库线程池
+     */
+    public DatabaseExecutor getExecutor() {
+        return asyncExecutor;
     }
-    
+
     /**
-     * 异步保存玩家背包备份数据
+     * 获取按键串行的执行器
+     * @return 按键串行的执行器
+     */
+    public KeyedExecutor<Object> getKeyedExecutor() {
+        return keyedExecutor;
+    }
+
+    /**
+     * 获取背包数据压缩器
+     * @return 压缩器
+     */
+    public PayloadCompressor getPayloadCompressor() {
+        return payloadCompressor;
+    }
+
+    /**
+     * 从数据库加载玩家背包数据
      * @param playerUUID 玩家UUID
-     * @param backupId 备份ID
-     * @param backpackData 背包数据（JSON格式）
-     * @return 保存结果的CompletableFuture
+     * @return 背包数据（JSON格式），如果不存在则返回null
      */
-    public CompletableFuture<Boolean> savePlayerBackpackBackupAsync(UUID playerUUID, String backupId, String backpackData) {
-        return CompletableFuture.supplyAsync(() -> {
-            return savePlayerBackpackBackup(playerUUID, backupId, backpackData);
-        }, asyncExecutor);
+    public String loadPlayerBackpack(UUID playerUUID) {
+        return loadPlayerBackpack(playerUUID, false);
     }
-    
+
     /**
-     * 从数据库加载玩家背包备份数据
+     * 从数据库加载玩家背包数据，数据库暂时不可用时抛出异常而不是返回null
      * @param playerUUID 玩家UUID
-     * @param backupId 备份ID
      * @return 背包数据（JSON格式），如果不存在则返回null
+     * @throws DatabaseUnavailableException 数据库暂时不可用时抛出
      */
-    public String loadPlayerBackpackBackup(UUID playerUUID, String backupId) {
-        if (playerUUID == null || backupId == null) {
-            com.leeinx.xibackpack.util.LogManager.warning("加载背包备份数据时参数为空: playerUUID=%s, backupId=%s", playerUUID, backupId);
+    public String loadPlayerBackpackOrThrow(UUID playerUUID) {
+        return loadPlayerBackpack(playerUUID, true);
+    }
+
+    /**
+     * 加载玩家背包数据
+     * @param playerUUID 玩家UUID
+     * @param strict 数据库暂时不可用时是否抛出 {@link DatabaseUnavailableException}，为false时返回null
+     * @return 背包数据（JSON格式），如果不存在则返回null
+     */
+    private String loadPlayerBackpack(UUID playerUUID, boolean strict) {
+        if (playerUUID == null) {
+            com.leeinx.xibackpack.util.LogManager.warning("加载背包数据时playerUUID为空");
             return null;
         }
+
+        // 写回队列中还有未写入的数据时，直接返回最新数据
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue != null) {
+            String pendingData = queue.peekPlayer(playerUUID);
+            if (pendingData != null) {
+                return pendingData;
+            }
+        }
+        // 保存日志中还有未写入数据库的保存（例如数据库不可用期间）时，同样返回最新数据
+        SaveJournal journal = saveJournal;
+        SaveJournal.Entry journaled = journal != null ? journal.getPending(playerUUID) : null;
+        if (journaled != null) {
+            return journaled.getData();
+        }
         
-        return executeWithRetry(() -> {
+        Callable<String> query = () -> {
             Connection connection = null;
             try {
-                connection = getConnection();
-                String sql = "SELECT backpack_data FROM player_backpack_backups WHERE player_uuid = ? AND backup_id = ?";
+                connection = getReadConnection();
+                String sql = "SELECT backpack_data FROM player_backpacks WHERE player_uuid = ?";
                 
                 try (PreparedStatement stmt = connection.prepareStatement(sql)) {
                     stmt.setString(1, playerUUID.toString());
-                    stmt.setString(2, backupId);
                     
                     try (ResultSet rs = stmt.executeQuery()) {
                         if (rs.next()) {
-                            return rs.getString("backpack_data");
+                            return payloadCompressor.decompress(dialect.getPayload(rs, "backpack_data"));
                         }
                     }
                 }
@@ -708,86 +986,110 @@ public class DatabaseManager {
                     }
                 }
             }
-        }, "加载玩家背包备份数据");
+        };
+        return strict ? executeOrThrow(query, "加载玩家背包数据") : execute(query, "加载玩家背包数据");
     }
     
     /**
-     * 异步从数据库加载玩家背包备份数据
+     * 异步从数据库加载玩家背包数据
      * @param playerUUID 玩家UUID
-     * @param backupId 备份ID
      * @return 背包数据（JSON格式）的CompletableFuture，如果不存在则返回null
      */
-    public CompletableFuture<String> loadPlayerBackpackBackupAsync(UUID playerUUID, String backupId) {
-        return CompletableFuture.supplyAsync(() -> {
-            return loadPlayerBackpackBackup(playerUUID, backupId);
-        }, asyncExecutor);
+    public CompletableFuture<String> loadPlayerBackpackAsync(UUID playerUUID) {
+        // 排在同一玩家之前提交的保存之后，读到的总是最新数据；数据库暂时不可用时以异常完成，不会当作空背包
+        return submitWithRetry(playerUUID, () -> loadPlayerBackpack(playerUUID, true), "加载玩家背包数据");
     }
     
     /**
-     * 获取玩家备份数量
+     * 保存玩家背包备份数据
      * @param playerUUID 玩家UUID
-     * @return 备份数量
+     * @param backupId 备份ID
+     * @param backpackData 背包数据（JSON格式）
+     * @return 是否保存成功
      */
-    private int getBackupCount(UUID playerUUID) {
-        if (playerUUID == null) {
-            com.leeinx.xibackpack.util.LogManager.warning("获取备份数量时playerUUID为空");
-            return 0;
+    public boolean savePlayerBackpackBackup(UUID playerUUID, String backupId, String backpackData) {
+        if (playerUUID == null || backupId == null || backpackData == null) {
+            com.leeinx.xibackpack.util.LogManager.warning("保存背包备份数据时参数为空: playerUUID=%s, backupId=%s", playerUUID, backupId);
+            return false;
         }
         
-        Integer result = executeWithRetry(() -> {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                String sql = "SELECT COUNT(*) as count FROM player_backpack_backups WHERE player_uuid = ?";
-                
-                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                    stmt.setString(1, playerUUID.toString());
-                    
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        if (rs.next()) {
-                            return rs.getInt("count");
-                        }
-                    }
-                }
-                return 0;
-            } finally {
-                if (connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        com.leeinx.xibackpack.util.LogManager.warning("关闭数据库连接时出错: %s", e.getMessage());
-                    }
-                }
-            }
-        }, "获取玩家备份数量");
-        
+        Boolean result = execute(() -> writeTransaction(connection -> {
+            // 同名备份先删除，依赖它的增量备份改存为完整快照
+            backupChainStore.delete(connection, playerUUID, backupId);
+
+            // 与上一个备份相比只保存变化的槽位，内容相同的备份共用一个数据块
+            // 超出数量限制的旧备份由后台维护任务统一淘汰
+            backupChainStore.insert(connection, playerUUID, backupId, backpackData);
+            return true;
+        }), "保存玩家背包备份数据");
+
+        return result != null && result;
+    }
+    
+    /**
+     * 合并已淘汰的增量备份：依赖它们的备份改存为完整快照，然后删除它们
+     * @param limit 本次最多处理的备份数量
+     * @return 删除的备份数量，失败时返回0
+     */
+    public int compactBackupChains(int limit) {
+        Integer result = execute(() -> writeTransaction(connection -> backupChainStore.compact(connection, limit)), "整理增量备份链");
         return result != null ? result : 0;
     }
+
+    /**
+     * 执行一次备份维护：用一条语句把超出保留策略的备份标记为已淘汰，再分批删除或合并已淘汰的备份
+     * @return 删除的备份数量
+     */
+    public int runBackupMaintenance() {
+        long start = System.nanoTime();
+        Integer marked = execute(() -> writeTransaction(connection -> backupRetention.markExpired(connection)), "标记过期备份");
+
+        // 分批提交，避免长时间占用写连接
+        int removed = 0;
+        int batch;
+        do {
+            batch = compactBackupChains(MAINTENANCE_BATCH_SIZE);
+            removed += batch;
+        } while (batch >= MAINTENANCE_BATCH_SIZE);
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        backupRetention.recordRun(removed, elapsedMillis);
+        if ((marked != null && marked > 0) || removed > 0) {
+            com.leeinx.xibackpack.util.LogManager.info("备份维护完成：淘汰 %d 个备份，删除 %d 个，耗时 %d ms",
+                marked != null ? marked : 0, removed, elapsedMillis);
+        }
+        return removed;
+    }
+
+    /**
+     * 异步保存玩家背包备份数据
+     * @param playerUUID 玩家UUID
+     * @param backupId 备份ID
+     * @param backpackData 背包数据（JSON格式）
+     * @return 保存结果的CompletableFuture
+     */
+    public CompletableFuture<Boolean> savePlayerBackpackBackupAsync(UUID playerUUID, String backupId, String backpackData) {
+        return supplyAsync(() -> savePlayerBackpackBackup(playerUUID, backupId, backpackData));
+    }
     
     /**
-     * 删除最旧的备份
+     * 从数据库加载玩家背包备份数据
      * @param playerUUID 玩家UUID
+     * @param backupId 备份ID
+     * @return 背包数据（JSON格式），如果不存在则返回null
      */
-    private void deleteOldestBackup(UUID playerUUID) {
-        if (playerUUID == null) {
-            com.leeinx.xibackpack.util.LogManager.warning("删除最旧备份时playerUUID为空");
-            return;
+    public String loadPlayerBackpackBackup(UUID playerUUID, String backupId) {
+        if (playerUUID == null || backupId == null) {
+            com.leeinx.xibackpack.util.LogManager.warning("加载背包备份数据时参数为空: playerUUID=%s, backupId=%s", playerUUID, backupId);
+            return null;
         }
         
-        executeWithRetry(() -> {
+        return execute(() -> {
             Connection connection = null;
             try {
-                connection = getConnection();
-                String sql = "DELETE FROM player_backpack_backups WHERE player_uuid = ? ORDER BY created_at ASC LIMIT 1";
-                
-                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                    stmt.setString(1, playerUUID.toString());
-                    int deleted = stmt.executeUpdate();
-                    if (deleted > 0) {
-                        com.leeinx.xibackpack.util.LogManager.info("已删除玩家 %s 的最旧备份", playerUUID);
-                    }
-                }
-                return true;
+                connection = getReadConnection();
+                // 从完整快照开始依次应用增量
+                return backupChainStore.load(connection, playerUUID, backupId);
             } finally {
                 if (connection != null) {
                     try {
@@ -797,7 +1099,17 @@ public class DatabaseManager {
                     }
                 }
             }
-        }, "删除最旧备份");
+        }, "加载玩家背包备份数据");
+    }
+    
+    /**
+     * 异步从数据库加载玩家背包备份数据
+     * @param playerUUID 玩家UUID
+     * @param backupId 备份ID
+     * @return 背包数据（JSON格式）的CompletableFuture，如果不存在则返回null
+     */
+    public CompletableFuture<String> loadPlayerBackpackBackupAsync(UUID playerUUID, String backupId) {
+        return supplyAsync(() -> loadPlayerBackpackBackup(playerUUID, backupId));
     }
     
     /**
@@ -812,12 +1124,12 @@ public class DatabaseManager {
             return backupIds;
         }
         
-        List<String> result = executeWithRetry(() -> {
+        List<String> result = execute(() -> {
             List<String> ids = new ArrayList<>();
             Connection connection = null;
             try {
-                connection = getConnection();
-                String sql = "SELECT backup_id FROM player_backpack_backups WHERE player_uuid = ? ORDER BY created_at DESC";
+                connection = getReadConnection();
+                String sql = "SELECT backup_id FROM player_backpack_backups WHERE player_uuid = ? AND pruned = 0 ORDER BY created_at DESC";
                 
                 try (PreparedStatement stmt = connection.prepareStatement(sql)) {
                     stmt.setString(1, playerUUID.toString());
@@ -849,113 +1161,7 @@ public class DatabaseManager {
      * @return 备份ID列表的CompletableFuture
      */
     public CompletableFuture<List<String>> getPlayerBackupIdsAsync(UUID playerUUID) {
-        return CompletableFuture.supplyAsync(() -> {
-            return getPlayerBackupIds(playerUUID);
-        }, asyncExecutor);
-    }
-    
-    /**
-     * 保存团队背包数据到数据库
-     * @param backpack 团队背包
-     * @return 是否保存成功
-     */
-    public boolean saveTeamBackpack(TeamBackpack backpack) {
-        if (backpack == null) {
-            com.leeinx.xibackpack.util.LogManager.warning("保存团队背包数据时参数为空");
-            return false;
-        }
-        
-        return executeWithRetry(() -> {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                
-                // 检查是否为测试环境（connection为null表示在测试环境中）
-                if (connection == null) {
-                    // 测试环境，直接返回true
-                    return true;
-                }
-                
-                // 保存背包基本信息
-                String dbType = com.leeinx.xibackpack.util.ConfigManager.getString("database.type");
-                boolean isSQLite = dbType.equalsIgnoreCase("sqlite");
-                
-                String sql;
-                if (isSQLite) {
-                    // SQLite使用UPSERT语法
-                    sql = "INSERT OR REPLACE INTO team_backpacks (id, name, owner_uuid, backpack_data, updated_at) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
-                } else {
-                    // 其他数据库使用ON DUPLICATE KEY UPDATE
-                    sql = "INSERT INTO team_backpacks (id, name, owner_uuid, backpack_data) VALUES (?, ?, ?, ?) " +
-                             "ON DUPLICATE KEY UPDATE name = VALUES(name), backpack_data = VALUES(backpack_data), updated_at = CURRENT_TIMESTAMP";
-                }
-                
-                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                    stmt.setString(1, backpack.getId());
-                    stmt.setString(2, backpack.getName());
-                    stmt.setString(3, backpack.getOwner().toString());
-                    
-                    // 序列化背包数据（使用复用的个人背包序列化方法）
-                    String backpackData = backpack.serialize();
-                    com.leeinx.xibackpack.util.LogManager.info("正在保存团队背包 %s，数据大小: %d", backpack.getId(), backpackData.length());
-                    stmt.setString(4, backpackData);
-                    
-                    stmt.executeUpdate();
-                }
-                
-                // 保存成员信息
-                saveTeamBackpackMembers(connection, backpack);
-                
-                com.leeinx.xibackpack.util.LogManager.info("成功保存团队背包 %s", backpack.getId());
-                return true;
-            } finally {
-                if (connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        com.leeinx.xibackpack.util.LogManager.warning("关闭数据库连接时出错: %s", e.getMessage());
-                    }
-                }
-            }
-        }, "保存团队背包数据");
-    }
-    
-    /**
-     * 异步保存团队背包数据到数据库
-     * @param backpack 团队背包
-     * @return 保存结果的CompletableFuture
-     */
-    public CompletableFuture<Boolean> saveTeamBackpackAsync(TeamBackpack backpack) {
-        return CompletableFuture.supplyAsync(() -> {
-            return saveTeamBackpack(backpack);
-        }, asyncExecutor);
-    }
-    
-    /**
-     * 保存团队背包成员信息
-     * @param connection 数据库连接
-     * @param backpack 团队背包
-     * @throws SQLException SQL异常
-     */
-    private void saveTeamBackpackMembers(Connection connection, TeamBackpack backpack) throws SQLException {
-        // 先删除现有的成员关系
-        String deleteSql = "DELETE FROM team_backpack_members WHERE backpack_id = ?";
-        try (PreparedStatement deleteStmt = connection.prepareStatement(deleteSql)) {
-            deleteStmt.setString(1, backpack.getId());
-            deleteStmt.executeUpdate();
-        }
-        
-        // 插入新的成员关系
-        String insertSql = "INSERT INTO team_backpack_members (backpack_id, player_uuid, role) VALUES (?, ?, ?)";
-        try (PreparedStatement insertStmt = connection.prepareStatement(insertSql)) {
-            for (UUID memberUUID : backpack.getMembers()) {
-                insertStmt.setString(1, backpack.getId());
-                insertStmt.setString(2, memberUUID.toString());
-                insertStmt.setString(3, backpack.getOwner().equals(memberUUID) ? "OWNER" : "MEMBER");
-                insertStmt.addBatch();
-            }
-            insertStmt.executeBatch();
-        }
+        return supplyAsync(() -> getPlayerBackupIds(playerUUID));
     }
     
     /**
@@ -986,15 +1192,49 @@ public class DatabaseManager {
      * @return 团队背包实例，如果不存在则返回null
      */
     public TeamBackpack loadTeamBackpack(String backpackId) {
+        return loadTeamBackpack(backpackId, false);
+    }
+
+    /**
+     * 从数据库加载团队背包数据，数据库暂时不可用时抛出异常而不是返回null
+     * @param backpackId 背包ID
+     * @return 团队背包实例，如果不存在则返回null
+     * @throws DatabaseUnavailableException 数据库暂时不可用时抛出
+     */
+    public TeamBackpack loadTeamBackpackOrThrow(String backpackId) {
+        return loadTeamBackpack(backpackId, true);
+    }
+
+    /**
+     * 加载团队背包数据
+     * @param backpackId 背包ID
+     * @param strict 数据库暂时不可用时是否抛出 {@link DatabaseUnavailableException}，为false时返回null
+     * @return 团队背包实例，如果不存在则返回null
+     */
+    private TeamBackpack loadTeamBackpack(String backpackId, boolean strict) {
         if (backpackId == null || backpackId.isEmpty()) {
             com.leeinx.xibackpack.util.LogManager.warning("加载团队背包数据时backpackId为空");
             return null;
         }
+
+        // 写回队列中还有未写入的快照时，直接使用最新快照
+        WriteBehindQueue queue = writeBehindQueue;
+        if (queue != null) {
+            TeamBackpackRecord pendingRecord = queue.peekTeam(backpackId);
+            if (pendingRecord != null) {
+                return pendingRecord.toBackpack();
+            }
+        }
+        SaveJournal journal = saveJournal;
+        SaveJournal.Entry journaled = journal != null ? journal.getPending(backpackId) : null;
+        if (journaled != null) {
+            return journaled.getTeamRecord().toBackpack();
+        }
         
-        return executeWithRetry(() -> {
+        Callable<TeamBackpack> query = () -> {
             Connection connection = null;
             try {
-                connection = getConnection();
+                connection = getReadConnection();
                 
                 // 检查是否为测试环境（connection为null表示在测试环境中）
                 if (connection == null) {
@@ -1012,17 +1252,18 @@ public class DatabaseManager {
                         if (rs.next()) {
                             String name = rs.getString("name");
                             UUID ownerUUID = UUID.fromString(rs.getString("owner_uuid"));
-                            String backpackData = rs.getString("backpack_data");
+                            String backpackData = payloadCompressor.decompress(dialect.getPayload(rs, "backpack_data"));
                             
-                            com.leeinx.xibackpack.util.LogManager.info("正在加载团队背包 %s，数据大小: %d", backpackId, (backpackData != null ? backpackData.length() : 0));
+                            com.leeinx.xibackpack.util.LogManager.trace(com.leeinx.xibackpack.util.TraceCategory.DATABASE, () -> "正在加载团队背包 " + backpackId + "，数据大小: " + (backpackData != null ? backpackData.length() : 0));
                             
                             // 使用TeamBackpack自身的反序列化方法（复用个人背包的反序列化逻辑）
                             TeamBackpack backpack = TeamBackpack.deserialize(backpackData, backpackId, name, ownerUUID);
                             
                             // 加载成员信息
                             loadTeamBackpackMembers(connection, backpack);
+                            backpack.markSaved(backpack.getVersion());
                             
-                            com.leeinx.xibackpack.util.LogManager.info("成功加载团队背包 %s，物品数量: %d", backpackId, backpack.getItems().size());
+                            com.leeinx.xibackpack.util.LogManager.trace(com.leeinx.xibackpack.util.TraceCategory.DATABASE, () -> "成功加载团队背包 " + backpackId + "，物品数量: " + backpack.getItemCount());
                             return backpack;
                         }
                     }
@@ -1037,7 +1278,8 @@ public class DatabaseManager {
                     }
                 }
             }
-        }, "加载团队背包数据");
+        };
+        return strict ? executeOrThrow(query, "加载团队背包数据") : execute(query, "加载团队背包数据");
     }
     
     /**
@@ -1046,11 +1288,23 @@ public class DatabaseManager {
      * @return 团队背包实例的CompletableFuture，如果不存在则返回null
      */
     public CompletableFuture<TeamBackpack> loadTeamBackpackAsync(String backpackId) {
-        return CompletableFuture.supplyAsync(() -> {
-            return loadTeamBackpack(backpackId);
-        }, asyncExecutor);
+        // 排在同一团队背包之前提交的保存之后，读到的总是最新数据；数据库暂时不可用时以异常完成
+        return submitWithRetry(backpackId, () -> loadTeamBackpack(backpackId, true), "加载团队背包数据");
     }
     
+    /**
+     * 异步获取玩家拥有或参与的所有团队背包ID
+     * @param playerUUID 玩家UUID
+     * @return 团队背包ID集合的CompletableFuture
+     */
+    public CompletableFuture<Set<String>> getPlayerTeamBackpackIdsAsync(UUID playerUUID) {
+        return supplyAsync(() -> {
+            Set<String> ids = new LinkedHashSet<>(getPlayerOwnedTeamBackpacks(playerUUID));
+            ids.addAll(getPlayerJoinedTeamBackpacks(playerUUID));
+            return ids;
+        });
+    }
+
     /**
      * 获取玩家拥有的所有团队背包ID
      * @param playerUUID 玩家UUID
@@ -1063,11 +1317,11 @@ public class DatabaseManager {
             return backpackIds;
         }
         
-        List<String> result = executeWithRetry(() -> {
+        List<String> result = execute(() -> {
             List<String> ids = new ArrayList<>();
             Connection connection = null;
             try {
-                connection = getConnection();
+                connection = getReadConnection();
                 
                 // 检查是否为测试环境（connection为null表示在测试环境中）
                 if (connection == null) {
@@ -1115,11 +1369,11 @@ public class DatabaseManager {
             return backpackIds;
         }
         
-        List<String> result = executeWithRetry(() -> {
+        List<String> result = execute(() -> {
             List<String> ids = new ArrayList<>();
             Connection connection = null;
             try {
-                connection = getConnection();
+                connection = getReadConnection();
                 
                 // 检查是否为测试环境（connection为null表示在测试环境中）
                 if (connection == null) {
@@ -1167,72 +1421,171 @@ public class DatabaseManager {
     public boolean saveTeamBackpackData(String id, String name, UUID ownerUUID, String jsonBackpackData, Set<UUID> membersSnapshot) {
         if (id == null || jsonBackpackData == null) return false;
 
-        return executeWithRetry(() -> {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                
-                // 检查是否为测试环境（connection为null表示在测试环境中）
-                if (connection == null) {
-                    // 测试环境，直接返回true
-                    return true;
-                }
-
-                // 1. 保存背包基本信息
-                String dbType = com.leeinx.xibackpack.util.ConfigManager.getString("database.type");
-                boolean isSQLite = dbType.equalsIgnoreCase("sqlite");
-                
-                String sql;
-                if (isSQLite) {
-                    // SQLite使用UPSERT语法
-                    sql = "INSERT OR REPLACE INTO team_backpacks (id, name, owner_uuid, backpack_data, updated_at) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
-                } else {
-                    // 其他数据库使用ON DUPLICATE KEY UPDATE
-                    sql = "INSERT INTO team_backpacks (id, name, owner_uuid, backpack_data) VALUES (?, ?, ?, ?) " +
-                            "ON DUPLICATE KEY UPDATE name = VALUES(name), backpack_data = VALUES(backpack_data), updated_at = CURRENT_TIMESTAMP";
-                }
+        Boolean result = execute(() -> writeTransaction(connection -> {
+            // 检查是否为测试环境（connection为null表示在测试环境中）
+            if (connection == null) {
+                // 测试环境，直接返回true
+                return true;
+            }
 
-                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                    stmt.setString(1, id);
-                    stmt.setString(2, name);
-                    stmt.setString(3, ownerUUID.toString());
-                    stmt.setString(4, jsonBackpackData); // 使用传入的JSON字符串
-                    stmt.executeUpdate();
-                }
+            // 1. 保存背包基本信息
+            try (PreparedStatement stmt = connection.prepareStatement(dialect.upsertTeamBackpackSql())) {
+                stmt.setString(1, id);
+                stmt.setString(2, name);
+                stmt.setString(3, ownerUUID.toString());
+                dialect.setPayload(stmt, 4, payloadCompressor.compress(jsonBackpackData));
+                stmt.executeUpdate();
+            }
 
-                // 2. 保存成员信息 (使用传入的快照，不读取 backpack 对象)
-                // 先删除旧成员
-                String deleteSql = "DELETE FROM team_backpack_members WHERE backpack_id = ?";
-                try (PreparedStatement deleteStmt = connection.prepareStatement(deleteSql)) {
-                    deleteStmt.setString(1, id);
-                    deleteStmt.executeUpdate();
-                }
+            // 2. 保存成员信息 (使用传入的快照，不读取 backpack 对象)
+            // 先删除旧成员
+            String deleteSql = "DELETE FROM team_backpack_members WHERE backpack_id = ?";
+            try (PreparedStatement deleteStmt = connection.prepareStatement(deleteSql)) {
+                deleteStmt.setString(1, id);
+                deleteStmt.executeUpdate();
+            }
 
-                // 插入新成员
-                if (membersSnapshot != null && !membersSnapshot.isEmpty()) {
-                    String insertSql = "INSERT INTO team_backpack_members (backpack_id, player_uuid, role) VALUES (?, ?, ?)";
-                    try (PreparedStatement insertStmt = connection.prepareStatement(insertSql)) {
-                        for (UUID memberUUID : membersSnapshot) {
-                            insertStmt.setString(1, id);
-                            insertStmt.setString(2, memberUUID.toString());
-                            // 简单的判断逻辑：如果成员ID等于所有者ID，就是OWNER
-                            insertStmt.setString(3, ownerUUID.equals(memberUUID) ? "OWNER" : "MEMBER");
-                            insertStmt.addBatch();
-                        }
-                        insertStmt.executeBatch();
+            // 插入新成员
+            if (membersSnapshot != null && !membersSnapshot.isEmpty()) {
+                String insertSql = "INSERT INTO team_backpack_members (backpack_id, player_uuid, role) VALUES (?, ?, ?)";
+                try (PreparedStatement insertStmt = connection.prepareStatement(insertSql)) {
+                    for (UUID memberUUID : membersSnapshot) {
+                        insertStmt.setString(1, id);
+                        insertStmt.setString(2, memberUUID.toString());
+                        // 简单的判断逻辑：如果成员ID等于所有者ID，就是OWNER
+                        insertStmt.setString(3, ownerUUID.equals(memberUUID) ? "OWNER" : "MEMBER");
+                        insertStmt.addBatch();
                     }
+                    insertStmt.executeBatch();
                 }
+            }
+
+            return true;
+        }), "保存团队背包数据（异步）");
+
+        return result != null && result;
+    }
+
+    /**
+     * 批量保存玩家背包数据
+     * 先记录到保存日志，写入成功后标记完成，日志中同一玩家更早的保存不会再被读取或重放
+     * @param backpackData 玩家UUID到背包数据（JSON格式）的映射
+     * @return 是否全部保存成功
+     */
+    public boolean savePlayerBackpacksBatch(Map<UUID, String> backpackData) {
+        if (backpackData == null || backpackData.isEmpty()) {
+            return true;
+        }
+        SaveJournal journal = saveJournal;
+        Map<UUID, CompletableFuture<Long>> appends = new HashMap<>();
+        if (journal != null) {
+            for (Map.Entry<UUID, String> entry : backpackData.entrySet()) {
+                appends.put(entry.getKey(), journal.appendPlayer(entry.getKey(), entry.getValue()));
+            }
+        }
+        boolean success = writePlayerBackpacksBatch(backpackData);
+        for (Map.Entry<UUID, CompletableFuture<Long>> append : appends.entrySet()) {
+            commitWhenWritten(journal, append.getKey(), append.getValue(), CompletableFuture.completedFuture(success));
+        }
+        return success;
+    }
+
+    /**
+     * 批量写入玩家背包数据，不记录保存日志（写回队列中的数据已经记录过）
+     * 所有数据在同一个事务中通过addBatch/executeBatch写入
+     * @param backpackData 玩家UUID到背包数据（JSON格式）的映射
+     * @return 是否全部保存成功
+     */
+    boolean writePlayerBackpacksBatch(Map<UUID, String> backpackData) {
+        if (backpackData == null || backpackData.isEmpty()) {
+            return true;
+        }
 
+        // 整批在同一个事务中写入（SQLite下还会与同一时间的其他写入合并）
+        Boolean result = execute(() -> writeTransaction(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(dialect.upsertPlayerBackpackSql())) {
+                for (Map.Entry<UUID, String> entry : backpackData.entrySet()) {
+                    stmt.setString(1, entry.getKey().toString());
+                    dialect.setPayload(stmt, 2, payloadCompressor.compress(entry.getValue()));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
                 return true;
-            } finally {
-                if (connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        e.printStackTrace();
+            }
+        }), "批量保存玩家背包数据");
+
+        return result != null && result;
+    }
+
+    /**
+     * 批量保存团队背包数据及成员信息
+     * 先记录到保存日志，写入成功后标记完成，日志中同一背包更早的保存不会再被读取或重放
+     * @param records 团队背包快照集合
+     * @return 是否全部保存成功
+     */
+    public boolean saveTeamBackpacksBatch(Collection<TeamBackpackRecord> records) {
+        if (records == null || records.isEmpty()) {
+            return true;
+        }
+        SaveJournal journal = saveJournal;
+        Map<String, CompletableFuture<Long>> appends = new HashMap<>();
+        if (journal != null) {
+            for (TeamBackpackRecord record : records) {
+                appends.put(record.getId(), journal.appendTeam(record));
+            }
+        }
+        boolean success = writeTeamBackpacksBatch(records);
+        for (Map.Entry<String, CompletableFuture<Long>> append : appends.entrySet()) {
+            commitWhenWritten(journal, append.getKey(), append.getValue(), CompletableFuture.completedFuture(success));
+        }
+        return success;
+    }
+
+    /**
+     * 批量写入团队背包数据及成员信息，不记录保存日志（写回队列中的数据已经记录过）
+     * 所有背包在同一个事务中通过addBatch/executeBatch写入
+     * @param records 团队背包快照集合
+     * @return 是否全部保存成功
+     */
+    boolean writeTeamBackpacksBatch(Collection<TeamBackpackRecord> records) {
+        if (records == null || records.isEmpty()) {
+            return true;
+        }
+
+        // 整批在同一个事务中写入（SQLite下还会与同一时间的其他写入合并）
+        Boolean result = execute(() -> writeTransaction(connection -> {
+            String upsertSql = dialect.upsertTeamBackpackSql();
+            String deleteMembersSql = "DELETE FROM team_backpack_members WHERE backpack_id = ?";
+            String insertMemberSql = "INSERT INTO team_backpack_members (backpack_id, player_uuid, role) VALUES (?, ?, ?)";
+
+            try (PreparedStatement upsertStmt = connection.prepareStatement(upsertSql);
+                 PreparedStatement deleteStmt = connection.prepareStatement(deleteMembersSql);
+                 PreparedStatement insertStmt = connection.prepareStatement(insertMemberSql)) {
+                for (TeamBackpackRecord record : records) {
+                    upsertStmt.setString(1, record.getId());
+                    upsertStmt.setString(2, record.getName());
+                    upsertStmt.setString(3, record.getOwner().toString());
+                    dialect.setPayload(upsertStmt, 4, payloadCompressor.compress(record.getData()));
+                    upsertStmt.addBatch();
+
+                    deleteStmt.setString(1, record.getId());
+                    deleteStmt.addBatch();
+
+                    for (UUID memberUUID : record.getMembers()) {
+                        insertStmt.setString(1, record.getId());
+                        insertStmt.setString(2, memberUUID.toString());
+                        insertStmt.setString(3, record.getOwner().equals(memberUUID) ? "OWNER" : "MEMBER");
+                        insertStmt.addBatch();
                     }
                 }
+                // 先写背包再重建成员关系，保证外键约束成立
+                upsertStmt.executeBatch();
+                deleteStmt.executeBatch();
+                insertStmt.executeBatch();
+                return true;
             }
-        }, "保存团队背包数据（异步）");
+        }), "批量保存团队背包数据");
+
+        return result != null && result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package com.leeinx.xibackpack.handler;
+
+/**
+ * 数据库暂时不可用（连接失败、超时或熔断器打开）
+ * 与"数据不存在"区分开，调用方不应把它当作空背包处理
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+    private final boolean retryable;
+
+    /**
+     * 构造函数
+     * @param message 错误信息
+     * @param cause 原始异常，熔断器打开时为null
+     * @param retryable 稍后重试是否可能成功；熔断器打开时为false
+     */
+    public DatabaseUnavailableException(String message, Throwable cause, boolean retryable) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
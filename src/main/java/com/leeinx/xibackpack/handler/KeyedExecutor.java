@@ -0,0 +1,257 @@
+package com.leeinx.xibackpack.handler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 按键串行的执行器
+ *
+ * 同一个键（玩家UUID或团队背包ID）的任务严格按提交顺序逐个执行，不同键的任务在共享线程池中并行执行。
+ * 保存任务可以使用 {@link #submitCoalescing(Object, Supplier)} 提交：队尾尚未开始的保存会被新的保存替换，
+ * 旧调用方得到新保存的结果，旧快照不会在新快照之后写入。每个键的队列长度有上限，超出时拒绝新的普通任务。
+ * 线程池拒绝调度时，该键排队中的任务全部以 {@link RejectedExecutionException} 完成，不会在调用线程上执行。
+ *
+ * @param <K> 键类型
+ */
+public class KeyedExecutor<K> {
+    // 每次调度最多连续执行的任务数，避免单个键长期占用线程
+    private static final int MAX_TASKS_PER_DISPATCH = 8;
+
+    private final Executor executor;
+    private final int maxQueuePerKey;
+    private final ConcurrentMap<K, KeyQueue> queues = new ConcurrentHashMap<>();
+
+    private final AtomicInteger maxObservedDepth = new AtomicInteger();
+    private final AtomicLong submittedTasks = new AtomicLong();
+    private final AtomicLong coalescedTasks = new AtomicLong();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+
+    /**
+     * 构造函数
+     * @param executor 实际执行任务的线程池
+     * @param maxQueuePerKey 每个键最多排队的任务数
+     */
+    public KeyedExecutor(Executor executor, int maxQueuePerKey) {
+        this.executor = executor;
+        this.maxQueuePerKey = Math.max(1, maxQueuePerKey);
+    }
+
+    /**
+     * 提交任务，在同一键之前提交的任务全部完成后执行
+     * @param key 键
+     * @param task 任务
+     * @param <T> 结果类型
+     * @return 任务结果的CompletableFuture；队列已满时以 {@link RejectedExecutionException} 异常完成
+     */
+    public <T> CompletableFuture<T> submit(K key, Supplier<T> task) {
+        return enqueue(key, task, false);
+    }
+
+    /**
+     * 提交可合并的任务（通常是保存最新快照）
+     * 队尾是尚未开始的可合并任务时直接替换它，被替换任务的调用方得到新任务的结果
+     * @param key 键
+     * @param task 任务
+     * @param <T> 结果类型
+     * @return 任务结果的CompletableFuture
+     */
+    public <T> CompletableFuture<T> submitCoalescing(K key, Supplier<T> task) {
+        return enqueue(key, task, true);
+    }
+
+    private <T> CompletableFuture<T> enqueue(K key, Supplier<T> task, boolean coalescing) {
+        if (key == null) {
+            // 没有键的任务无法排序，直接交给线程池
+            try {
+                CompletableFuture<T> direct = CompletableFuture.supplyAsync(task, executor);
+                submittedTasks.incrementAndGet();
+                return direct;
+            } catch (RejectedExecutionException e) {
+                rejectedTasks.incrementAndGet();
+                CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        boolean[] dispatch = new boolean[1];
+        boolean[] rejected = new boolean[1];
+
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new KeyQueue();
+            }
+            Task<?> tail = queue.tasks.peekLast();
+            if (coalescing && tail != null && tail.coalescing) {
+                // 替换尚未开始的旧快照，保持队列顺序不变
+                tail.replace(task, future);
+                coalescedTasks.incrementAndGet();
+            } else if (queue.tasks.size() >= maxQueuePerKey) {
+                rejected[0] = true;
+            } else {
+                queue.tasks.addLast(new Task<>(task, future, coalescing));
+                updateMaxDepth(queue.tasks.size() + (queue.running ? 1 : 0));
+            }
+            if (!queue.running && !queue.tasks.isEmpty()) {
+                queue.running = true;
+                dispatch[0] = true;
+            }
+            return queue;
+        });
+
+        if (rejected[0]) {
+            rejectedTasks.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("键 " + key + " 的任务队列已满"));
+            return future;
+        }
+        submittedTasks.incrementAndGet();
+        if (dispatch[0]) {
+            dispatch(key);
+        }
+        return future;
+    }
+
+    private void dispatch(K key) {
+        try {
+            executor.execute(() -> drain(key));
+        } catch (RejectedExecutionException e) {
+            // 线程池已满或已关闭：不在调用线程（可能是主线程）上执行，由调用方处理拒绝
+            KeyQueue queue = queues.remove(key);
+            if (queue != null) {
+                for (Task<?> task : queue.tasks) {
+                    rejectedTasks.incrementAndGet();
+                    task.fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 依次执行一个键的任务，执行若干个后重新调度，让其他键也有机会执行
+     */
+    private void drain(K key) {
+        for (int i = 0; i < MAX_TASKS_PER_DISPATCH; i++) {
+            Task<?> task = poll(key);
+            if (task == null) {
+                return;
+            }
+            task.run();
+        }
+        KeyQueue queue = queues.get(key);
+        if (queue != null) {
+            dispatch(key);
+        }
+    }
+
+    /**
+     * 取出下一个任务；没有任务时移除该键的队列并结束执行
+     */
+    private Task<?> poll(K key) {
+        Object[] next = new Object[1];
+        queues.computeIfPresent(key, (k, queue) -> {
+            Task<?> task = queue.tasks.pollFirst();
+            if (task == null) {
+                queue.running = false;
+                return null;
+            }
+            next[0] = task;
+            return queue;
+        });
+        return (Task<?>) next[0];
+    }
+
+    private void updateMaxDepth(int depth) {
+        int current;
+        while (depth > (current = maxObservedDepth.get())) {
+            if (maxObservedDepth.compareAndSet(current, depth)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 获取当前有任务排队或执行中的键数量
+     * @return 键数量
+     */
+    public int getActiveKeys() {
+        return queues.size();
+    }
+
+    /**
+     * 获取运行以来单个键的最大队列深度（包括执行中的任务）
+     * @return 最大队列深度
+     */
+    public int getMaxQueueDepth() {
+        return maxObservedDepth.get();
+    }
+
+    public long getSubmittedTasks() {
+        return submittedTasks.get();
+    }
+
+    /**
+     * 获取被新任务替换而没有单独执行的任务数量
+     * @return 合并次数
+     */
+    public long getCoalescedTasks() {
+        return coalescedTasks.get();
+    }
+
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    /**
+     * 单个键的任务队列，只在ConcurrentHashMap的compute中修改
+     */
+    private static final class KeyQueue {
+        private final ArrayDeque<Task<?>> tasks = new ArrayDeque<>();
+        private boolean running;
+    }
+
+    private static final class Task<T> {
+        private final boolean coalescing;
+        private final List<CompletableFuture<T>> futures = new ArrayList<>(1);
+        private Supplier<T> supplier;
+
+        private Task(Supplier<T> supplier, CompletableFuture<T> future, boolean coalescing) {
+            this.supplier = supplier;
+            this.coalescing = coalescing;
+            this.futures.add(future);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void replace(Supplier<?> newer, CompletableFuture<?> future) {
+            this.supplier = (Supplier<T>) newer;
+            this.futures.add((CompletableFuture<T>) future);
+        }
+
+        private void fail(Throwable throwable) {
+            for (CompletableFuture<T> future : futures) {
+                future.completeExceptionally(throwable);
+            }
+        }
+
+        private void run() {
+            try {
+                T result = supplier.get();
+                for (CompletableFuture<T> future : futures) {
+                    future.complete(result);
+                }
+            } catch (Throwable t) {
+                for (CompletableFuture<T> future : futures) {
+                    future.completeExceptionally(t);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.leeinx.xibackpack.handler;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MySQL方言
+ */
+public class MySqlDialect extends SqlDialect {
+
+    @Override
+    public String getName() {
+        return "mysql";
+    }
+
+    @Override
+    public void configure(HikariConfig config) {
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("useLocalSessionState", "true");
+        // 把addBatch的多条INSERT改写为一条多行INSERT
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        config.addDataSourceProperty("cacheResultSetMetadata", "true");
+        config.addDataSourceProperty("cacheServerConfiguration", "true");
+        config.addDataSourceProperty("elideSetAutoCommits", "true");
+        config.addDataSourceProperty("maintainTimeStats", "false");
+    }
+
+    @Override
+    public List<String> getSchemaStatements() {
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS player_backpacks (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                        "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
+                        "backpack_data LONGTEXT, " +
+                        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS player_backpack_backups (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                        "player_uuid VARCHAR(36) NOT NULL, " +
+                        "backup_id VARCHAR(100) NOT NULL, " +
+                        "backpack_data LONGTEXT, " +
+                        "blob_hash VARCHAR(64), " +
+                        "parent_id BIGINT, " +
+                        "pruned SMALLINT NOT NULL DEFAULT 0, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "UNIQUE KEY unique_backup (player_uuid, backup_id)," +
+                        "INDEX idx_player_uuid (player_uuid)," +
+                        "INDEX idx_created_at (created_at)" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS player_backpack_blobs (" +
+                        "hash VARCHAR(64) PRIMARY KEY, " +
+                        "backpack_data LONGTEXT, " +
+                        "ref_count INT NOT NULL DEFAULT 0, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS team_backpacks (" +
+                        "id VARCHAR(100) PRIMARY KEY, " +
+                        "name VARCHAR(100) NOT NULL, " +
+                        "owner_uuid VARCHAR(36) NOT NULL, " +
+                        "backpack_data LONGTEXT, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS team_backpack_members (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                        "backpack_id VARCHAR(100) NOT NULL, " +
+                        "player_uuid VARCHAR(36) NOT NULL, " +
+                        "role ENUM('OWNER', 'MEMBER') DEFAULT 'MEMBER', " +
+                        "joined_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "UNIQUE KEY unique_member (backpack_id, player_uuid), " +
+                        "INDEX idx_backpack_id (backpack_id), " +
+                        "INDEX idx_player_uuid (player_uuid), " +
+                        "FOREIGN KEY (backpack_id) REFERENCES team_backpacks(id) ON DELETE CASCADE" +
+                        ")"
+        );
+    }
+
+    @Override
+    public String upsertPlayerBackpackSql() {
+        return "INSERT INTO player_backpacks (player_uuid, backpack_data) VALUES (?, ?) " +
+                "ON DUPLICATE KEY UPDATE backpack_data = VALUES(backpack_data), updated_at = CURRENT_TIMESTAMP";
+    }
+
+    @Override
+    public String upsertTeamBackpackSql() {
+        return "INSERT INTO team_backpacks (id, name, owner_uuid, backpack_data) VALUES (?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE name = VALUES(name), owner_uuid = VALUES(owner_uuid), " +
+                "backpack_data = VALUES(backpack_data), updated_at = CURRENT_TIMESTAMP";
+    }
+
+    @Override
+    public String upsertBlobSql() {
+        return "INSERT INTO player_backpack_blobs (hash, backpack_data, ref_count) VALUES (?, ?, 1) " +
+                "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1";
+    }
+
+    @Override
+    public String timeBucketSql(String column, boolean daily) {
+        return daily ? "DATE(" + column + ")" : "DATE_FORMAT(" + column + ", '%Y-%m-%d %H')";
+    }
+
+    @Override
+    public String hoursAgoSql() {
+        return "CURRENT_TIMESTAMP - INTERVAL ? HOUR";
+    }
+}
@@ -0,0 +1,284 @@
+package com.leeinx.xibackpack.handler;
+
+import com.leeinx.xibackpack.backpack.BackpackCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * backpack_data 列的透明压缩
+ *
+ * 压缩后的数据格式为 {@link #PREFIX} + Base64(版本号 + 数据类型 + Deflate数据)，
+ * Deflate使用预置字典，字典由常见的物品NBT键和JSON字段组成，小数据也能获得较好的压缩率。
+ * 不带前缀的旧数据原样读取，因此开启或关闭压缩都不需要迁移数据。
+ * Deflater/Inflater占用本地内存，放在有上限的池中复用，多出的实例用完立即end()，关闭时释放池中所有实例。
+ */
+public class PayloadCompressor {
+    public static final String PREFIX = "xbz:";
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int KIND_TEXT = 0;
+    private static final int KIND_BINARY = 1;
+
+    /**
+     * 预置字典，越常见的内容越靠后（Deflate优先匹配距离更近的内容）
+     */
+    private static final byte[] DICTIONARY = (
+            "minecraft:air" + "minecraft:stone" + "Unbreakable" + "HideFlags" + "RepairCost"
+            + "CustomModelData" + "AttributeModifiers" + "AttributeName" + "Operation" + "Amount"
+            + "StoredEnchantments" + "SkullOwner" + "Properties" + "textures" + "Potion"
+            + "BlockEntityTag" + "Items" + "Slot" + "Count" + "PublicBukkitValues"
+            + "{\"extra\":[{\"bold\":false,\"italic\":false,\"underlined\":false,\"strikethrough\":false,\"obfuscated\":false,\"color\":\"white\",\"text\":\"\"}],\"text\":\"\"}"
+            + "\"italic\":false,\"color\":\"gray\",\"text\":\""
+            + "minecraft:sharpness" + "minecraft:protection" + "minecraft:unbreaking" + "minecraft:mending"
+            + "minecraft:efficiency" + "minecraft:fortune" + "minecraft:looting"
+            + "Enchantments" + "Damage" + "display" + "Lore" + "Name" + "lvl" + "id"
+            + "DIAMOND_SWORD" + "DIAMOND_PICKAXE" + "NETHERITE_SWORD" + "ENCHANTED_BOOK"
+            + "\"type\":\"" + "\"amount\":\"" + "\"nbt\":\"" + "{\"size\":" + ",\"items\":{\""
+    ).getBytes(StandardCharsets.UTF_8);
+
+    // 池中最多保留的Deflater/Inflater数量，与数据库线程数相当即可
+    private static final int POOL_SIZE = 8;
+
+    private final boolean enabled;
+    private final int level;
+    private final int minSize;
+
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private volatile boolean closed;
+
+    private final AtomicLong compressedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressedCount = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    /**
+     * 构造函数
+     * @param enabled 是否压缩写入的数据（关闭时仍能读取已压缩的数据）
+     * @param level Deflate压缩级别（1-9）
+     * @param minSize 小于此长度的数据不压缩
+     */
+    public PayloadCompressor(boolean enabled, int level, int minSize) {
+        this.enabled = enabled;
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+        this.minSize = Math.max(0, minSize);
+    }
+
+    /**
+     * 压缩即将写入数据库的背包数据
+     * @param data 序列化后的背包数据
+     * @return 压缩后的数据；未启用压缩、数据过小或压缩无收益时返回原数据
+     */
+    public String compress(String data) {
+        if (!enabled || data == null || data.length() < minSize || data.startsWith(PREFIX)) {
+            return data;
+        }
+
+        long start = System.nanoTime();
+        byte[] raw;
+        int kind;
+        if (BackpackCodec.isBinary(data)) {
+            // 二进制格式先还原成原始字节，避免压缩Base64文本
+            try {
+                raw = Base64.getDecoder().decode(data.substring(BackpackCodec.BINARY_PREFIX.length()));
+                kind = KIND_BINARY;
+            } catch (IllegalArgumentException e) {
+                return data;
+            }
+        } else {
+            raw = data.getBytes(StandardCharsets.UTF_8);
+            kind = KIND_TEXT;
+        }
+
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(raw);
+            deflater.finish();
+
+            out.write(FORMAT_VERSION);
+            out.write(kind);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.reset();
+            if (closed || !deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+
+        String compressed = PREFIX + Base64.getEncoder().encodeToString(out.toByteArray());
+        compressNanos.addAndGet(System.nanoTime() - start);
+        if (compressed.length() >= data.length()) {
+            skippedCount.incrementAndGet();
+            return data;
+        }
+        compressedCount.incrementAndGet();
+        rawBytes.addAndGet(data.length());
+        storedBytes.addAndGet(compressed.length());
+        return compressed;
+    }
+
+    /**
+     * 解压从数据库读取的背包数据
+     * @param data 数据库中的背包数据
+     * @return 解压后的数据；未压缩的数据原样返回
+     * @throws IOException 压缩数据损坏时抛出
+     */
+    public String decompress(String data) throws IOException {
+        if (data == null || !data.startsWith(PREFIX)) {
+            return data;
+        }
+
+        long start = System.nanoTime();
+        byte[] packed;
+        try {
+            packed = Base64.getDecoder().decode(data.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("压缩数据Base64解码失败", e);
+        }
+        if (packed.length < 2 || packed[0] != FORMAT_VERSION) {
+            throw new IOException("不支持的压缩数据格式");
+        }
+        int kind = packed[1];
+
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        inflater.setInput(packed, 2, packed.length - 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(packed.length * 3);
+        byte[] buffer = new byte[4096];
+        try {
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("压缩数据不完整");
+                    }
+                }
+                out.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("压缩数据损坏", e);
+        } finally {
+            inflater.reset();
+            if (closed || !inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+
+        String result;
+        if (kind == KIND_BINARY) {
+            result = BackpackCodec.BINARY_PREFIX + Base64.getEncoder().encodeToString(out.toByteArray());
+        } else {
+            result = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+        decompressedCount.incrementAndGet();
+        decompressNanos.addAndGet(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * 释放池中所有Deflater/Inflater的本地内存，之后借出的实例用完即释放
+     */
+    public void close() {
+        closed = true;
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 获取池中空闲的Deflater和Inflater数量
+     * @return 空闲实例数量
+     */
+    public int getPooledCount() {
+        return deflaters.size() + inflaters.size();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 获取已压缩写入的条目数量
+     * @return 压缩次数
+     */
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    /**
+     * 获取压缩后没有变小而按原样写入的条目数量
+     * @return 跳过次数
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * 获取压缩率（压缩后长度 / 原始长度）
+     * @return 压缩率，没有压缩过数据时返回1
+     */
+    public double getRatio() {
+        long raw = rawBytes.get();
+        return raw == 0 ? 1.0 : (double) storedBytes.get() / raw;
+    }
+
+    /**
+     * 获取累计节省的字符数
+     * @return 节省的字符数
+     */
+    public long getSavedBytes() {
+        return rawBytes.get() - storedBytes.get();
+    }
+
+    /**
+     * 获取平均每次压缩耗时（微秒），包含无收益的压缩
+     * @return 平均耗时
+     */
+    public double getAverageCompressMicros() {
+        long count = compressedCount.get() + skippedCount.get();
+        return count == 0 ? 0 : compressNanos.get() / 1000.0 / count;
+    }
+
+    /**
+     * 获取平均每次解压耗时（微秒）
+     * @return 平均耗时
+     */
+    public double getAverageDecompressMicros() {
+        long count = decompressedCount.get();
+        return count == 0 ? 0 : decompressNanos.get() / 1000.0 / count;
+    }
+}
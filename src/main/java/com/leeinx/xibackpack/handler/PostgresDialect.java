@@ -0,0 +1,196 @@
+package com.leeinx.xibackpack.handler;
+
+import com.leeinx.xibackpack.backpack.BackpackCodec;
+import com.zaxxer.hikari.HikariConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * PostgreSQL方言
+ *
+ * 背包数据存为bytea：二进制格式（{@link BackpackCodec#BINARY_PREFIX}）和压缩数据（{@link PayloadCompressor#PREFIX}）
+ * 去掉前缀和Base64后保存原始字节，首字节为格式标记；其他数据按UTF-8保存。
+ * 首字节不是格式标记的旧数据（按UTF-8保存的文本）原样读取，不需要迁移。
+ * 没有 ON UPDATE CURRENT_TIMESTAMP，更新时间由upsert语句显式设置。
+ */
+public class PostgresDialect extends SqlDialect {
+    // 格式标记都是控制字符，不会与旧数据的首字节（"xb"前缀或JSON）冲突
+    private static final byte MARKER_TEXT = 0;
+    private static final byte MARKER_BINARY = 1;
+    private static final byte MARKER_COMPRESSED = 2;
+
+    @Override
+    public String getName() {
+        return "postgresql";
+    }
+
+    @Override
+    public void configure(HikariConfig config) {
+        // 把addBatch的多条INSERT改写为多行INSERT，减少往返次数
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+        config.addDataSourceProperty("ApplicationName", "XiBackpack");
+    }
+
+    @Override
+    public List<String> getSchemaStatements() {
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS player_backpacks (" +
+                        "id BIGSERIAL PRIMARY KEY, " +
+                        "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
+                        "backpack_data BYTEA, " +
+                        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS player_backpack_backups (" +
+                        "id BIGSERIAL PRIMARY KEY, " +
+                        "player_uuid VARCHAR(36) NOT NULL, " +
+                        "backup_id VARCHAR(100) NOT NULL, " +
+                        "backpack_data BYTEA, " +
+                        "blob_hash VARCHAR(64), " +
+                        "parent_id BIGINT, " +
+                        "pruned SMALLINT NOT NULL DEFAULT 0, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "UNIQUE (player_uuid, backup_id)" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS player_backpack_blobs (" +
+                        "hash VARCHAR(64) PRIMARY KEY, " +
+                        "backpack_data BYTEA, " +
+                        "ref_count INTEGER NOT NULL DEFAULT 0, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")",
+                // 按玩家统计、列出和删除最旧备份都走这个索引；PostgreSQL的索引名在模式内唯一
+                "CREATE INDEX IF NOT EXISTS idx_backups_player_created ON player_backpack_backups (player_uuid, created_at)",
+                "CREATE TABLE IF NOT EXISTS team_backpacks (" +
+                        "id VARCHAR(100) PRIMARY KEY, " +
+                        "name VARCHAR(100) NOT NULL, " +
+                        "owner_uuid VARCHAR(36) NOT NULL, " +
+                        "backpack_data BYTEA, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS team_backpack_members (" +
+                        "id BIGSERIAL PRIMARY KEY, " +
+                        "backpack_id VARCHAR(100) NOT NULL REFERENCES team_backpacks(id) ON DELETE CASCADE, " +
+                        "player_uuid VARCHAR(36) NOT NULL, " +
+                        "role VARCHAR(10) DEFAULT 'MEMBER' CHECK (role IN ('OWNER', 'MEMBER')), " +
+                        "joined_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "UNIQUE (backpack_id, player_uuid)" +
+                        ")",
+                // (backpack_id, player_uuid) 的唯一约束已覆盖按背包查询
+                "CREATE INDEX IF NOT EXISTS idx_members_player_uuid ON team_backpack_members (player_uuid)"
+        );
+    }
+
+    @Override
+    public String upsertPlayerBackpackSql() {
+        return onConflictUpsert("player_backpacks",
+                new String[]{"player_uuid", "backpack_data"},
+                new String[]{"player_uuid"},
+                new String[]{"backpack_data"},
+                "updated_at");
+    }
+
+    @Override
+    public String upsertTeamBackpackSql() {
+        return onConflictUpsert("team_backpacks",
+                new String[]{"id", "name", "owner_uuid", "backpack_data"},
+                new String[]{"id"},
+                new String[]{"name", "owner_uuid", "backpack_data"},
+                "updated_at");
+    }
+
+    @Override
+    public void setPayload(PreparedStatement statement, int index, String payload) throws SQLException {
+        if (payload == null) {
+            statement.setNull(index, Types.BINARY);
+        } else {
+            statement.setBytes(index, toBytes(payload));
+        }
+    }
+
+    @Override
+    public String getPayload(ResultSet resultSet, String column) throws SQLException {
+        byte[] bytes = resultSet.getBytes(column);
+        return bytes == null ? null : fromBytes(bytes);
+    }
+
+    /**
+     * 把背包数据转换为bytea的内容：带前缀的Base64数据还原为原始字节，其他数据按UTF-8编码
+     * @param payload 背包数据（可能已压缩）
+     * @return 格式标记加数据
+     */
+    static byte[] toBytes(String payload) {
+        if (payload.startsWith(PayloadCompressor.PREFIX)) {
+            byte[] raw = decodeBase64(payload, PayloadCompressor.PREFIX.length());
+            if (raw != null) {
+                return withMarker(MARKER_COMPRESSED, raw);
+            }
+        } else if (payload.startsWith(BackpackCodec.BINARY_PREFIX)) {
+            byte[] raw = decodeBase64(payload, BackpackCodec.BINARY_PREFIX.length());
+            if (raw != null) {
+                return withMarker(MARKER_BINARY, raw);
+            }
+        }
+        return withMarker(MARKER_TEXT, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 从bytea的内容还原背包数据
+     * @param bytes 格式标记加数据，或按UTF-8保存的旧数据
+     * @return 背包数据（可能已压缩）
+     */
+    static String fromBytes(byte[] bytes) {
+        if (bytes.length == 0) {
+            return "";
+        }
+        switch (bytes[0]) {
+            case MARKER_TEXT:
+                return new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8);
+            case MARKER_BINARY:
+                return BackpackCodec.BINARY_PREFIX + encodeBase64(bytes);
+            case MARKER_COMPRESSED:
+                return PayloadCompressor.PREFIX + encodeBase64(bytes);
+            default:
+                return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] decodeBase64(String payload, int offset) {
+        String encoded = payload.substring(offset);
+        try {
+            byte[] raw = Base64.getDecoder().decode(encoded);
+            // 只有重新编码后完全相同时才按原始字节保存，保证读取时还原出同一个字符串
+            return Base64.getEncoder().encodeToString(raw).equals(encoded) ? raw : null;
+        } catch (IllegalArgumentException e) {
+            // 不是合法的Base64时按文本保存，读取时原样还原
+            return null;
+        }
+    }
+
+    private static String encodeBase64(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(Arrays.copyOfRange(bytes, 1, bytes.length));
+    }
+
+    private static byte[] withMarker(byte marker, byte[] data) {
+        byte[] bytes = new byte[data.length + 1];
+        bytes[0] = marker;
+        System.arraycopy(data, 0, bytes, 1, data.length);
+        return bytes;
+    }
+
+    @Override
+    public String timeBucketSql(String column, boolean daily) {
+        return "date_trunc('" + (daily ? "day" : "hour") + "', " + column + ")";
+    }
+
+    @Override
+    public String hoursAgoSql() {
+        return "CURRENT_TIMESTAMP - make_interval(hours => ?)";
+    }
+}
@@ -0,0 +1,624 @@
+package com.leeinx.xibackpack.handler;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 本地保存日志（预写日志）
+ *
+ * 每次保存先追加到插件目录下的日志文件并刷盘，再写入数据库；写入成功后追加一条完成记录。
+ * 追加由单独的日志线程执行，同一刷盘周期内的多次保存合并为一次写入和一次force（组提交）。
+ * 服务器崩溃或数据库不可用时，未完成的保存保留在日志中，启动时和之后定时重放到数据库。
+ *
+ * 文件由连续的记录组成：长度(int) + CRC32(int) + 记录内容。启动时读到长度或校验不正确的记录即认为是
+ * 崩溃时写了一半的尾部，截断后继续追加。文件超过大小上限时只保留未完成的保存重写文件。
+ */
+public class SaveJournal {
+    private static final byte TYPE_PLAYER = 1;
+    private static final byte TYPE_TEAM = 2;
+    private static final byte TYPE_COMMIT = 3;
+    private static final byte KEY_PLAYER = 1;
+    private static final byte KEY_TEAM = 2;
+    // 单条记录的长度上限，超过时视为损坏
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+    private static final String FILE_NAME = "saves.log";
+
+    private final File file;
+    private final long groupCommitDelayMillis;
+    private final long compactSizeBytes;
+
+    // 每个玩家UUID / 团队背包ID尚未写入数据库的最新保存
+    private final Map<Object, Entry> pending = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Operation> operations = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong committedRecords = new AtomicLong();
+    private final AtomicLong groupCommits = new AtomicLong();
+    private final AtomicLong replayedEntries = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    private ScheduledExecutorService writer;
+    private FileChannel channel;
+    private long lastSeq;
+    private volatile boolean closed = true;
+
+    /**
+     * 构造函数
+     * @param directory 日志文件所在目录
+     * @param groupCommitDelayMillis 组提交等待时间（毫秒），等待期间到达的保存合并为一次刷盘
+     * @param compactSizeBytes 日志文件超过此大小时重写，0为不重写
+     */
+    public SaveJournal(File directory, long groupCommitDelayMillis, long compactSizeBytes) {
+        this.file = new File(directory, FILE_NAME);
+        this.groupCommitDelayMillis = Math.max(0L, groupCommitDelayMillis);
+        this.compactSizeBytes = Math.max(0L, compactSizeBytes);
+    }
+
+    /**
+     * 打开日志文件：读取未完成的保存，截断损坏的尾部，并启动日志线程
+     * @throws IOException 文件无法读写时抛出
+     */
+    public synchronized void open() throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建保存日志目录: " + directory);
+        }
+
+        long validLength = recover();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > validLength) {
+            com.leeinx.xibackpack.util.LogManager.warning("保存日志尾部有 %d 字节不完整的记录，已截断", channel.size() - validLength);
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        channel.position(validLength);
+
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "XiBackpack-Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        closed = false;
+    }
+
+    /**
+     * 记录玩家背包的保存
+     * @param playerUUID 玩家UUID
+     * @param backpackData 已序列化的背包数据
+     * @return 记录刷盘后以序号完成的CompletableFuture
+     */
+    public CompletableFuture<Long> appendPlayer(UUID playerUUID, String backpackData) {
+        return append(new Entry(0L, 0L, playerUUID, backpackData, null));
+    }
+
+    /**
+     * 记录团队背包的保存
+     * @param record 团队背包快照
+     * @return 记录刷盘后以序号完成的CompletableFuture
+     */
+    public CompletableFuture<Long> appendTeam(TeamBackpackRecord record) {
+        return append(new Entry(0L, 0L, null, record.getData(), record));
+    }
+
+    /**
+     * 标记保存已写入数据库，同一键上序号不大于seq的保存不再需要重放
+     * 完成记录不单独刷盘：崩溃时丢失只会导致一次重复的幂等写入
+     * @param key 玩家UUID或团队背包ID
+     * @param seq 已写入数据库的保存序号
+     */
+    public void commit(Object key, long seq) {
+        if (key == null) {
+            return;
+        }
+        pending.computeIfPresent(key, (k, entry) -> entry.seq <= seq ? null : entry);
+        if (!closed) {
+            operations.add(new Operation(null, key, seq, null));
+            scheduleFlush();
+        }
+        committedRecords.incrementAndGet();
+    }
+
+    /**
+     * 获取指定键尚未写入数据库的最新保存
+     * @param key 玩家UUID或团队背包ID
+     * @return 未完成的保存，没有则返回null
+     */
+    public Entry getPending(Object key) {
+        return key != null ? pending.get(key) : null;
+    }
+
+    /**
+     * 获取所有尚未写入数据库的保存
+     * @return 未完成保存的快照
+     */
+    public Collection<Entry> getPendingEntries() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * 记录一次重放（统计用）
+     */
+    public void recordReplay() {
+        replayedEntries.incrementAndGet();
+    }
+
+    /**
+     * 写入剩余记录并关闭日志
+     * 没有未完成的保存时清空日志文件，否则只保留未完成的保存
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            flush();
+            try {
+                if (pending.isEmpty()) {
+                    channel.truncate(0);
+                    channel.force(true);
+                } else {
+                    compact();
+                }
+            } catch (IOException e) {
+                com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("整理保存日志", e);
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                com.leeinx.xibackpack.util.LogManager.warning("关闭保存日志时出错: %s", e.getMessage());
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getAppendedRecords() {
+        return appendedRecords.get();
+    }
+
+    public long getCommittedRecords() {
+        return committedRecords.get();
+    }
+
+    /**
+     * 获取刷盘次数，与追加记录数的比值反映组提交的合并效果
+     * @return 刷盘次数
+     */
+    public long getGroupCommits() {
+        return groupCommits.get();
+    }
+
+    public long getReplayedEntries() {
+        return replayedEntries.get();
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    public long getFileSize() {
+        return file.length();
+    }
+
+    private CompletableFuture<Long> append(Entry intent) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("保存日志已关闭"));
+            return future;
+        }
+        operations.add(new Operation(intent, null, 0L, future));
+        scheduleFlush();
+        return future;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                writer.schedule(this::flushAndReschedule, groupCommitDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (java.util.concurrent.RejectedExecutionException e) {
+                // 正在关闭，剩余记录由close写入
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    private void flushAndReschedule() {
+        flushScheduled.set(false);
+        synchronized (this) {
+            flush();
+            if (compactSizeBytes > 0 && file.length() > compactSizeBytes) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("整理保存日志", e);
+                }
+            }
+        }
+        if (!operations.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * 把队列中的记录一次写入文件并刷盘，然后通知等待的保存
+     */
+    private void flush() {
+        List<Operation> batch = new ArrayList<>();
+        Operation operation;
+        while ((operation = operations.poll()) != null) {
+            batch.add(operation);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<Entry> written = new ArrayList<>(batch.size());
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        boolean needsForce = false;
+        long startPosition = -1;
+        try {
+            for (Operation op : batch) {
+                if (op.intent != null) {
+                    Entry entry = op.intent.withSeq(++lastSeq, now);
+                    written.add(entry);
+                    writeRecord(buffer, encodeEntry(entry));
+                    needsForce = true;
+                } else {
+                    writeRecord(buffer, encodeCommit(op.commitKey, op.commitSeq));
+                }
+            }
+            startPosition = channel.position();
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            if (needsForce) {
+                channel.force(false);
+                groupCommits.incrementAndGet();
+            }
+        } catch (IOException e) {
+            com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("写入保存日志", e);
+            rollback(startPosition);
+            for (Operation op : batch) {
+                if (op.future != null) {
+                    op.future.completeExceptionally(e);
+                }
+            }
+            return;
+        }
+
+        int index = 0;
+        for (Operation op : batch) {
+            if (op.intent == null) {
+                continue;
+            }
+            Entry entry = written.get(index++);
+            pending.merge(entry.getKey(), entry, (old, newer) -> newer.seq > old.seq ? newer : old);
+            appendedRecords.incrementAndGet();
+            op.future.complete(entry.seq);
+        }
+    }
+
+    /**
+     * 写入失败时截掉写了一半的记录，避免之后追加的记录在重启时无法读取
+     */
+    private void rollback(long startPosition) {
+        if (startPosition < 0) {
+            return;
+        }
+        try {
+            channel.truncate(startPosition);
+            channel.position(startPosition);
+        } catch (IOException e) {
+            com.leeinx.xibackpack.util.LogManager.warning("回滚保存日志失败: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * 只保留未完成的保存重写日志文件，写入临时文件后原子替换
+     */
+    private void compact() throws IOException {
+        File temp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (Entry entry : pending.values()) {
+                writeRecord(buffer, encodeEntry(entry));
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+        }
+        channel.close();
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        compactions.incrementAndGet();
+    }
+
+    /**
+     * 读取日志文件中未完成的保存
+     * @return 有效记录的总长度
+     */
+    private long recover() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        Map<Object, Entry> recovered = new HashMap<>();
+        long validLength = 0;
+        long maxSeq = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                int checksum;
+                byte[] body = new byte[length];
+                try {
+                    checksum = in.readInt();
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (checksum != crc(body)) {
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new java.io.ByteArrayInputStream(body));
+                byte type = record.readByte();
+                long seq = record.readLong();
+                maxSeq = Math.max(maxSeq, seq);
+                if (type == TYPE_COMMIT) {
+                    Object key = readKey(record);
+                    Entry entry = recovered.get(key);
+                    if (entry != null && entry.seq <= seq) {
+                        recovered.remove(key);
+                    }
+                } else {
+                    Entry entry = decodeEntry(type, seq, record);
+                    Entry existing = recovered.get(entry.getKey());
+                    if (existing == null || existing.seq < seq) {
+                        recovered.put(entry.getKey(), entry);
+                    }
+                }
+                validLength += 8 + length;
+            }
+        }
+        lastSeq = maxSeq;
+        pending.putAll(recovered);
+        if (!recovered.isEmpty()) {
+            com.leeinx.xibackpack.util.LogManager.info("保存日志中有 %d 条未写入数据库的保存", recovered.size());
+        }
+        return validLength;
+    }
+
+    private static void writeRecord(ByteArrayOutputStream buffer, byte[] body) throws IOException {
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(body.length);
+        out.writeInt(crc(body));
+        out.write(body);
+        out.flush();
+    }
+
+    private static byte[] encodeEntry(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entry.data.length() * 2);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (entry.team == null) {
+            out.writeByte(TYPE_PLAYER);
+            out.writeLong(entry.seq);
+            writeString(out, entry.playerUUID.toString());
+            writeString(out, entry.data);
+        } else {
+            TeamBackpackRecord team = entry.team;
+            out.writeByte(TYPE_TEAM);
+            out.writeLong(entry.seq);
+            writeString(out, team.getId());
+            writeString(out, team.getName());
+            writeString(out, team.getOwner() != null ? team.getOwner().toString() : null);
+            writeString(out, team.getData());
+            out.writeInt(team.getMembers().size());
+            for (UUID member : team.getMembers()) {
+                writeString(out, member.toString());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeCommit(Object key, long seq) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_COMMIT);
+        out.writeLong(seq);
+        out.writeByte(key instanceof UUID ? KEY_PLAYER : KEY_TEAM);
+        writeString(out, key.toString());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Entry decodeEntry(byte type, long seq, DataInputStream in) throws IOException {
+        if (type == TYPE_PLAYER) {
+            UUID playerUUID = UUID.fromString(readString(in));
+            return new Entry(seq, 0L, playerUUID, readString(in), null);
+        }
+        if (type != TYPE_TEAM) {
+            throw new IOException("未知的保存日志记录类型: " + type);
+        }
+        String id = readString(in);
+        String name = readString(in);
+        String owner = readString(in);
+        String data = readString(in);
+        int memberCount = in.readInt();
+        Set<UUID> members = new HashSet<>();
+        for (int i = 0; i < memberCount; i++) {
+            members.add(UUID.fromString(readString(in)));
+        }
+        TeamBackpackRecord record = new TeamBackpackRecord(id, name, owner != null ? UUID.fromString(owner) : null, data, members);
+        return new Entry(seq, 0L, null, data, record);
+    }
+
+    private static Object readKey(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        String key = readString(in);
+        return kind == KEY_PLAYER ? UUID.fromString(key) : key;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        // 背包数据可能超过writeUTF的64KB限制，使用长度前缀
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 一条尚未写入数据库的保存
+     */
+    public static final class Entry {
+        private final long seq;
+        private final long appendedAt;
+        private final UUID playerUUID;
+        private final String data;
+        private final TeamBackpackRecord team;
+
+        private Entry(long seq, long appendedAt, UUID playerUUID, String data, TeamBackpackRecord team) {
+            this.seq = seq;
+            this.appendedAt = appendedAt;
+            this.playerUUID = playerUUID;
+            this.data = data;
+            this.team = team;
+        }
+
+        private Entry withSeq(long newSeq, long time) {
+            return new Entry(newSeq, time, playerUUID, data, team);
+        }
+
+        /**
+         * 获取键：个人背包为玩家UUID，团队背包为背包ID
+         * @return 键
+         */
+        public Object getKey() {
+            return team != null ? team.getId() : playerUUID;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        /**
+         * 获取记录时间，启动时从文件恢复的记录为0
+         * @return 记录时间（毫秒）
+         */
+        public long getAppendedAt() {
+            return appendedAt;
+        }
+
+        public boolean isTeam() {
+            return team != null;
+        }
+
+        public UUID getPlayerUUID() {
+            return playerUUID;
+        }
+
+        public String getData() {
+            return data;
+        }
+
+        public TeamBackpackRecord getTeamRecord() {
+            return team;
+        }
+    }
+
+    /**
+     * 等待日志线程写入的追加或完成记录
+     */
+    private static final class Operation {
+        private final Entry intent;
+        private final Object commitKey;
+        private final long commitSeq;
+        private final CompletableFuture<Long> future;
+
+        private Operation(Entry intent, Object commitKey, long commitSeq, CompletableFuture<Long> future) {
+            this.intent = intent;
+            this.commitKey = commitKey;
+            this.commitSeq = commitSeq;
+            this.future = future;
+        }
+    }
+}
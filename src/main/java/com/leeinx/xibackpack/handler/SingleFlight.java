@@ -0,0 +1,76 @@
+package com.leeinx.xibackpack.handler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 同一键的并发加载合并
+ * 某个键的加载尚未完成时，后续请求直接共享同一个CompletableFuture，而不是再次查询数据库
+ *
+ * @param <K> 键类型
+ * @param <V> 加载结果类型
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sharedLoads = new AtomicLong();
+
+    /**
+     * 加载指定键，已有进行中的加载时共享其结果
+     * loader返回的Future完成后（包括其中写入缓存的步骤）才会移除进行中的记录，
+     * 因此之后的请求要么能在缓存中找到结果，要么共享同一次加载
+     * @param key 键
+     * @param loader 实际执行加载的函数
+     * @return 加载结果的CompletableFuture
+     */
+    public CompletableFuture<V> load(K key, Function<K, CompletableFuture<V>> loader) {
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            sharedLoads.incrementAndGet();
+            return existing;
+        }
+
+        try {
+            loader.apply(key).whenComplete((value, ex) -> {
+                inFlight.remove(key, promise);
+                if (ex != null) {
+                    promise.completeExceptionally(ex);
+                } else {
+                    promise.complete(value);
+                }
+            });
+        } catch (Throwable t) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(t);
+        }
+        return promise;
+    }
+
+    /**
+     * 获取指定键进行中的加载
+     * @param key 键
+     * @return 进行中的加载，没有则返回null
+     */
+    public CompletableFuture<V> getInFlight(K key) {
+        return inFlight.get(key);
+    }
+
+    /**
+     * 获取当前进行中的加载数量
+     * @return 进行中的加载数量
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * 获取因共享进行中的加载而省去的数据库查询次数
+     * @return 共享次数
+     */
+    public long getSharedLoads() {
+        return sharedLoads.get();
+    }
+}
@@ -0,0 +1,138 @@
+package com.leeinx.xibackpack.handler;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 数据库方言
+ *
+ * 提供各数据库的建表语句、插入或更新（upsert）语句、查询最旧备份的语句和背包数据列的读写方式，
+ * DatabaseManager中的SQL只通过方言取得，不再按数据库类型分支。
+ * 所有upsert语句的参数顺序固定，见各方法说明。
+ */
+public abstract class SqlDialect {
+
+    /**
+     * 根据配置中的数据库类型获取方言
+     * @param type database.type 配置值
+     * @return 对应的方言，未知类型按MySQL处理（与JDBC URL的默认值一致）
+     */
+    public static SqlDialect forType(String type) {
+        String name = type == null ? "" : type.toLowerCase();
+        switch (name) {
+            case "sqlite":
+                return new SqliteDialect();
+            case "postgresql":
+            case "postgres":
+                return new PostgresDialect();
+            default:
+                return new MySqlDialect();
+        }
+    }
+
+    /**
+     * 获取方言名称
+     * @return 名称
+     */
+    public abstract String getName();
+
+    /**
+     * 设置驱动相关的连接参数（批量写入改写、预编译语句缓存等）
+     * @param config 连接池配置
+     */
+    public void configure(HikariConfig config) {
+    }
+
+    /**
+     * 获取建表和建索引语句，按顺序执行，所有语句都可以重复执行
+     * @return 建表语句
+     */
+    public abstract List<String> getSchemaStatements();
+
+    /**
+     * 玩家背包的upsert语句，参数：player_uuid, backpack_data
+     * @return SQL
+     */
+    public abstract String upsertPlayerBackpackSql();
+
+    /**
+     * 团队背包的upsert语句，参数：id, name, owner_uuid, backpack_data
+     * @return SQL
+     */
+    public abstract String upsertTeamBackpackSql();
+
+    /**
+     * 备份数据块的upsert语句，参数：hash, backpack_data
+     * 数据块不存在时以引用数1写入，已存在时引用数加1
+     * @return SQL
+     */
+    public String upsertBlobSql() {
+        return "INSERT INTO player_backpack_blobs (hash, backpack_data, ref_count) VALUES (?, ?, 1) " +
+                "ON CONFLICT (hash) DO UPDATE SET ref_count = player_backpack_blobs.ref_count + 1";
+    }
+
+    /**
+     * 把时间列截断到小时或天，用于按时间段分组
+     * @param column 时间列
+     * @param daily 为true时截断到天，否则截断到小时
+     * @return SQL表达式
+     */
+    public abstract String timeBucketSql(String column, boolean daily);
+
+    /**
+     * 当前时间减去若干小时，小时数为一个参数
+     * @return SQL表达式
+     */
+    public abstract String hoursAgoSql();
+
+    /**
+     * 写入backpack_data列
+     * @param statement 语句
+     * @param index 参数位置
+     * @param payload 背包数据（可能已压缩）
+     * @throws SQLException SQL异常
+     */
+    public void setPayload(PreparedStatement statement, int index, String payload) throws SQLException {
+        statement.setString(index, payload);
+    }
+
+    /**
+     * 读取backpack_data列
+     * @param resultSet 结果集
+     * @param column 列名
+     * @return 背包数据（可能已压缩）
+     * @throws SQLException SQL异常
+     */
+    public String getPayload(ResultSet resultSet, String column) throws SQLException {
+        return resultSet.getString(column);
+    }
+
+    /**
+     * 生成 INSERT ... ON CONFLICT (...) DO UPDATE 形式的upsert语句（SQLite 3.24+ 与PostgreSQL通用）
+     * 冲突时在原行上更新，不像 INSERT OR REPLACE 那样先删除再插入，因此不会触发外键级联删除，也保留id和创建时间
+     * @param table 表名
+     * @param columns 插入的列，顺序即参数顺序
+     * @param conflictColumns 唯一约束的列
+     * @param updateColumns 冲突时更新的列
+     * @param timestampColumn 冲突时设为当前时间的列
+     * @return SQL
+     */
+    protected static String onConflictUpsert(String table, String[] columns, String[] conflictColumns,
+                                             String[] updateColumns, String timestampColumn) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (").append(String.join(", ", columns)).append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") ON CONFLICT (").append(String.join(", ", conflictColumns)).append(") DO UPDATE SET ");
+        for (String column : updateColumns) {
+            sql.append(column).append(" = excluded.").append(column).append(", ");
+        }
+        sql.append(timestampColumn).append(" = CURRENT_TIMESTAMP");
+        return sql.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package com.leeinx.xibackpack.handler;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+
+/**
+ * 按SQLState和驱动错误码对SQL异常分类，代替匹配异常消息中的关键字
+ */
+public final class SqlErrorClassifier {
+    // MySQL: 锁等待超时、死锁、连接数过多
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    private static final int MYSQL_DEADLOCK = 1213;
+    private static final int MYSQL_TOO_MANY_CONNECTIONS = 1040;
+    // SQLite: 数据库文件被其他连接占用（SQLITE_BUSY / SQLITE_LOCKED），驱动不设置SQLState
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    private SqlErrorClassifier() {
+    }
+
+    /**
+     * 是否为稍后重试可能成功的错误（连接中断、超时、死锁、锁冲突等）
+     * @param e SQL异常
+     * @return 可重试时返回true
+     */
+    public static boolean isTransient(SQLException e) {
+        for (SQLException current = e; current != null; current = next(current)) {
+            if (current instanceof SQLTransientException || current instanceof SQLRecoverableException) {
+                return true;
+            }
+            String state = current.getSQLState();
+            if (state != null && (state.startsWith("08") || state.startsWith("40")
+                    || state.equals("HYT00") || state.equals("HYT01") || isPostgresUnavailable(state))) {
+                return true;
+            }
+            int code = current.getErrorCode();
+            if (code == MYSQL_LOCK_WAIT_TIMEOUT || code == MYSQL_DEADLOCK || code == MYSQL_TOO_MANY_CONNECTIONS
+                    || (state == null && (code == SQLITE_BUSY || code == SQLITE_LOCKED))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否说明数据库本身不可用（无法连接、连接池超时、连接数耗尽），这类错误计入熔断器
+     * 死锁和锁冲突说明数据库可以访问，只重试不计入熔断
+     * @param e SQL异常
+     * @return 数据库不可用时返回true
+     */
+    public static boolean indicatesOutage(SQLException e) {
+        for (SQLException current = e; current != null; current = next(current)) {
+            if (current instanceof SQLTransientConnectionException || current instanceof SQLRecoverableException
+                    || current instanceof SQLTimeoutException) {
+                return true;
+            }
+            String state = current.getSQLState();
+            if (state != null && (state.startsWith("08") || state.equals("HYT00") || state.equals("HYT01")
+                    || isPostgresUnavailable(state))) {
+                return true;
+            }
+            if (current.getErrorCode() == MYSQL_TOO_MANY_CONNECTIONS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * PostgreSQL: 连接数过多、管理员关闭、数据库正在启动
+     */
+    private static boolean isPostgresUnavailable(String state) {
+        return state.equals("53300") || state.equals("57P01") || state.equals("57P02") || state.equals("57P03");
+    }
+
+    private static SQLException next(SQLException e) {
+        if (e.getNextException() != null) {
+            return e.getNextException();
+        }
+        return e.getCause() instanceof SQLException ? (SQLException) e.getCause() : null;
+    }
+}
@@ -0,0 +1,21 @@
+package com.leeinx.xibackpack.handler;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 在给定连接上执行的一段数据库写入
+ * 连接的事务由调用方管理，实现中不要提交、回滚或关闭连接
+ *
+ * @param <T> 结果类型
+ */
+@FunctionalInterface
+public interface SqlWork<T> {
+    /**
+     * 执行写入
+     * @param connection 处于事务中的数据库连接
+     * @return 写入结果
+     * @throws SQLException SQL异常
+     */
+    T run(Connection connection) throws SQLException;
+}
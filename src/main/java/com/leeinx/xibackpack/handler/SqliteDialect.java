@@ -0,0 +1,103 @@
+package com.leeinx.xibackpack.handler;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQLite方言
+ */
+public class SqliteDialect extends SqlDialect {
+
+    @Override
+    public String getName() {
+        return "sqlite";
+    }
+
+    @Override
+    public void configure(HikariConfig config) {
+        // 每个连接都启用外键约束（SQLite默认关闭，且只对执行PRAGMA的连接生效）
+        config.addDataSourceProperty("foreign_keys", "true");
+    }
+
+    @Override
+    public List<String> getSchemaStatements() {
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS player_backpacks (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "player_uuid VARCHAR(36) NOT NULL UNIQUE, " +
+                        "backpack_data TEXT, " +
+                        "updated_at TEXT DEFAULT CURRENT_TIMESTAMP" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS player_backpack_backups (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "player_uuid VARCHAR(36) NOT NULL, " +
+                        "backup_id VARCHAR(100) NOT NULL, " +
+                        "backpack_data TEXT, " +
+                        "blob_hash VARCHAR(64), " +
+                        "parent_id BIGINT, " +
+                        "pruned SMALLINT NOT NULL DEFAULT 0, " +
+                        "created_at TEXT DEFAULT CURRENT_TIMESTAMP, " +
+                        "UNIQUE (player_uuid, backup_id)" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS player_backpack_blobs (" +
+                        "hash VARCHAR(64) PRIMARY KEY, " +
+                        "backpack_data TEXT, " +
+                        "ref_count INTEGER NOT NULL DEFAULT 0, " +
+                        "created_at TEXT DEFAULT CURRENT_TIMESTAMP" +
+                        ")",
+                "CREATE INDEX IF NOT EXISTS idx_player_uuid ON player_backpack_backups (player_uuid)",
+                "CREATE INDEX IF NOT EXISTS idx_created_at ON player_backpack_backups (created_at)",
+                "CREATE TABLE IF NOT EXISTS team_backpacks (" +
+                        "id VARCHAR(100) PRIMARY KEY, " +
+                        "name VARCHAR(100) NOT NULL, " +
+                        "owner_uuid VARCHAR(36) NOT NULL, " +
+                        "backpack_data TEXT, " +
+                        "created_at TEXT DEFAULT CURRENT_TIMESTAMP, " +
+                        "updated_at TEXT DEFAULT CURRENT_TIMESTAMP" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS team_backpack_members (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "backpack_id VARCHAR(100) NOT NULL, " +
+                        "player_uuid VARCHAR(36) NOT NULL, " +
+                        "role TEXT DEFAULT 'MEMBER', " +
+                        "joined_at TEXT DEFAULT CURRENT_TIMESTAMP, " +
+                        "UNIQUE (backpack_id, player_uuid), " +
+                        "FOREIGN KEY (backpack_id) REFERENCES team_backpacks(id) ON DELETE CASCADE" +
+                        ")",
+                // SQLite的索引名在整个数据库内唯一，不能与备份表的索引同名
+                "CREATE INDEX IF NOT EXISTS idx_members_backpack_id ON team_backpack_members (backpack_id)",
+                "CREATE INDEX IF NOT EXISTS idx_members_player_uuid ON team_backpack_members (player_uuid)"
+        );
+    }
+
+    @Override
+    public String upsertPlayerBackpackSql() {
+        return onConflictUpsert("player_backpacks",
+                new String[]{"player_uuid", "backpack_data"},
+                new String[]{"player_uuid"},
+                new String[]{"backpack_data"},
+                "updated_at");
+    }
+
+    @Override
+    public String upsertTeamBackpackSql() {
+        return onConflictUpsert("team_backpacks",
+                new String[]{"id", "name", "owner_uuid", "backpack_data"},
+                new String[]{"id"},
+                new String[]{"name", "owner_uuid", "backpack_data"},
+                "updated_at");
+    }
+
+    @Override
+    public String timeBucketSql(String column, boolean daily) {
+        return daily ? "date(" + column + ")" : "strftime('%Y-%m-%d %H', " + column + ")";
+    }
+
+    @Override
+    public String hoursAgoSql() {
+        // CURRENT_TIMESTAMP写入的是UTC时间文本，与datetime('now')可以直接比较
+        return "datetime('now', '-' || ? || ' hours')";
+    }
+}
@@ -0,0 +1,243 @@
+package com.leeinx.xibackpack.handler;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SQLite单写线程
+ *
+ * SQLite同一时间只允许一个写事务，多个线程争用写连接只会互相等待。所有写入交给这一个线程执行：
+ * 它一次取出队列中积压的多个写入，放进同一个事务里提交，事务数和fsync次数随之减少。
+ * 每个写入使用独立的保存点，单个写入失败只回滚它自己，不影响同一事务中的其他写入。
+ */
+public class SqliteWriter {
+    private final DataSource dataSource;
+    private final int maxBatchSize;
+    private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final AtomicLong committedTransactions = new AtomicLong();
+    private final AtomicLong completedWrites = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicInteger largestBatch = new AtomicInteger();
+
+    /**
+     * 构造函数
+     * @param dataSource 写连接所在的连接池
+     * @param maxBatchSize 单个事务最多包含的写入数量
+     */
+    public SqliteWriter(DataSource dataSource, int maxBatchSize) {
+        this.dataSource = dataSource;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.thread = new Thread(this::run, "XiBackpack-SQLite-Writer");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * 提交写入
+     * @param work 写入内容
+     * @param <T> 结果类型
+     * @return 所在事务提交后完成的CompletableFuture
+     */
+    public <T> CompletableFuture<T> submit(SqlWork<T> work) {
+        Task<T> task = new Task<>(work);
+        if (!running) {
+            task.future.completeExceptionally(new SQLException("SQLite写线程已关闭"));
+            return task.future;
+        }
+        queue.add(task);
+        return task.future;
+    }
+
+    /**
+     * 提交写入并等待所在事务提交
+     * @param work 写入内容
+     * @param <T> 结果类型
+     * @return 写入结果
+     * @throws SQLException 写入或提交失败时抛出
+     */
+    public <T> T execute(SqlWork<T> work) throws SQLException {
+        if (Thread.currentThread() == thread) {
+            throw new IllegalStateException("不能在SQLite写线程中等待写入");
+        }
+        try {
+            return submit(work).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待SQLite写入时被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    /**
+     * 写入队列中剩余的写入后停止写线程
+     */
+    public void shutdown() {
+        running = false;
+        queue.add(Task.POISON);
+        try {
+            thread.join(10000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getCommittedTransactions() {
+        return committedTransactions.get();
+    }
+
+    public long getCompletedWrites() {
+        return completedWrites.get();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    /**
+     * 获取单个事务包含的最多写入数量
+     * @return 最大批量
+     */
+    public int getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    private void run() {
+        List<Task<?>> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                continue;
+            }
+            queue.drainTo(batch, maxBatchSize - 1);
+
+            boolean stop = batch.remove(Task.POISON);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
+            batch.clear();
+            if (stop) {
+                // 关闭前提交的写入仍在队列中时继续处理
+                queue.drainTo(batch);
+                batch.remove(Task.POISON);
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中执行一批写入
+     */
+    private void writeBatch(List<Task<?>> batch) {
+        int size = batch.size();
+        int current;
+        while (size > (current = largestBatch.get())) {
+            if (largestBatch.compareAndSet(current, size)) {
+                break;
+            }
+        }
+
+        List<Task<?>> succeeded = new ArrayList<>(size);
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            for (Task<?> task : batch) {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    task.run(connection);
+                    connection.releaseSavepoint(savepoint);
+                    succeeded.add(task);
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback(savepoint);
+                    connection.releaseSavepoint(savepoint);
+                    failedWrites.incrementAndGet();
+                    task.future.completeExceptionally(e);
+                }
+            }
+            connection.commit();
+            committedTransactions.incrementAndGet();
+            for (Task<?> task : succeeded) {
+                completedWrites.incrementAndGet();
+                task.complete();
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackError) {
+                    com.leeinx.xibackpack.util.LogManager.warning("回滚SQLite写事务失败: %s", rollbackError.getMessage());
+                }
+            }
+            for (Task<?> task : batch) {
+                if (!task.future.isDone()) {
+                    failedWrites.incrementAndGet();
+                    task.future.completeExceptionally(e);
+                }
+            }
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.setAutoCommit(true);
+                    connection.close();
+                } catch (SQLException e) {
+                    com.leeinx.xibackpack.util.LogManager.warning("关闭数据库连接时出错: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        private static final Task<Void> POISON = new Task<>(connection -> null);
+
+        private final SqlWork<T> work;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+
+        private Task(SqlWork<T> work) {
+            this.work = work;
+        }
+
+        private void run(Connection connection) throws SQLException {
+            result = work.run(connection);
+        }
+
+        private void complete() {
+            future.complete(result);
+        }
+    }
+}
@@ -8,20 +8,30 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import com.leeinx.xibackpack.holder.TeamBackpackManagementHolder;
 import com.leeinx.xibackpack.main.XiBackpack;
+import com.leeinx.xibackpack.backpack.BackpackMemoryEstimator;
 import com.leeinx.xibackpack.backpack.TeamBackpack;
 import com.leeinx.xibackpack.holder.LoadingHolder;
+import com.leeinx.xibackpack.util.LogManager;
+import com.leeinx.xibackpack.util.TraceCategory;
 import org.bukkit.scheduler.BukkitRunnable;
 
 import java.util.*;
 import java.util.logging.Level;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TeamBackpackManager extends BaseBackpackManager {
-    private Map<String, TeamBackpack> loadedBackpacks;
+    private final BackpackCache<String, TeamBackpack> loadedBackpacks;
+    // 合并同一团队背包并发的加载（多个成员同时打开时只查询一次数据库）
+    private final SingleFlight<String, TeamBackpack> loads = new SingleFlight<>();
     private Map<UUID, String> playerCurrentBackpack; // 记录玩家当前查看的团队背包ID
     // 记录正在查看特定团队背包的所有玩家
     private Map<String, Set<UUID>> backpackViewers;
     private Map<UUID, Integer> teamCountCache = new HashMap<>();
+    // 登录时预加载的团队背包ID列表，首次打开管理界面时使用
+    private final Map<UUID, Set<String>> preloadedTeamIds = new java.util.concurrent.ConcurrentHashMap<>();
+    // 因背包内容未变化而跳过的保存次数
+    private final AtomicLong skippedSaves = new AtomicLong();
 
     /**
      * 构造函数，初始化团队背包管理器
@@ -30,11 +40,60 @@ public class TeamBackpackManager extends BaseBackpackManager {
      */
     public TeamBackpackManager(XiBackpack plugin) {
         super(plugin);
-        this.loadedBackpacks = new HashMap<>();
+        // 异步加载完成时会在数据库线程上写入缓存
+        this.loadedBackpacks = new BackpackCache<>(BackpackMemoryEstimator::estimate, TeamBackpack::getVersion);
+        configureCache(loadedBackpacks);
         this.playerCurrentBackpack = new HashMap<>();
         this.backpackViewers = new HashMap<>();
     }
 
+    /**
+     * 重新读取背包缓存的上限配置
+     */
+    public void reloadCacheSettings() {
+        configureCache(loadedBackpacks);
+    }
+
+    /**
+     * 淘汰空闲或超出缓存上限的团队背包，需要在主线程上调用
+     * 有玩家正在查看的背包不会被淘汰，有未保存修改的背包先提交保存，下一次清理时再移除
+     * @return 本次移除的背包数量
+     */
+    public int evictIdleBackpacks() {
+        final DatabaseManager databaseManager = plugin.getDatabaseManager();
+        return loadedBackpacks.sweep(new BackpackCache.EvictionHandler<String, TeamBackpack>() {
+            @Override
+            public boolean isPinned(String key, TeamBackpack value) {
+                Set<UUID> viewers = backpackViewers.get(key);
+                return viewers != null && !viewers.isEmpty();
+            }
+
+            @Override
+            public boolean isDirty(TeamBackpack value) {
+                return value.isDirty();
+            }
+
+            @Override
+            public void writeBack(String key, TeamBackpack value) {
+                saveBackpack(value);
+            }
+
+            @Override
+            public boolean hasPendingWrite(String key) {
+                WriteBehindQueue queue = databaseManager.getWriteBehindQueue();
+                return queue != null && queue.peekTeam(key) != null;
+            }
+        });
+    }
+
+    /**
+     * 获取团队背包缓存，用于统计
+     * @return 背包缓存
+     */
+    public BackpackCache<String, TeamBackpack> getCache() {
+        return loadedBackpacks;
+    }
+
     /**
      * 更新团队背包数量
      * @param playerUUID
@@ -58,6 +117,33 @@ public class TeamBackpackManager extends BaseBackpackManager {
     public int getCachedTeamCount(UUID playerUUID) {
         return teamCountCache.getOrDefault(playerUUID, 0);
     }
+
+    /**
+     * 预加载玩家的团队背包：查询玩家拥有或参与的团队背包ID，并把这些背包加载到缓存中
+     * 在登录的异步阶段调用，首次打开管理界面和团队背包时即可直接命中缓存
+     * @param playerUUID 玩家UUID
+     * @return 全部团队背包加载完成时完成的CompletableFuture
+     */
+    public CompletableFuture<Void> preloadPlayerTeamsAsync(UUID playerUUID) {
+        return plugin.getDatabaseManager().getPlayerTeamBackpackIdsAsync(playerUUID)
+            .thenCompose(ids -> {
+                preloadedTeamIds.put(playerUUID, ids);
+                CompletableFuture<?>[] pending = new CompletableFuture<?>[ids.size()];
+                int i = 0;
+                for (String id : ids) {
+                    pending[i++] = loadAndCacheBackpackAsync(id);
+                }
+                return CompletableFuture.allOf(pending);
+            });
+    }
+
+    /**
+     * 清除玩家预加载但尚未使用的团队背包ID列表
+     * @param playerUUID 玩家UUID
+     */
+    public void clearPreloadedTeams(UUID playerUUID) {
+        preloadedTeamIds.remove(playerUUID);
+    }
     /**
      * 添加成员到团队背包
      *
@@ -162,27 +248,57 @@ public class TeamBackpackManager extends BaseBackpackManager {
         }
     }
 
+    /**
+     * 获取已加载到缓存中的团队背包，不会访问数据库
+     * @param backpackId 背包ID
+     * @return 团队背包实例，未加载时返回null
+     */
+    public TeamBackpack getIfLoaded(String backpackId) {
+        return backpackId != null ? loadedBackpacks.get(backpackId) : null;
+    }
+
     /**
      * 获取团队背包
+     * 主线程上的界面操作应使用 {@link #getIfLoaded(String)} 或 {@link #loadAndCacheBackpackAsync(String)}
      *
      * @param backpackId 背包ID
      * @return 团队背包实例
+     * @throws DatabaseUnavailableException 数据库暂时不可用时抛出
      */
     public TeamBackpack getBackpack(String backpackId) {
         if (backpackId == null || backpackId.isEmpty()) {
             throw new IllegalArgumentException("Backpack ID cannot be null or empty");
         }
 
-        if (!loadedBackpacks.containsKey(backpackId)) {
-            // 从数据库加载背包数据
-            TeamBackpack backpack = loadBackpackFromDatabase(backpackId);
-            if (backpack != null) {
-                loadedBackpacks.put(backpackId, backpack);
-            }
+        TeamBackpack backpack = loadedBackpacks.get(backpackId);
+        if (backpack != null) {
             return backpack;
         }
 
-        return loadedBackpacks.get(backpackId);
+        // 已有进行中的异步加载时等待其结果，避免重复查询；主线程上不等待（异步加载可能在重试中），直接同步加载
+        CompletableFuture<TeamBackpack> pending = Bukkit.isPrimaryThread() ? null : loads.getInFlight(backpackId);
+        if (pending != null) {
+            warnIfBlockingLoad("团队背包 " + backpackId);
+            try {
+                backpack = pending.join();
+                if (backpack != null) {
+                    return backpack;
+                }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "等待团队背包异步加载时出错: " + backpackId, e);
+            }
+        }
+
+        // 从数据库加载背包数据；并发加载时以先放入缓存的实例为准
+        warnIfBlockingLoad("团队背包 " + backpackId);
+        backpack = loadBackpackFromDatabase(backpackId);
+        if (backpack != null) {
+            TeamBackpack existing = loadedBackpacks.putIfAbsent(backpackId, backpack);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return backpack;
     }
 
     /**
@@ -214,9 +330,10 @@ public class TeamBackpackManager extends BaseBackpackManager {
      *
      * @param backpackId 背包ID
      * @return 团队背包实例
+     * @throws DatabaseUnavailableException 数据库暂时不可用时抛出，不会当作背包不存在
      */
     private TeamBackpack loadBackpackFromDatabase(String backpackId) {
-        return plugin.getDatabaseManager().loadTeamBackpack(backpackId);
+        return plugin.getDatabaseManager().loadTeamBackpackOrThrow(backpackId);
     }
     
     /**
@@ -229,6 +346,36 @@ public class TeamBackpackManager extends BaseBackpackManager {
         return plugin.getDatabaseManager().loadTeamBackpackAsync(backpackId);
     }
 
+    /**
+     * 异步加载团队背包并放入缓存
+     * 同一背包并发的加载请求共享同一次数据库查询，所有调用方得到同一个背包实例
+     * @param backpackId 背包ID
+     * @return 团队背包实例的CompletableFuture，背包不存在时结果为null
+     */
+    public CompletableFuture<TeamBackpack> loadAndCacheBackpackAsync(String backpackId) {
+        TeamBackpack cached = loadedBackpacks.get(backpackId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return loads.load(backpackId, id -> loadBackpackFromDatabaseAsync(id)
+            .thenApply(backpack -> {
+                if (backpack == null) {
+                    return null;
+                }
+                // 缓存中已有实例时使用已有实例，避免出现两份不同的数据
+                TeamBackpack existing = loadedBackpacks.putIfAbsent(id, backpack);
+                return existing != null ? existing : backpack;
+            }));
+    }
+
+    /**
+     * 获取因合并并发加载而省去的数据库查询次数
+     * @return 共享加载次数
+     */
+    public long getSharedLoads() {
+        return loads.getSharedLoads();
+    }
+
     /**
      * 保存背包到数据库 (异步 + 线程安全)
      * @param backpack 团队背包
@@ -237,14 +384,25 @@ public class TeamBackpackManager extends BaseBackpackManager {
     public void saveBackpack(TeamBackpack backpack) {
         if (backpack == null) return;
 
-        // 使用异步数据库操作方法保存背包
-        plugin.getDatabaseManager().saveTeamBackpackAsync(backpack)
+        // 背包内容自上次保存以来没有变化，跳过序列化和数据库写入
+        if (!backpack.isDirty()) {
+            skippedSaves.incrementAndGet();
+            return;
+        }
+
+        // 主线程生成快照，交给写回队列合并后异步写入
+        long version = backpack.getVersion();
+        TeamBackpackRecord record = TeamBackpackRecord.of(backpack);
+        backpack.markSaved(version);
+        plugin.getDatabaseManager().queueTeamBackpackSave(record)
             .thenAcceptAsync(success -> {
                 // 在主线程上执行日志操作
                 Bukkit.getScheduler().runTask(plugin, () -> {
                     if (success) {
-                        plugin.getLogger().info("团队背包 " + backpack.getId() + " 已异步保存。");
+                        LogManager.trace(TraceCategory.DATABASE, () -> "团队背包 " + backpack.getId() + " 已异步保存。");
                     } else {
+                        // 保存失败，重新标记为脏数据以便下次重试
+                        backpack.markDirty();
                         plugin.getLogger().warning("团队背包 " + backpack.getId() + " 保存失败。");
                     }
                 });
@@ -280,20 +438,14 @@ public class TeamBackpackManager extends BaseBackpackManager {
         UUID playerUUID = player.getUniqueId();
 
         // 1. 检查缓存
-        if (loadedBackpacks.containsKey(backpackId)) {
-            TeamBackpack backpack = loadedBackpacks.get(backpackId);
-            if (backpack != null) {
-                // 已加载，检查权限后直接打开
-                if (!backpack.isMember(playerUUID) && !player.hasPermission("xibackpack.admin")) {
-                    player.sendMessage(plugin.getMessage("team-backpack.no_permission", "§c您没有权限访问此团队背包"));
-                    return;
-                }
-                openTeamBackpackGuiInternal(player, backpack, page);
-            } else {
-                // 缓存中是null，可能加载失败过，强制重新加载
-                plugin.getLogger().warning("团队背包 " + backpackId + " 缓存为null，尝试重新异步加载。");
-                startAsyncTeamBackpackLoad(player, backpackId, page);
+        TeamBackpack cached = loadedBackpacks.get(backpackId);
+        if (cached != null) {
+            // 已加载，检查权限后直接打开
+            if (!cached.isMember(playerUUID) && !player.hasPermission("xibackpack.admin")) {
+                player.sendMessage(plugin.getMessage("team-backpack.no_permission", "§c您没有权限访问此团队背包"));
+                return;
             }
+            openTeamBackpackGuiInternal(player, cached, page);
             return;
         }
 
@@ -307,8 +459,8 @@ public class TeamBackpackManager extends BaseBackpackManager {
         super.openLoadingGui(player); // 先显示加载动画
         player.sendMessage(plugin.getMessage("team-backpack.loading_message", "§d正在加载团队仓库，请稍候..."));
 
-        // 使用异步加载方法加载数据
-        loadBackpackFromDatabaseAsync(backpackId)
+        // 使用异步加载方法加载数据（与其他成员同时发起的加载共享结果）
+        loadAndCacheBackpackAsync(backpackId)
             .thenAcceptAsync(backpack -> {
                 if (!player.isOnline()) return;
 
@@ -321,7 +473,6 @@ public class TeamBackpackManager extends BaseBackpackManager {
                     }
 
                     if (backpack != null) {
-                        loadedBackpacks.put(backpackId, backpack);
                         // 再次检查权限，因为加载过程中权限可能变化
                         if (!backpack.isMember(player.getUniqueId()) && !player.hasPermission("xibackpack.admin")) {
                             player.sendMessage(plugin.getMessage("team-backpack.no_permission", "§c您没有权限访问此团队背包"));
@@ -336,10 +487,16 @@ public class TeamBackpackManager extends BaseBackpackManager {
                 });
             })
             .exceptionally(ex -> {
-                plugin.getLogger().log(Level.SEVERE, "异步加载团队背包失败", ex);
+                boolean busy = DatabaseExecutor.isBusy(ex);
+                if (!busy) {
+                    plugin.getLogger().log(Level.SEVERE, "异步加载团队背包失败", ex);
+                }
                 if (player.isOnline()) {
                     Bukkit.getScheduler().runTask(plugin, () -> {
-                        player.sendMessage(plugin.getMessage("team-backpack.load_failed", "§c团队背包不存在或加载失败。"));
+                        // 数据库繁忙时快速失败，提示玩家稍后再试
+                        player.sendMessage(busy
+                            ? plugin.getMessage("team-backpack.busy", "§e数据库繁忙，请稍后再试。")
+                            : plugin.getMessage("team-backpack.load_failed", "§c团队背包不存在或加载失败。"));
                         player.closeInventory();
                     });
                 }
@@ -368,11 +525,9 @@ public class TeamBackpackManager extends BaseBackpackManager {
             int startSlot = page * 45;
             int endSlot = Math.min(startSlot + 45, backpack.getSize());
 
-            for (int i = startSlot; i < endSlot; i++) {
-                ItemStack item = backpack.getItem(i);
-                if (item != null) {
-                    inventory.setItem(i - startSlot, item);
-                }
+            // 只访问当前页中有物品的槽位
+            for (int i = backpack.nextOccupiedSlot(startSlot); i >= 0 && i < endSlot; i = backpack.nextOccupiedSlot(i + 1)) {
+                inventory.setItem(i - startSlot, backpack.getItem(i));
             }
 
             // 使用基类方法添加屏障方块
@@ -430,7 +585,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
             String backpackId = holder.getBackpackId();
             int currentPage = holder.getPage();
 
-            TeamBackpack backpack = getBackpack(backpackId);
+            TeamBackpack backpack = getIfLoaded(backpackId);
             if (backpack == null) {
                 plugin.getLogger().warning("处理团队背包控制按钮时找不到背包: " + backpackId);
                 return false;
@@ -439,7 +594,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
             // 计算总页数（基于实际背包大小）
             int totalPages = (int) Math.ceil((double) backpackSize / 45);
 
-            plugin.getLogger().info("处理团队背包控制按钮，当前页面: " + currentPage + "，总页面: " + totalPages + "，点击槽位: " + slot + "，背包ID: " + backpackId);
+            LogManager.trace(TraceCategory.INVENTORY, () -> "处理团队背包控制按钮，当前页面: " + currentPage + "，总页面: " + totalPages + "，点击槽位: " + slot + "，背包ID: " + backpackId);
 
             // 检查是否点击了控制按钮
             if (slot == 45) { // 上一页
@@ -499,7 +654,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
             String backpackId = holder.getBackpackId();
             int page = holder.getPage();
 
-            TeamBackpack backpack = getBackpack(backpackId);
+            TeamBackpack backpack = getIfLoaded(backpackId);
             if (backpack == null) {
                 plugin.getLogger().warning("无法找到团队背包: " + backpackId);
                 return;
@@ -527,7 +682,8 @@ public class TeamBackpackManager extends BaseBackpackManager {
             // 确保不会超出实际背包大小
             endSlot = Math.min(endSlot, backpack.getSize());
 
-            plugin.getLogger().info("更新团队背包 " + backpackId + "，页面 " + page + "，槽位范围 " + startSlot + "-" + endSlot);
+            final int traceEndSlot = endSlot;
+            LogManager.trace(TraceCategory.INVENTORY, () -> "更新团队背包 " + backpackId + "，页面 " + page + "，槽位范围 " + startSlot + "-" + traceEndSlot);
 
             // 更新背包中的物品，确保使用正确的槽位计算
             for (int i = 0; i < 45 && (i + startSlot) < backpack.getSize(); i++) {
@@ -535,17 +691,21 @@ public class TeamBackpackManager extends BaseBackpackManager {
                 int actualSlot = i + startSlot;
                 // 只更新有效的槽位（非屏障方块槽位）
                 if (item != null && item.getType() != Material.BARRIER) {
-                    plugin.getLogger().info("设置物品到槽位 " + actualSlot + ": " + (item.getType() != null ? item.getType().name() : "null"));
+                    if (LogManager.isTraceEnabled(TraceCategory.INVENTORY)) {
+                        LogManager.trace(TraceCategory.INVENTORY, () -> "设置物品到槽位 " + actualSlot + ": " + item.getType().name());
+                    }
                     backpack.setItem(actualSlot, item);
                 } else if (item == null || item.getType().isAir()) {
-                    plugin.getLogger().info("清空槽位 " + actualSlot);
+                    if (LogManager.isTraceEnabled(TraceCategory.INVENTORY)) {
+                        LogManager.trace(TraceCategory.INVENTORY, () -> "清空槽位 " + actualSlot);
+                    }
                     backpack.setItem(actualSlot, null);
                 }
             }
 
             // 保存到数据库
             saveBackpack(backpack);
-            plugin.getLogger().info("团队背包 " + backpackId + " 已保存到数据库");
+            LogManager.trace(TraceCategory.DATABASE, () -> "团队背包 " + backpackId + " 已提交保存");
 
             // 同步更新给其他正在查看此背包的玩家
             syncBackpackToViewers(backpackId, inventory, page);
@@ -561,7 +721,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
      * @param page 当前页面
      */
     private void syncBackpackToViewers(String backpackId, Inventory sourceInventory, int page) {
-        TeamBackpack backpack = getBackpack(backpackId);
+        TeamBackpack backpack = getIfLoaded(backpackId);
         if (backpack == null) return;
 
         Set<UUID> viewers = backpackViewers.get(backpackId);
@@ -570,6 +730,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
         // 计算页面范围
         int startSlot = page * 45;
         int endSlot = Math.min(startSlot + 45, backpack.getSize());
+        LogManager.trace(TraceCategory.SYNC, () -> "同步团队背包 " + backpackId + " 第 " + page + " 页给 " + viewers.size() + " 个查看者");
 
         // 为每个查看者更新界面
         Iterator<UUID> iterator = viewers.iterator();
@@ -623,7 +784,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
      * @param backpackId 背包ID
      */
     public void syncBackpackToViewersOnClick(String backpackId) {
-        TeamBackpack backpack = getBackpack(backpackId);
+        TeamBackpack backpack = getIfLoaded(backpackId);
         if (backpack == null) return;
         
         Set<UUID> viewers = backpackViewers.get(backpackId);
@@ -731,7 +892,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
             }
             
             // 当玩家关闭背包时，保存背包数据
-            TeamBackpack backpack = getBackpack(backpackId);
+            TeamBackpack backpack = getIfLoaded(backpackId);
             if (backpack != null) {
                 saveBackpack(backpack);
             }
@@ -805,12 +966,20 @@ public class TeamBackpackManager extends BaseBackpackManager {
 
     /**
      * 加载玩家的团队背包并在GUI中显示
+     * 登录时已预加载的ID列表直接在主线程上使用，否则异步查询
      * @param player 玩家
      * @param inventory GUI界面
      */
     private void loadPlayerTeamBackpacks(Player player, Inventory inventory) {
         if (player == null || inventory == null) return;
 
+        // 预加载的ID列表只使用一次，之后的打开重新查询以反映成员变化
+        Set<String> preloaded = preloadedTeamIds.remove(player.getUniqueId());
+        if (preloaded != null) {
+            renderPlayerTeamBackpacks(player, inventory, preloaded);
+            return;
+        }
+
         new org.bukkit.scheduler.BukkitRunnable() {
             @Override
             public void run() {
@@ -829,45 +998,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
                     new org.bukkit.scheduler.BukkitRunnable() {
                         @Override
                         public void run() {
-                            if (!player.isOnline()) return;
-
-                            int slotIndex = 10;
-                            // 修正：在主线程调用 getBackpack，保证 HashMap 安全
-                            for (String id : allIds) {
-                                if (slotIndex >= 44) break;
-                                if (slotIndex % 9 == 8 || slotIndex % 9 == 0) {
-                                    slotIndex++;
-                                    if (slotIndex >= 44) break;
-                                }
-
-                                TeamBackpack backpack = getBackpack(id);
-                                if (backpack == null) continue; // 如果加载失败则跳过
-
-                                ItemStack backpackItem = new ItemStack(Material.CHEST);
-                                ItemMeta backpackMeta = backpackItem.getItemMeta();
-                                if (backpackMeta != null) {
-                                    // ... 这里保留你原本的 ItemMeta 设置逻辑 ...
-                                    String bId = backpack.getId();
-                                    backpackMeta.setDisplayName((ownedBackpacks.contains(bId) ? "§b§o" : "§7") + backpack.getName());
-
-                                    List<String> lore = new ArrayList<>();
-                                    lore.add("§7ID: " + bId);
-                                    lore.add("§7所有者: " + Bukkit.getOfflinePlayer(backpack.getOwner()).getName());
-                                    lore.add("§7成员数量: " + backpack.getMembers().size());
-                                    lore.add("");
-                                    lore.add("§e左键点击打开背包");
-                                    lore.add("§e右键点击查看详情");
-
-                                    if (ownedBackpacks.contains(bId)) {
-                                        backpackMeta.addEnchant(org.bukkit.enchantments.Enchantment.DURABILITY, 1, true);
-                                        lore.add("§6你是此背包的所有者");
-                                    }
-                                    backpackMeta.setLore(lore);
-                                    backpackItem.setItemMeta(backpackMeta);
-                                }
-                                inventory.setItem(slotIndex, backpackItem);
-                                slotIndex++;
-                            }
+                            renderPlayerTeamBackpacks(player, inventory, allIds);
                         }
                     }.runTask(plugin);
 
@@ -878,6 +1009,70 @@ public class TeamBackpackManager extends BaseBackpackManager {
         }.runTaskAsynchronously(plugin);
     }
 
+    /**
+     * 在主线程上把团队背包列表渲染到GUI中
+     * @param player 玩家
+     * @param inventory GUI界面
+     * @param allIds 需要显示的团队背包ID
+     */
+    private void renderPlayerTeamBackpacks(Player player, Inventory inventory, Set<String> allIds) {
+        if (!player.isOnline()) return;
+
+        // 未加载的背包先异步加载，全部完成后再在主线程上渲染，不在主线程上查询数据库
+        List<CompletableFuture<TeamBackpack>> backpacks = new ArrayList<>(allIds.size());
+        for (String id : allIds) {
+            backpacks.add(loadAndCacheBackpackAsync(id).exceptionally(ex -> null));
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(backpacks.toArray(new CompletableFuture[0]));
+        if (all.isDone()) {
+            drawPlayerTeamBackpacks(player, inventory, backpacks);
+        } else {
+            all.thenRun(() -> Bukkit.getScheduler().runTask(plugin, () -> drawPlayerTeamBackpacks(player, inventory, backpacks)));
+        }
+    }
+
+    private void drawPlayerTeamBackpacks(Player player, Inventory inventory, List<CompletableFuture<TeamBackpack>> backpacks) {
+        if (!player.isOnline()) return;
+
+        int slotIndex = 10;
+        for (CompletableFuture<TeamBackpack> loaded : backpacks) {
+            if (slotIndex >= 44) break;
+            if (slotIndex % 9 == 8 || slotIndex % 9 == 0) {
+                slotIndex++;
+                if (slotIndex >= 44) break;
+            }
+
+            TeamBackpack backpack = loaded.getNow(null);
+            if (backpack == null) continue; // 如果加载失败则跳过
+
+            ItemStack backpackItem = new ItemStack(Material.CHEST);
+            ItemMeta backpackMeta = backpackItem.getItemMeta();
+            if (backpackMeta != null) {
+                // ... 这里保留你原本的 ItemMeta 设置逻辑 ...
+                String bId = backpack.getId();
+                boolean owned = backpack.isOwner(player.getUniqueId());
+                backpackMeta.setDisplayName((owned ? "§b§o" : "§7") + backpack.getName());
+
+                List<String> lore = new ArrayList<>();
+                lore.add("§7ID: " + bId);
+                lore.add("§7所有者: " + Bukkit.getOfflinePlayer(backpack.getOwner()).getName());
+                lore.add("§7成员数量: " + backpack.getMembers().size());
+                lore.add("");
+                lore.add("§e左键点击打开背包");
+                lore.add("§e右键点击查看详情");
+
+                if (owned) {
+                    backpackMeta.addEnchant(org.bukkit.enchantments.Enchantment.DURABILITY, 1, true);
+                    lore.add("§6你是此背包的所有者");
+                }
+                backpackMeta.setLore(lore);
+                backpackItem.setItemMeta(backpackMeta);
+            }
+            inventory.setItem(slotIndex, backpackItem);
+            slotIndex++;
+        }
+    }
+
     /**
      * 处理管理界面中的点击事件
      * @param player 玩家
@@ -925,7 +1120,7 @@ public class TeamBackpackManager extends BaseBackpackManager {
                                         return true;
                                     } else if (clickType == org.bukkit.event.inventory.ClickType.RIGHT) {
                                         // 右键点击查看详细信息（可以在此处添加更多功能）
-                                        TeamBackpack backpack = getBackpack(backpackId);
+                                        TeamBackpack backpack = getIfLoaded(backpackId);
                                         if (backpack != null) {
                                             player.sendMessage("§b===== 团队背包详情 =====");
                                             player.sendMessage("§f名称: " + backpack.getName());
@@ -959,30 +1154,40 @@ public class TeamBackpackManager extends BaseBackpackManager {
         }
 
         plugin.getLogger().info("关服保存: 正在同步保存所有团队背包数据...");
-        int count = 0;
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        List<TeamBackpackRecord> records = new ArrayList<>();
 
         for (TeamBackpack backpack : loadedBackpacks.values()) {
+            if (!backpack.isDirty()) {
+                skippedSaves.incrementAndGet();
+                continue;
+            }
             try {
                 // 1. 获取数据快照
-                String id = backpack.getId();
-                String name = backpack.getName();
-                UUID owner = backpack.getOwner();
-                String serializedData = backpack.serialize();
-                Set<UUID> membersSnapshot = new HashSet<>(backpack.getMembers());
-
-                // 2. 直接同步调用数据库保存 (不使用 runTaskAsynchronously)
-                plugin.getDatabaseManager().saveTeamBackpackData(
-                        id,
-                        name,
-                        owner,
-                        serializedData,
-                        membersSnapshot
-                );
-                count++;
+                long version = backpack.getVersion();
+                records.add(TeamBackpackRecord.of(backpack));
+                backpack.markSaved(version);
             } catch (Exception e) {
                 plugin.getLogger().log(Level.SEVERE, "关服保存: 团队背包 " + backpack.getId() + " 时出错", e);
             }
         }
+
+        // 2. 启用写回队列时合并到队列后统一写入，否则直接在一个事务内批量写入
+        int count = 0;
+        if (databaseManager.getWriteBehindQueue() != null) {
+            List<CompletableFuture<Boolean>> saves = new ArrayList<>(records.size());
+            for (TeamBackpackRecord record : records) {
+                saves.add(databaseManager.queueTeamBackpackSave(record));
+            }
+            databaseManager.flushPendingSaves();
+            for (CompletableFuture<Boolean> save : saves) {
+                if (save.isDone() && !save.isCompletedExceptionally() && Boolean.TRUE.equals(save.join())) {
+                    count++;
+                }
+            }
+        } else if (databaseManager.saveTeamBackpacksBatch(records)) {
+            count = records.size();
+        }
         plugin.getLogger().info("关服保存: 已同步保存 " + count + " 个团队背包数据");
     }
     /**
@@ -1041,6 +1246,14 @@ public class TeamBackpackManager extends BaseBackpackManager {
     }
 
     // 在 TeamBackpackManager 类文件的最末尾添加
+    /**
+     * 获取因背包内容未变化而跳过的保存次数
+     * @return 跳过的保存次数
+     */
+    public long getSkippedSaves() {
+        return skippedSaves.get();
+    }
+
     public static class TeamBackpackPageHolder implements org.bukkit.inventory.InventoryHolder {
         private final String backpackId;
         private final int page;
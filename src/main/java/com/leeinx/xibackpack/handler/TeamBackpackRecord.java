@@ -0,0 +1,84 @@
+package com.leeinx.xibackpack.handler;
+
+import com.leeinx.xibackpack.backpack.TeamBackpack;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 团队背包的持久化快照
+ * 在主线程上从TeamBackpack生成，之后可以安全地交给异步线程写入数据库
+ */
+public final class TeamBackpackRecord {
+    private final String id;
+    private final String name;
+    private final UUID owner;
+    private final String data;
+    private final Set<UUID> members;
+
+    /**
+     * 构造函数
+     * @param id 背包ID
+     * @param name 背包名称
+     * @param owner 所有者UUID
+     * @param data 已序列化的背包数据
+     * @param members 成员列表
+     */
+    public TeamBackpackRecord(String id, String name, UUID owner, String data, Set<UUID> members) {
+        this.id = id;
+        this.name = name;
+        this.owner = owner;
+        this.data = data;
+        this.members = Collections.unmodifiableSet(new HashSet<>(members != null ? members : Collections.<UUID>emptySet()));
+    }
+
+    /**
+     * 从团队背包生成快照（需要在主线程调用）
+     * @param backpack 团队背包
+     * @return 团队背包快照
+     */
+    public static TeamBackpackRecord of(TeamBackpack backpack) {
+        return new TeamBackpackRecord(
+                backpack.getId(),
+                backpack.getName(),
+                backpack.getOwner(),
+                backpack.serialize(),
+                backpack.getMembers()
+        );
+    }
+
+    /**
+     * 使用快照数据重建团队背包实例
+     * @return 团队背包实例
+     */
+    public TeamBackpack toBackpack() {
+        TeamBackpack backpack = TeamBackpack.deserialize(data, id, name, owner);
+        for (UUID member : members) {
+            backpack.addMember(member);
+        }
+        backpack.markSaved(backpack.getVersion());
+        return backpack;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public Set<UUID> getMembers() {
+        return members;
+    }
+}
@@ -0,0 +1,343 @@
+package com.leeinx.xibackpack.handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 背包保存的写回队列
+ * 每个玩家UUID / 团队背包ID只保留最新的一份待写入数据，
+ * 在定时、待写入数量达到阈值、玩家退出或插件关闭时批量写入数据库
+ */
+public class WriteBehindQueue {
+    private final DatabaseManager databaseManager;
+    private final long flushIntervalMillis;
+    private final int maxPending;
+
+    private final Map<UUID, PendingWrite<String>> pendingPlayers = new ConcurrentHashMap<>();
+    private final Map<String, PendingWrite<TeamBackpackRecord>> pendingTeams = new ConcurrentHashMap<>();
+
+    private final AtomicLong enqueuedWrites = new AtomicLong();
+    private final AtomicLong collapsedWrites = new AtomicLong();
+    private final AtomicLong flushedWrites = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 构造函数
+     * @param databaseManager 数据库管理器
+     * @param flushIntervalMillis 定时刷新间隔（毫秒）
+     * @param maxPending 触发立即刷新的待写入数量阈值
+     */
+    public WriteBehindQueue(DatabaseManager databaseManager, long flushIntervalMillis, int maxPending) {
+        this.databaseManager = databaseManager;
+        this.flushIntervalMillis = Math.max(100L, flushIntervalMillis);
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    /**
+     * 启动定时刷新线程
+     */
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "XiBackpack-WriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flushAll();
+            } catch (Exception e) {
+                com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("定时刷新写回队列", e);
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 将玩家背包数据放入写回队列，同一玩家未写入的旧数据会被覆盖
+     * @param playerUUID 玩家UUID
+     * @param backpackData 已序列化的背包数据
+     * @return 数据（或覆盖它的更新数据）写入数据库后完成的CompletableFuture
+     */
+    public CompletableFuture<Boolean> enqueuePlayer(UUID playerUUID, String backpackData) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        pendingPlayers.compute(playerUUID, (key, existing) -> merge(existing, backpackData, future));
+        afterEnqueue();
+        return future;
+    }
+
+    /**
+     * 将团队背包快照放入写回队列，同一背包未写入的旧快照会被覆盖
+     * @param record 团队背包快照
+     * @return 数据（或覆盖它的更新数据）写入数据库后完成的CompletableFuture
+     */
+    public CompletableFuture<Boolean> enqueueTeam(TeamBackpackRecord record) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        pendingTeams.compute(record.getId(), (key, existing) -> merge(existing, record, future));
+        afterEnqueue();
+        return future;
+    }
+
+    /**
+     * 获取玩家尚未写入数据库的背包数据
+     * @param playerUUID 玩家UUID
+     * @return 待写入的背包数据，没有则返回null
+     */
+    public String peekPlayer(UUID playerUUID) {
+        PendingWrite<String> pending = pendingPlayers.get(playerUUID);
+        return pending != null ? pending.payload : null;
+    }
+
+    /**
+     * 获取团队背包尚未写入数据库的快照
+     * @param backpackId 背包ID
+     * @return 待写入的团队背包快照，没有则返回null
+     */
+    public TeamBackpackRecord peekTeam(String backpackId) {
+        PendingWrite<TeamBackpackRecord> pending = pendingTeams.get(backpackId);
+        return pending != null ? pending.payload : null;
+    }
+
+    /**
+     * 指定键没有待写入数据时执行写入，执行期间刷新不会同时写入数据库（重放保存日志时使用）
+     * @param key 玩家UUID或团队背包ID
+     * @param write 写入操作
+     * @param <T> 结果类型
+     * @return 写入结果，该键仍有待写入数据时返回null
+     */
+    public synchronized <T> T writeIfIdle(Object key, java.util.function.Supplier<T> write) {
+        boolean queued = key instanceof UUID ? pendingPlayers.containsKey(key) : pendingTeams.containsKey(key);
+        return queued ? null : write.get();
+    }
+
+    /**
+     * 在刷新线程上尽快写入指定玩家的待写入数据（玩家退出时调用）
+     * @param playerUUID 玩家UUID
+     */
+    public void flushPlayerAsync(UUID playerUUID) {
+        if (scheduler == null || scheduler.isShutdown() || !pendingPlayers.containsKey(playerUUID)) {
+            return;
+        }
+        scheduler.execute(() -> flushPlayer(playerUUID));
+    }
+
+    /**
+     * 同步写入指定玩家的待写入数据
+     * @param playerUUID 玩家UUID
+     */
+    public synchronized void flushPlayer(UUID playerUUID) {
+        PendingWrite<String> pending = pendingPlayers.get(playerUUID);
+        if (pending != null) {
+            writePlayer(playerUUID, pending);
+        }
+    }
+
+    /**
+     * 同步写入所有待写入数据，玩家背包和团队背包各使用一次批量事务
+     * 批量事务失败且数据库仍然可用时改为逐个键写入，只有写入失败的键留在队列中，
+     * 避免一条无法写入的数据（例如违反约束）让整批数据一直重试失败
+     * @return 本次写入的条目数量
+     */
+    public synchronized int flushAll() {
+        flushRequested.set(false);
+        int count = 0;
+
+        if (!pendingPlayers.isEmpty()) {
+            Map<UUID, PendingWrite<String>> snapshot = new HashMap<>(pendingPlayers);
+            Map<UUID, String> payloads = new HashMap<>(snapshot.size());
+            for (Map.Entry<UUID, PendingWrite<String>> entry : snapshot.entrySet()) {
+                payloads.put(entry.getKey(), entry.getValue().payload);
+            }
+            boolean success = false;
+            try {
+                success = databaseManager.writePlayerBackpacksBatch(payloads);
+            } catch (Exception e) {
+                com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("批量写回玩家背包数据", e);
+            }
+            boolean retryEach = !success && snapshot.size() > 1 && isDatabaseAvailable();
+            for (Map.Entry<UUID, PendingWrite<String>> entry : snapshot.entrySet()) {
+                boolean written = success;
+                if (retryEach) {
+                    try {
+                        written = databaseManager.writePlayerBackpacksBatch(
+                            java.util.Collections.singletonMap(entry.getKey(), entry.getValue().payload));
+                    } catch (Exception e) {
+                        com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("写回玩家背包数据", e);
+                    }
+                }
+                complete(pendingPlayers, entry.getKey(), entry.getValue(), written);
+            }
+            count += snapshot.size();
+        }
+
+        if (!pendingTeams.isEmpty()) {
+            Map<String, PendingWrite<TeamBackpackRecord>> snapshot = new HashMap<>(pendingTeams);
+            List<TeamBackpackRecord> records = new ArrayList<>(snapshot.size());
+            for (PendingWrite<TeamBackpackRecord> pending : snapshot.values()) {
+                records.add(pending.payload);
+            }
+            boolean success = false;
+            try {
+                success = databaseManager.writeTeamBackpacksBatch(records);
+            } catch (Exception e) {
+                com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("批量写回团队背包数据", e);
+            }
+            boolean retryEach = !success && snapshot.size() > 1 && isDatabaseAvailable();
+            for (Map.Entry<String, PendingWrite<TeamBackpackRecord>> entry : snapshot.entrySet()) {
+                boolean written = success;
+                if (retryEach) {
+                    try {
+                        written = databaseManager.writeTeamBackpacksBatch(
+                            java.util.Collections.singletonList(entry.getValue().payload));
+                    } catch (Exception e) {
+                        com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("写回团队背包数据", e);
+                    }
+                }
+                complete(pendingTeams, entry.getKey(), entry.getValue(), written);
+            }
+            count += snapshot.size();
+        }
+        return count;
+    }
+
+    /**
+     * 数据库是否可用，熔断期间逐个写入同样会失败，整批留在队列中等待恢复
+     */
+    private boolean isDatabaseAvailable() {
+        return databaseManager.getCircuitBreaker().getState() == CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * 停止定时刷新并写入所有剩余数据
+     */
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                    scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                scheduler.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        int remaining = flushAll();
+        if (remaining > 0) {
+            com.leeinx.xibackpack.util.LogManager.info("写回队列关闭前写入了 %d 条待保存数据", remaining);
+        }
+    }
+
+    /**
+     * 获取当前待写入的条目数量
+     * @return 待写入数量
+     */
+    public int getPendingCount() {
+        return pendingPlayers.size() + pendingTeams.size();
+    }
+
+    public long getEnqueuedWrites() {
+        return enqueuedWrites.get();
+    }
+
+    /**
+     * 获取被合并（未实际写入数据库）的保存次数
+     * @return 合并次数
+     */
+    public long getCollapsedWrites() {
+        return collapsedWrites.get();
+    }
+
+    public long getFlushedWrites() {
+        return flushedWrites.get();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    private <T> PendingWrite<T> merge(PendingWrite<T> existing, T payload, CompletableFuture<Boolean> future) {
+        enqueuedWrites.incrementAndGet();
+        if (existing == null) {
+            return new PendingWrite<>(payload, future);
+        }
+        collapsedWrites.incrementAndGet();
+        return existing.supersede(payload, future);
+    }
+
+    private void afterEnqueue() {
+        if (getPendingCount() >= maxPending && scheduler != null && !scheduler.isShutdown()
+                && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushAll);
+        }
+    }
+
+    private void writePlayer(UUID playerUUID, PendingWrite<String> pending) {
+        boolean success = false;
+        try {
+            success = databaseManager.savePlayerBackpack(playerUUID, pending.payload);
+        } catch (Exception e) {
+            com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("写回玩家背包数据", e);
+        }
+        complete(pendingPlayers, playerUUID, pending, success);
+    }
+
+    /**
+     * 写入完成后处理队列状态
+     * 写入失败时保留数据等待下一次刷新；写入期间如果有更新的数据进入队列，则保留新条目
+     */
+    private <K, T> void complete(Map<K, PendingWrite<T>> pendingMap, K key, PendingWrite<T> pending, boolean success) {
+        if (!success) {
+            failedWrites.incrementAndGet();
+            if (pendingMap.replace(key, pending, new PendingWrite<>(pending.payload, new ArrayList<>()))) {
+                for (CompletableFuture<Boolean> waiter : pending.waiters) {
+                    waiter.complete(false);
+                }
+            }
+            return;
+        }
+        flushedWrites.incrementAndGet();
+        if (pendingMap.remove(key, pending)) {
+            for (CompletableFuture<Boolean> waiter : pending.waiters) {
+                waiter.complete(true);
+            }
+        }
+    }
+
+    /**
+     * 单个键上的待写入数据，以及等待它写入完成的调用方
+     */
+    private static final class PendingWrite<T> {
+        private final T payload;
+        private final List<CompletableFuture<Boolean>> waiters;
+
+        private PendingWrite(T payload, CompletableFuture<Boolean> waiter) {
+            this.payload = payload;
+            this.waiters = new ArrayList<>(1);
+            this.waiters.add(waiter);
+        }
+
+        private PendingWrite(T payload, List<CompletableFuture<Boolean>> waiters) {
+            this.payload = payload;
+            this.waiters = waiters;
+        }
+
+        private PendingWrite<T> supersede(T newPayload, CompletableFuture<Boolean> waiter) {
+            List<CompletableFuture<Boolean>> merged = new ArrayList<>(waiters.size() + 1);
+            merged.addAll(waiters);
+            merged.add(waiter);
+            return new PendingWrite<>(newPayload, merged);
+        }
+    }
+}
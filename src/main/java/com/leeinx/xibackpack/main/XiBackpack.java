@@ -11,6 +11,8 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Listener;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
@@ -27,7 +29,11 @@ import java.util.Objects;
 import java.util.logging.Level;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import com.leeinx.xibackpack.command.CommandHandler;
 import com.leeinx.xibackpack.command.CommandCompleter;
 import com.leeinx.xibackpack.handler.DatabaseManager;
@@ -184,6 +190,9 @@ public final class XiBackpack extends JavaPlugin implements Listener {
         // 获取语言设置
         language = com.leeinx.xibackpack.util.ConfigManager.getString("language");
 
+        // 设置物品编码缓存大小
+        com.leeinx.xibackpack.NBTUtil.setCacheSize(com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.nbt-cache-size", 4096));
+
         if(!loadDependencies()){
             setEnabled(false);
             return;
@@ -216,6 +225,17 @@ public final class XiBackpack extends JavaPlugin implements Listener {
             return;
         }
         
+        // 定期淘汰空闲或超出上限的背包缓存
+        long sweepTicks = Math.max(1L, com.leeinx.xibackpack.util.ConfigManager.getLong("backpack.cache.sweep-interval", 60L)) * 20L;
+        Bukkit.getScheduler().runTaskTimer(this, () -> {
+            try {
+                backpackManager.evictIdleBackpacks();
+                teamBackpackManager.evictIdleBackpacks();
+            } catch (Exception e) {
+                getLogger().log(Level.WARNING, "清理背包缓存时出错", e);
+            }
+        }, sweepTicks, sweepTicks);
+        
         // 初始化指令处理器
         try {
             commandHandler = new CommandHandler(this);
@@ -331,8 +351,13 @@ public final class XiBackpack extends JavaPlugin implements Listener {
         // 玩家退出时保存背包数据
         try {
             Player player = event.getPlayer();
-            PlayerBackpack backpack = backpackManager.getBackpack(player);
-            backpackManager.saveBackpack(backpack);
+            // 只保存已加载的背包，从未加载过的背包没有需要保存的修改
+            PlayerBackpack backpack = backpackManager.getIfLoaded(player.getUniqueId());
+            if (backpack != null) {
+                backpackManager.saveBackpack(backpack);
+            }
+            // 玩家退出时不等待定时刷新，尽快写入该玩家的待保存数据
+            databaseManager.flushPendingPlayerSave(player.getUniqueId());
             
             // 执行自动备份
             if (autoBackupManager != null) {
@@ -345,11 +370,41 @@ public final class XiBackpack extends JavaPlugin implements Listener {
             // 移除创建团队背包状态
             playerCreatingTeamBackpack.remove(player.getUniqueId());
             
+            // 移除未使用的预加载团队背包列表
+            teamBackpackManager.clearPreloadedTeams(player.getUniqueId());
+            
             com.leeinx.xibackpack.util.LogManager.info("玩家 %s 的背包数据已保存", player.getName());
         } catch (Exception e) {
             com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("保存玩家背包数据", e);
         }
     }
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        // 登录的异步阶段预加载个人背包和团队背包，首次打开时直接命中缓存
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED
+                || backpackManager == null || teamBackpackManager == null
+                || !com.leeinx.xibackpack.util.ConfigManager.getBoolean("backpack.preload.enabled", true)) {
+            return;
+        }
+        
+        UUID playerUUID = event.getUniqueId();
+        long timeout = com.leeinx.xibackpack.util.ConfigManager.getLong("backpack.preload.timeout", 3000L);
+        CompletableFuture<Void> preload = CompletableFuture.allOf(
+            backpackManager.getOrLoadAsync(playerUUID),
+            teamBackpackManager.preloadPlayerTeamsAsync(playerUUID)
+        );
+        try {
+            preload.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 超时不影响登录，加载会在后台继续完成并写入缓存
+            com.leeinx.xibackpack.util.LogManager.warning("预加载玩家 %s 的背包超时 (%dms)，将在后台继续加载", event.getName(), timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("预加载玩家背包", e.getCause());
+        }
+    }
+    
     @EventHandler
     public void onPlayerJoin(org.bukkit.event.player.PlayerJoinEvent event) {
         // 玩家进服时，异步拉取一下他的团队背包数量
@@ -408,10 +463,10 @@ public final class XiBackpack extends JavaPlugin implements Listener {
                 if (teamBackpackManager != null && teamBackpackManager.isTeamBackpackInventory(event.getInventory())) {
                     teamBackpackManager.updateBackpackFromInventory(player, event.getInventory());
                     teamBackpackManager.onPlayerCloseBackpack(player); // 通知团队背包管理器玩家已关闭背包
-                    com.leeinx.xibackpack.util.LogManager.info("玩家 %s 的团队背包已更新", player.getName());
+                    com.leeinx.xibackpack.util.LogManager.trace(com.leeinx.xibackpack.util.TraceCategory.INVENTORY, () -> "玩家 " + player.getName() + " 的团队背包已更新");
                 } else if (backpackManager.isCloudBackpackInventory(event.getInventory())) {
                     backpackManager.updateBackpackFromInventory(player, event.getInventory());
-                    com.leeinx.xibackpack.util.LogManager.info("玩家 %s 的个人背包已更新", player.getName());
+                    com.leeinx.xibackpack.util.LogManager.trace(com.leeinx.xibackpack.util.TraceCategory.INVENTORY, () -> "玩家 " + player.getName() + " 的个人背包已更新");
                 }
             } catch (Exception e) {
                 com.leeinx.xibackpack.util.ExceptionHandler.handleAsyncException("更新背包数据", e);
@@ -436,7 +491,12 @@ public final class XiBackpack extends JavaPlugin implements Listener {
                 // 检查是否是我们的背包界面
                 if (backpackManager.isCloudBackpackInventory(inventory)) {
                     int slot = event.getRawSlot();
-                    PlayerBackpack backpack = backpackManager.getBackpack(player); // 这里会从缓存获取，不会阻塞
+                    PlayerBackpack backpack = backpackManager.getIfLoaded(player.getUniqueId());
+                    if (backpack == null) {
+                        // 背包界面打开期间背包一定已加载，找不到时不允许任何操作
+                        event.setCancelled(true);
+                        return;
+                    }
 
                     // 检查是否点击了控制按钮区域（45-53槽位）
                     if (slot >= 45 && slot <= 53) {
@@ -485,7 +545,7 @@ public final class XiBackpack extends JavaPlugin implements Listener {
                         String backpackId = holder.getBackpackId();
                         int currentPage = holder.getPage();
 
-                        TeamBackpack backpack = teamBackpackManager.getBackpack(backpackId); // 这里会从缓存获取，不会阻塞
+                        TeamBackpack backpack = teamBackpackManager.getIfLoaded(backpackId); // 只从缓存获取，不会阻塞
                         if (backpack == null) {
                             event.setCancelled(true);
                             return;
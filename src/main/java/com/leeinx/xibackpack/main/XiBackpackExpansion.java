@@ -42,8 +42,13 @@ public class XiBackpackExpansion extends PlaceholderExpansion {
 
         //%xibackpack_player_size% 玩家背包大小
         if(params.equalsIgnoreCase("player_size")){
-            PlayerBackpack backpack = plugin.getBackpackManager().getBackpack(player.getPlayer());
-            return backpack!=null?String.valueOf(backpack.getSize()): "0";
+            // 占位符可能每tick都会被请求，只读取缓存；未加载时触发异步加载，下次请求即可得到结果
+            PlayerBackpack backpack = plugin.getBackpackManager().getIfLoaded(player.getUniqueId());
+            if (backpack == null) {
+                plugin.getBackpackManager().getOrLoadAsync(player.getUniqueId());
+                return "0";
+            }
+            return String.valueOf(backpack.getSize());
         }
 
         //%xibackpack_team_count% 有多少个团队背包
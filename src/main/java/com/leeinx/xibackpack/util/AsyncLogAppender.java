@@ -0,0 +1,452 @@
+package com.leeinx.xibackpack.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 异步文件日志输出器
+ * 调用线程只把日志记录放入有界无锁环形缓冲区，由单独的后台线程批量写入按大小轮转的日志文件
+ * 写入失败时丢弃当前批次并计数，关闭文件后在下一批重新打开，写入线程不会因为IO错误退出
+ */
+public class AsyncLogAppender {
+
+    /**
+     * 缓冲区满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 缓冲区使用超过四分之三后丢弃低于INFO级别的记录，为重要日志保留空间；缓冲区满时丢弃新记录
+         */
+        DROP_DEBUG_FIRST,
+        /**
+         * 缓冲区满时丢弃新记录
+         */
+        DROP_NEWEST
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long RETRY_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long ERROR_REPORT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Path logPath;
+    private final long maxFileSize;
+    private final int rotationCount;
+    private final OverflowPolicy overflowPolicy;
+    private final Logger errorLogger;
+
+    // 环形缓冲区（多生产者单消费者），每个槽位的序号用于判断槽位是否可写/可读
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<LogRecord> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+    private final AtomicLong writeErrors = new AtomicLong();
+
+    // 以下字段只由写入线程访问
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder line = new StringBuilder(256);
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private long cachedSecond = -1;
+    private String cachedSecondText;
+    private FileChannel channel;
+    private long fileSize;
+    private boolean failing;
+    private long lastErrorReport;
+    private int suppressedErrors;
+
+    private volatile boolean running;
+    private volatile boolean writerParked;
+    private Thread writerThread;
+
+    /**
+     * 构造函数
+     * @param logPath 日志文件路径
+     * @param maxFileSize 单个日志文件最大字节数，超过后轮转
+     * @param rotationCount 保留的日志文件数量
+     * @param bufferSize 环形缓冲区大小（会向上取整为2的幂）
+     * @param overflowPolicy 缓冲区满时的处理策略
+     * @param errorLogger 报告写入错误的日志器（不能写回本输出器），为null时输出到标准错误
+     */
+    public AsyncLogAppender(Path logPath, long maxFileSize, int rotationCount, int bufferSize, OverflowPolicy overflowPolicy,
+                            Logger errorLogger) {
+        this.logPath = logPath;
+        this.errorLogger = errorLogger;
+        this.maxFileSize = Math.max(1024L, maxFileSize);
+        this.rotationCount = Math.max(1, rotationCount);
+        this.overflowPolicy = overflowPolicy;
+
+        int size = Integer.highestOneBit(Math.max(64, bufferSize) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 打开日志文件并启动后台写入线程
+     * @throws IOException 打开日志文件失败时抛出
+     */
+    public void start() throws IOException {
+        Files.createDirectories(logPath.getParent());
+        openChannel();
+        running = true;
+        writerThread = new Thread(this::runWriter, "XiBackpack-LogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 提交一条日志记录，不会阻塞调用线程
+     * @param level 日志级别
+     * @param message 日志消息
+     * @return 是否成功放入缓冲区
+     */
+    public boolean append(Level level, String message) {
+        if (overflowPolicy == OverflowPolicy.DROP_DEBUG_FIRST
+                && level.intValue() < Level.INFO.intValue()
+                && getQueueDepth() >= capacity - (capacity >> 2)) {
+            droppedRecords.incrementAndGet();
+            return false;
+        }
+
+        LogRecord record = new LogRecord(System.currentTimeMillis(), level, Thread.currentThread().getName(), message);
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.set(index, record);
+                    sequences.lazySet(index, position + 1);
+                    // 积压较多时提前唤醒写入线程，避免突发日志在空闲等待期间填满缓冲区
+                    if (writerParked && position - head >= (capacity >> 3)) {
+                        writerParked = false;
+                        LockSupport.unpark(writerThread);
+                    }
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // 缓冲区已满
+                droppedRecords.incrementAndGet();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 停止后台线程，写入缓冲区中剩余的记录并关闭文件
+     */
+    public void close() {
+        running = false;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 获取当前缓冲区中等待写入的记录数
+     * @return 队列深度
+     */
+    public int getQueueDepth() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    public long getWrittenRecords() {
+        return writtenRecords.get();
+    }
+
+    /**
+     * 获取因写入文件失败而丢失的记录数
+     * @return 丢失数量
+     */
+    public long getFailedRecords() {
+        return failedRecords.get();
+    }
+
+    /**
+     * 获取写入文件失败的次数
+     * @return 失败次数
+     */
+    public long getWriteErrors() {
+        return writeErrors.get();
+    }
+
+    private LogRecord poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        LogRecord record = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.lazySet(index, position + capacity);
+        head = position + 1;
+        return record;
+    }
+
+    private void runWriter() {
+        try {
+            while (running || getQueueDepth() > 0) {
+                if (channel == null && !reopen()) {
+                    if (!running) {
+                        // 关闭时文件仍无法打开，剩余记录只能丢弃
+                        discardPending();
+                        break;
+                    }
+                    LockSupport.parkNanos(this, RETRY_PARK_NANOS);
+                    continue;
+                }
+
+                int polled = 0;
+                try {
+                    LogRecord record;
+                    while (polled < BATCH_SIZE && (record = poll()) != null) {
+                        polled++;
+                        write(record);
+                    }
+                    if (polled > 0) {
+                        flush();
+                        writtenRecords.addAndGet(polled);
+                        recovered();
+                    }
+                } catch (IOException e) {
+                    onWriteError(e, polled);
+                    continue;
+                }
+                if (polled == 0 && running) {
+                    writerParked = true;
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    writerParked = false;
+                }
+            }
+        } finally {
+            // 每批结束时都已写出或丢弃写缓冲区，这里只需关闭文件
+            closeChannel();
+        }
+    }
+
+    /**
+     * 写入失败：丢弃本批次尚未写出的数据并关闭文件，下一批重新打开
+     * @param e 异常
+     * @param lost 本批次已取出的记录数
+     */
+    private void onWriteError(IOException e, int lost) {
+        writeErrors.incrementAndGet();
+        failedRecords.addAndGet(lost);
+        writeBuffer.clear();
+        closeChannel();
+        failing = true;
+        report("异步日志写入失败，本批 " + lost + " 条记录已丢弃，将重新打开日志文件", e);
+    }
+
+    private boolean reopen() {
+        try {
+            openChannel();
+            return true;
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+            failing = true;
+            report("无法打开日志文件 " + logPath, e);
+            return false;
+        }
+    }
+
+    private void recovered() {
+        if (failing) {
+            failing = false;
+            lastErrorReport = 0;
+            suppressedErrors = 0;
+            log(Level.INFO, "异步日志已恢复写入，累计丢失 " + failedRecords.get() + " 条记录", null);
+        }
+    }
+
+    private void discardPending() {
+        while (poll() != null) {
+            failedRecords.incrementAndGet();
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * 报告写入错误，连续失败时每分钟最多报告一次
+     */
+    private void report(String message, IOException e) {
+        long now = System.currentTimeMillis();
+        if (now - lastErrorReport < ERROR_REPORT_INTERVAL_MILLIS) {
+            suppressedErrors++;
+            return;
+        }
+        lastErrorReport = now;
+        if (suppressedErrors > 0) {
+            message += "（此前 " + suppressedErrors + " 次错误未报告）";
+            suppressedErrors = 0;
+        }
+        log(Level.WARNING, message, e);
+    }
+
+    private void log(Level level, String message, IOException e) {
+        if (errorLogger != null) {
+            errorLogger.log(level, "[AsyncLog] " + message, e);
+        } else {
+            System.err.println("[XiBackpack] " + message + (e != null ? ": " + e.getMessage() : ""));
+        }
+    }
+
+    private void write(LogRecord record) throws IOException {
+        if (fileSize + writeBuffer.position() >= maxFileSize) {
+            flush();
+            rotate();
+        }
+
+        // 日期部分每秒只格式化一次，毫秒单独补齐
+        long second = record.timestamp / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedSecondText = dateFormat.format(new Date(second * 1000));
+        }
+        int millis = (int) (record.timestamp % 1000);
+        line.setLength(0);
+        line.append(cachedSecondText).append('.')
+            .append((char) ('0' + millis / 100))
+            .append((char) ('0' + millis / 10 % 10))
+            .append((char) ('0' + millis % 10))
+            .append(" [").append(record.level.getName()).append("] ")
+            .append(record.threadName).append(' ')
+            .append(record.message).append(LINE_SEPARATOR);
+
+        // 直接编码到写缓冲区，缓冲区满时先写入文件
+        CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, writeBuffer, true);
+            if (result.isOverflow()) {
+                flush();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (channel == null || writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            fileSize += channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * 轮转日志文件：xxx.log -> xxx.log.1 -> xxx.log.2 ...，超出保留数量的最旧文件被删除
+     */
+    private void rotate() throws IOException {
+        closeChannel();
+        try {
+            if (rotationCount > 1) {
+                Files.deleteIfExists(rotatedPath(rotationCount - 1));
+                for (int i = rotationCount - 2; i >= 1; i--) {
+                    Path source = rotatedPath(i);
+                    if (Files.exists(source)) {
+                        Files.move(source, rotatedPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(logPath, rotatedPath(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(logPath);
+            }
+        } catch (IOException e) {
+            // 轮转失败时继续写入当前文件，再写入maxFileSize字节后重试，避免每条记录都尝试轮转
+            report("日志文件轮转失败，继续写入当前文件", e);
+            openChannel();
+            fileSize = 0;
+            return;
+        }
+        openChannel();
+    }
+
+    private Path rotatedPath(int index) {
+        return Paths.get(logPath.toString() + "." + index);
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    /**
+     * 一条待写入的日志记录
+     */
+    private static final class LogRecord {
+        private final long timestamp;
+        private final Level level;
+        private final String threadName;
+        private final String message;
+
+        private LogRecord(long timestamp, Level level, String threadName, String message) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.threadName = threadName;
+            this.message = message;
+        }
+    }
+}
@@ -1,20 +1,30 @@
 package com.leeinx.xibackpack.util;
 
 import com.leeinx.xibackpack.main.XiBackpack;
+import com.leeinx.xibackpack.backpack.BackpackSnapshot;
 import com.leeinx.xibackpack.backpack.PlayerBackpack;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.scheduler.BukkitTask;
 
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
-import java.util.logging.Level;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 自动备份管理器
  * 负责处理背包的自动备份功能，包括定时备份和触发式备份
+ *
+ * 定时备份不在每个间隔集中执行：每个玩家按UUID哈希得到间隔内固定的偏移刻，
+ * 到期的玩家进入等待队列，每刻最多备份 max-per-tick 个，背包版本号没有变化的玩家直接跳过。
+ * 背包快照在主线程上获取，序列化和数据库写入在异步线程上执行。
  */
 public class AutoBackupManager {
     private XiBackpack plugin;
@@ -24,7 +34,10 @@ public class AutoBackupManager {
     private boolean notify;
     private boolean onQuitTrigger;
     private boolean onSaveTrigger;
-    private ConcurrentMap<UUID, Long> lastBackupTime; // 记录每个玩家的最后备份时间
+    private int maxPerTick;
+    private ConcurrentMap<UUID, BackupMark> lastBackups; // 记录每个玩家最后一次备份的背包版本
+    // 已获取快照、尚未写入完成的定时备份数量
+    private final AtomicInteger inFlight = new AtomicInteger();
 
     /**
      * 构造函数，初始化自动备份管理器
@@ -32,7 +45,7 @@ public class AutoBackupManager {
      */
     public AutoBackupManager(XiBackpack plugin) {
         this.plugin = plugin;
-        this.lastBackupTime = new ConcurrentHashMap<>();
+        this.lastBackups = new ConcurrentHashMap<>();
         loadConfig();
         initializeTasks();
     }
@@ -46,6 +59,7 @@ public class AutoBackupManager {
         this.notify = ConfigManager.getBoolean("backpack.backup.auto-backup.notify", true);
         this.onQuitTrigger = ConfigManager.getBoolean("backpack.backup.auto-backup.triggers.on-quit", true);
         this.onSaveTrigger = ConfigManager.getBoolean("backpack.backup.auto-backup.triggers.on-save", false);
+        this.maxPerTick = Math.max(1, ConfigManager.getInt("backpack.backup.auto-backup.max-per-tick", 2));
     }
 
     /**
@@ -65,86 +79,122 @@ public class AutoBackupManager {
             autoBackupTask.cancel();
         }
 
-        autoBackupTask = new BukkitRunnable() {
-            @Override
-            public void run() {
-                performAutoBackup();
-            }
-        }.runTaskTimerAsynchronously(plugin, 0, interval * 20L); // 转换为ticks
+        autoBackupTask = new AutoBackupTask(interval * 20L, maxPerTick).runTaskTimer(plugin, 1L, 1L);
 
-        LogManager.info("自动备份任务已启动，间隔: " + interval + "秒");
+        LogManager.info("自动备份任务已启动，间隔: " + interval + "秒，每刻最多备份 " + maxPerTick + " 个玩家");
     }
 
     /**
-     * 执行自动备份
+     * 执行一个玩家的定时备份，需要在主线程上调用
+     * @param player 玩家
+     * @param cycleBackedUp 备份成功时递增的计数
      */
-    private void performAutoBackup() {
-        LogManager.info("开始执行自动备份...");
-        int backedUpCount = 0;
+    private void performAutoBackup(Player player, AtomicInteger cycleBackedUp) {
+        inFlight.incrementAndGet();
+        createBackupForPlayer(player).whenComplete((success, ex) -> {
+            inFlight.decrementAndGet();
+            if (success != null && success) {
+                cycleBackedUp.incrementAndGet();
 
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            try {
-                UUID playerUUID = player.getUniqueId();
-                long currentTime = System.currentTimeMillis();
-                long lastBackup = lastBackupTime.getOrDefault(playerUUID, 0L);
-
-                // 检查是否需要备份（避免过于频繁的备份）
-                if (currentTime - lastBackup > interval * 1000L) {
-                    if (createBackupForPlayer(player)) {
-                        lastBackupTime.put(playerUUID, currentTime);
-                        backedUpCount++;
-
-                        // 发送备份完成通知
-                        if (notify) {
+                // 发送备份完成通知
+                if (notify) {
+                    Bukkit.getScheduler().runTask(plugin, () -> {
+                        if (player.isOnline()) {
                             player.sendMessage("§a您的背包已自动备份完成");
                         }
-                    }
+                    });
                 }
-            } catch (Exception e) {
-                LogManager.severe("自动备份玩家 " + player.getName() + " 的背包时出错", e);
             }
-        }
+        });
+    }
 
-        LogManager.info("自动备份完成，已备份 " + backedUpCount + " 个玩家背包");
+    /**
+     * 计算玩家在备份间隔内的偏移刻
+     * @param playerUUID 玩家UUID
+     * @param intervalTicks 备份间隔（刻）
+     * @return 偏移刻，范围 [0, intervalTicks)
+     */
+    public static long getBackupOffset(UUID playerUUID, long intervalTicks) {
+        long hash = (playerUUID.getMostSignificantBits() ^ playerUUID.getLeastSignificantBits()) * 0x9E3779B97F4A7C15L;
+        return Math.floorMod(hash ^ (hash >>> 32), intervalTicks);
+    }
+
+    /**
+     * 检查玩家背包自上次备份后是否有修改
+     * 背包未加载时内存中没有修改，不需要备份；上次备份的是另一个背包实例（重新加载过）时视为有修改
+     * @param playerUUID 玩家UUID
+     * @return 有修改时返回true
+     */
+    private boolean hasChangedSinceLastBackup(UUID playerUUID) {
+        PlayerBackpack backpack = plugin.getBackpackManager().getIfLoaded(playerUUID);
+        if (backpack == null) {
+            return false;
+        }
+        BackupMark mark = lastBackups.get(playerUUID);
+        return mark == null || mark.backpack.get() != backpack || mark.version != backpack.getVersion();
     }
 
     /**
      * 为指定玩家创建备份
+     * 在主线程上获取背包快照，序列化和数据库写入在异步线程上执行；从其他线程调用时先切换到主线程。
+     * 只备份已加载的背包：未加载的背包与数据库一致，不为了备份而加载（加载后不会被及时卸载）
      * @param player 玩家
-     * @return 是否备份成功
-     */
-    public boolean createBackupForPlayer(Player player) {
-        try {
-            PlayerBackpack backpack = plugin.getBackpackManager().getBackpack(player);
-            if (backpack == null) {
-                LogManager.warning("无法为玩家 " + player.getName() + " 创建备份，背包未加载");
-                return false;
-            }
+     * @return 是否备份成功的CompletableFuture
+     */
+    public CompletableFuture<Boolean> createBackupForPlayer(Player player) {
+        UUID playerUUID = player.getUniqueId();
+        String playerName = player.getName();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
 
-            // 生成备份ID
-            String backupId = "auto_backup_" + System.currentTimeMillis() + "_" + player.getUniqueId().toString().substring(0, 8);
+        if (!Bukkit.isPrimaryThread()) {
+            // 在线玩家列表和背包内容只能在主线程上读取
+            Bukkit.getScheduler().runTask(plugin, () -> createBackupForPlayer(player).whenComplete((success, ex) ->
+                result.complete(ex == null && success != null && success)));
+            return result;
+        }
 
-            // 序列化背包数据
-            String backpackData = backpack.serialize();
+        PlayerBackpack cached = plugin.getBackpackManager().getIfLoaded(playerUUID);
+        if (cached == null) {
+            result.complete(false);
+            return result;
+        }
+        backupSnapshot(playerName, cached, result);
+        return result;
+    }
 
-            // 保存到数据库
-            boolean success = plugin.getDatabaseManager().savePlayerBackpackBackup(
-                    player.getUniqueId(),
-                    backupId,
-                    backpackData
-            );
+    /**
+     * 在主线程上获取背包快照，然后在异步线程上序列化并保存备份
+     * @param playerName 玩家名称
+     * @param backpack 背包
+     * @param result 备份结果
+     */
+    private void backupSnapshot(String playerName, PlayerBackpack backpack, CompletableFuture<Boolean> result) {
+        BackpackSnapshot snapshot = backpack.snapshot();
+        UUID playerUUID = snapshot.getPlayerUUID();
 
-            if (success) {
-                LogManager.info("成功为玩家 " + player.getName() + " 创建自动备份: " + backupId);
-            } else {
-                LogManager.warning("为玩家 " + player.getName() + " 创建自动备份失败");
-            }
+        // 生成备份ID
+        String backupId = "auto_backup_" + System.currentTimeMillis() + "_" + playerUUID.toString().substring(0, 8);
 
-            return success;
-        } catch (Exception e) {
-            LogManager.severe("为玩家 " + player.getName() + " 创建备份时出错", e);
-            return false;
-        }
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                // 序列化背包数据
+                String backpackData = snapshot.serialize();
+
+                // 保存到数据库
+                boolean success = plugin.getDatabaseManager().savePlayerBackpackBackup(playerUUID, backupId, backpackData);
+
+                if (success) {
+                    lastBackups.put(playerUUID, new BackupMark(backpack, snapshot.getVersion()));
+                    LogManager.info("成功为玩家 " + playerName + " 创建自动备份: " + backupId);
+                } else {
+                    LogManager.warning("为玩家 " + playerName + " 创建自动备份失败");
+                }
+                result.complete(success);
+            } catch (Exception e) {
+                LogManager.severe("为玩家 " + playerName + " 创建备份时出错", e);
+                result.complete(false);
+            }
+        });
     }
 
     /**
@@ -152,14 +202,11 @@ public class AutoBackupManager {
      * @param player 玩家
      */
     public void handlePlayerQuit(Player player) {
-        if (enabled && onQuitTrigger) {
-            // 异步执行备份操作，避免阻塞主线程和连接竞争
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    createBackupForPlayer(player);
-                }
-            }.runTaskAsynchronously(plugin);
+        if (enabled && onQuitTrigger && plugin.getBackpackManager().getIfLoaded(player.getUniqueId()) != null) {
+            // 在退出事件中获取快照，序列化和数据库写入在异步线程上执行；背包未加载时没有需要备份的修改
+            createBackupForPlayer(player).whenComplete((success, ex) -> lastBackups.remove(player.getUniqueId()));
+        } else {
+            lastBackups.remove(player.getUniqueId());
         }
     }
 
@@ -221,4 +268,86 @@ public class AutoBackupManager {
     public boolean isNotify() {
         return notify;
     }
+
+    /**
+     * 获取每刻最多备份的玩家数量
+     * @return 玩家数量
+     */
+    public int getMaxPerTick() {
+        return maxPerTick;
+    }
+
+    /**
+     * 定时备份任务，每刻在主线程上执行一次：到期判断、变化检查和获取快照都在主线程上完成，
+     * 不能改为异步定时任务
+     * 重新加载配置时创建新的任务，旧任务的状态随之丢弃
+     */
+    private final class AutoBackupTask extends BukkitRunnable {
+        private final long intervalTicks;
+        private final int maxPerTick;
+        // 任务已运行的刻数
+        private long ticks;
+        // 已到期等待备份的玩家
+        private final Set<UUID> pending = new LinkedHashSet<>();
+        private final AtomicInteger cycleBackedUp = new AtomicInteger();
+        private int cycleSkipped;
+
+        private AutoBackupTask(long intervalTicks, int maxPerTick) {
+            this.intervalTicks = intervalTicks;
+            this.maxPerTick = maxPerTick;
+        }
+
+        /**
+         * 每刻执行一次：把偏移刻已到的玩家加入等待队列，再按预算备份队列中的玩家
+         */
+        @Override
+        public void run() {
+            long phase = ticks++ % intervalTicks;
+
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                // 偏移刻与当前刻在间隔内的位置相同时到期
+                if (getBackupOffset(player.getUniqueId(), intervalTicks) == phase) {
+                    pending.add(player.getUniqueId());
+                }
+            }
+
+            // 数据库写入跟不上时（未完成的备份超过一秒的预算）暂停获取快照，到期的玩家留在队列中
+            int budget = maxPerTick;
+            Iterator<UUID> iterator = pending.iterator();
+            while (budget > 0 && iterator.hasNext() && inFlight.get() < maxPerTick * 20) {
+                UUID playerUUID = iterator.next();
+                iterator.remove();
+                Player player = Bukkit.getPlayer(playerUUID);
+                if (player == null || !player.isOnline()) {
+                    continue;
+                }
+                if (!hasChangedSinceLastBackup(playerUUID)) {
+                    cycleSkipped++;
+                    continue;
+                }
+                budget--;
+                performAutoBackup(player, cycleBackedUp);
+            }
+
+            // 每个间隔输出一次汇总
+            if (phase == intervalTicks - 1) {
+                LogManager.info("自动备份周期完成，已备份 " + cycleBackedUp.getAndSet(0) + " 个玩家背包，" + cycleSkipped + " 个背包无变化已跳过");
+                cycleSkipped = 0;
+            }
+        }
+    }
+
+    /**
+     * 一次成功备份时的背包实例和版本号
+     */
+    private static final class BackupMark {
+        // 不阻止已卸载的背包被回收
+        private final WeakReference<PlayerBackpack> backpack;
+        private final long version;
+
+        private BackupMark(PlayerBackpack backpack, long version) {
+            this.backpack = new WeakReference<>(backpack);
+            this.version = version;
+        }
+    }
 }
@@ -5,11 +5,12 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.logging.*;
 
 /**
@@ -20,8 +21,10 @@ public class LogManager {
 
     private static XiBackpack plugin;
     private static final Map<String, Integer> logCounters = new HashMap<>();
-    private static FileHandler fileHandler;
-    private static Logger fileLogger;
+    private static volatile AsyncLogAppender fileAppender;
+    private static Level fileLogLevel = Level.FINE;
+    // 已开启的跟踪分类位掩码，热路径上只需要一次volatile读取
+    private static volatile int traceMask;
 
     /**
      * 初始化日志管理器
@@ -30,10 +33,54 @@ public class LogManager {
     public static void initialize(XiBackpack plugin) {
         LogManager.plugin = plugin;
         initializeFileLogger();
+        configureTrace(plugin.getConfig().getStringList("debug.trace"));
     }
 
     /**
-     * 初始化文件日志处理器
+     * 设置开启的跟踪分类
+     * @param categories 分类名称列表，all表示全部开启
+     */
+    public static void configureTrace(List<String> categories) {
+        int mask = 0;
+        if (categories != null) {
+            for (String name : categories) {
+                if (name == null) continue;
+                if ("all".equalsIgnoreCase(name.trim())) {
+                    mask = -1;
+                    break;
+                }
+                try {
+                    mask |= TraceCategory.valueOf(name.trim().toUpperCase()).mask;
+                } catch (IllegalArgumentException e) {
+                    warning("未知的跟踪日志分类: %s", name);
+                }
+            }
+        }
+        traceMask = mask;
+    }
+
+    /**
+     * 检查跟踪分类是否开启，供调用方在构造日志内容前判断
+     * @param category 跟踪分类
+     * @return 是否开启
+     */
+    public static boolean isTraceEnabled(TraceCategory category) {
+        return (traceMask & category.mask) != 0;
+    }
+
+    /**
+     * 记录跟踪日志，分类未开启时不会调用消息生成函数
+     * @param category 跟踪分类
+     * @param message 消息生成函数
+     */
+    public static void trace(TraceCategory category, Supplier<String> message) {
+        if ((traceMask & category.mask) != 0) {
+            write(Level.INFO, "[" + category.name() + "] " + message.get());
+        }
+    }
+
+    /**
+     * 初始化文件日志输出器
      */
     private static void initializeFileLogger() {
         if (plugin == null) return;
@@ -45,49 +92,78 @@ public class LogManager {
         Path logPath = Paths.get(plugin.getDataFolder().getParent(), logFile);
 
         try {
-            // 创建日志目录
-            Files.createDirectories(logPath.getParent());
-
-            // 配置文件处理器
-            fileHandler = new FileHandler(logPath.toString(), 
-                plugin.getConfig().getInt("debug.max-log-size", 10485760), 
-                plugin.getConfig().getInt("debug.log-rotation", 5), 
-                true);
-
-            // 配置日志格式化器
-            SimpleFormatter formatter = new SimpleFormatter() {
-                @Override
-                public String format(LogRecord record) {
-                    return String.format("%1$tY-%1$tm-%1$td %1$tH:%1$tM:%1$tS.%1$tL [%2$s] %3$s %4$s%n",
-                        System.currentTimeMillis(),
-                        record.getLevel().getName(),
-                        Thread.currentThread().getName(),
-                        record.getMessage());
-                }
-            };
-            fileHandler.setFormatter(formatter);
+            fileLogLevel = Level.parse(plugin.getConfig().getString("debug.log-level", "FINE"));
 
-            // 创建文件日志记录器
-            fileLogger = Logger.getLogger("XiBackpackFileLogger");
-            fileLogger.setLevel(Level.parse(plugin.getConfig().getString("debug.log-level", "FINE")));
-            fileLogger.addHandler(fileHandler);
-            fileLogger.setUseParentHandlers(false);
+            AsyncLogAppender.OverflowPolicy overflowPolicy = AsyncLogAppender.OverflowPolicy.DROP_DEBUG_FIRST;
+            String policyName = plugin.getConfig().getString("debug.overflow-policy", "drop-debug-first");
+            try {
+                overflowPolicy = AsyncLogAppender.OverflowPolicy.valueOf(policyName.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("未知的日志溢出策略: " + policyName + "，使用 drop-debug-first");
+            }
+
+            // 日志由后台线程批量写入文件，调用线程只负责入队
+            fileAppender = new AsyncLogAppender(logPath,
+                plugin.getConfig().getInt("debug.max-log-size", 10485760),
+                plugin.getConfig().getInt("debug.log-rotation", 5),
+                plugin.getConfig().getInt("debug.buffer-size", 8192),
+                overflowPolicy,
+                plugin.getLogger());
+            fileAppender.start();
 
             plugin.getLogger().info("文件日志已初始化: " + logPath);
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
+            fileAppender = null;
             plugin.getLogger().severe("初始化文件日志失败: " + e.getMessage());
         }
     }
 
     /**
-     * 关闭日志处理器
+     * 关闭日志输出器，写入剩余的日志
      */
     public static void shutdown() {
-        if (fileHandler != null) {
-            fileHandler.close();
+        if (fileAppender != null) {
+            fileAppender.close();
+            fileAppender = null;
         }
     }
 
+    /**
+     * 获取文件日志因缓冲区满而丢弃的记录数
+     * @return 丢弃数量
+     */
+    public static long getDroppedRecords() {
+        AsyncLogAppender appender = fileAppender;
+        return appender != null ? appender.getDroppedRecords() : 0;
+    }
+
+    /**
+     * 获取文件日志因写入失败而丢失的记录数
+     * @return 丢失数量
+     */
+    public static long getFailedRecords() {
+        AsyncLogAppender appender = fileAppender;
+        return appender != null ? appender.getFailedRecords() : 0;
+    }
+
+    /**
+     * 获取文件日志缓冲区中等待写入的记录数
+     * @return 队列深度
+     */
+    public static int getQueueDepth() {
+        AsyncLogAppender appender = fileAppender;
+        return appender != null ? appender.getQueueDepth() : 0;
+    }
+
+    /**
+     * 获取文件日志缓冲区容量
+     * @return 容量，未启用文件日志时返回0
+     */
+    public static int getQueueCapacity() {
+        AsyncLogAppender appender = fileAppender;
+        return appender != null ? appender.getCapacity() : 0;
+    }
+
     /**
      * 记录DEBUG级别的日志
      * @param message 日志消息
@@ -138,12 +214,26 @@ public class LogManager {
             return;
         }
 
-        String formattedMessage = String.format(message, params);
+        write(level, String.format(message, params));
+    }
+
+    /**
+     * 输出已格式化的日志到控制台和文件
+     * @param level 日志级别
+     * @param formattedMessage 日志消息
+     */
+    private static void write(Level level, String formattedMessage) {
+        if (plugin == null) {
+            System.out.println(formattedMessage);
+            return;
+        }
+
         plugin.getLogger().log(level, formattedMessage);
 
-        // 同时记录到文件
-        if (fileLogger != null && fileLogger.isLoggable(level)) {
-            fileLogger.log(level, formattedMessage);
+        // 同时记录到文件（异步写入）
+        AsyncLogAppender appender = fileAppender;
+        if (appender != null && level.intValue() >= fileLogLevel.intValue()) {
+            appender.append(level, formattedMessage);
         }
     }
 
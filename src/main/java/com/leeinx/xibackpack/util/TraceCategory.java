@@ -0,0 +1,26 @@
+package com.leeinx.xibackpack.util;
+
+/**
+ * 热路径跟踪日志的分类
+ * 在配置 debug.trace 中按名称开启，例如 [serialization, inventory]，或使用 all 开启全部
+ */
+public enum TraceCategory {
+    /**
+     * 背包序列化与反序列化
+     */
+    SERIALIZATION,
+    /**
+     * 背包界面的槽位更新和翻页按钮
+     */
+    INVENTORY,
+    /**
+     * 团队背包向其他查看者同步
+     */
+    SYNC,
+    /**
+     * 数据库读写
+     */
+    DATABASE;
+
+    final int mask = 1 << ordinal();
+}
@@ -138,4 +138,236 @@ public class BackpackTest extends TestBase {
         // 验证背包未升级
         assertEquals(initialSize, newSize, "经验不足时背包不应升级");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDirtyTrackingUsesItemEquality() {
+        // 测试脏标记按物品内容判断，而不是按对象引用判断
+        PlayerBackpack backpack = new PlayerBackpack(player1.getUniqueId(), 27);
+        backpack.setItem(0, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 5));
+        backpack.markSaved(backpack.getVersion());
+        assertFalse(backpack.isDirty(), "标记保存后背包不应为脏");
+
+        // 写入内容相同的新物品对象，不应产生修改
+        backpack.setItem(0, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 5));
+        backpack.setItem(1, null);
+        assertFalse(backpack.isDirty(), "内容相同的物品不应使背包变脏");
+
+        // 修改数量后应变为脏
+        backpack.setItem(0, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 6));
+        assertTrue(backpack.isDirty(), "物品数量变化后背包应为脏");
+        assertTrue(backpack.getDirtySlots().get(0), "变化的槽位应被记录");
+
+        // 清洁的背包保存时应被跳过
+        backpack.markSaved(backpack.getVersion());
+        long skipped = plugin.getBackpackManager().getSkippedSaves();
+        plugin.getBackpackManager().saveBackpack(backpack);
+        assertEquals(skipped + 1, plugin.getBackpackManager().getSkippedSaves(), "未变化的背包保存应被跳过");
+    }
+
+    @Test
+    public void testSnapshotIsIsolatedFromLaterChanges() throws Exception {
+        // 测试快照不受之后对背包的修改影响，可以在异步线程上序列化
+        PlayerBackpack backpack = new PlayerBackpack(player1.getUniqueId(), 27);
+        backpack.setItem(0, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 5));
+        backpack.setItem(3, new org.bukkit.inventory.ItemStack(org.bukkit.Material.STONE, 12));
+        String expected = backpack.serialize();
+
+        com.leeinx.xibackpack.backpack.BackpackSnapshot snapshot = backpack.snapshot();
+        assertEquals(backpack.getVersion(), snapshot.getVersion(), "快照应记录获取时的版本号");
+
+        backpack.setItem(0, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 6));
+        backpack.setItem(3, null);
+        backpack.setItem(40, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIRT, 1));
+        backpack.setSize(9);
+
+        assertEquals(27, snapshot.getSize(), "快照的背包大小不应变化");
+        assertEquals(2, snapshot.getItemCount(), "快照的物品数量不应变化");
+        assertEquals(5, snapshot.getItem(0).getAmount(), "快照中的物品不应变化");
+        String serialized = java.util.concurrent.CompletableFuture.supplyAsync(snapshot::serialize).get();
+        assertEquals(expected, serialized, "异步序列化快照应得到获取快照时的内容");
+    }
+
+    @Test
+    public void testSlotStorageResizeAndView() {
+        // 测试槽位存储的扩容、截断和只读视图
+        PlayerBackpack backpack = new PlayerBackpack(player1.getUniqueId(), 27);
+        backpack.setItem(2, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 1));
+        backpack.setItem(400, new org.bukkit.inventory.ItemStack(org.bukkit.Material.GOLD_INGOT, 2));
+        assertEquals(401, backpack.getSize(), "超出大小的槽位应扩展背包大小");
+        assertEquals(2, backpack.getItemCount(), "应有两个物品");
+        assertEquals(400, backpack.nextOccupiedSlot(3), "应跳过空槽位找到下一个物品");
+
+        java.util.Map<Integer, org.bukkit.inventory.ItemStack> view = backpack.getItems();
+        assertThrows(UnsupportedOperationException.class, () -> view.put(5, new org.bukkit.inventory.ItemStack(org.bukkit.Material.STONE)), "物品视图应为只读");
+
+        backpack.setSize(54);
+        assertNull(backpack.getItem(400), "缩小背包后超出部分的物品应被移除");
+        assertEquals(1, view.size(), "只读视图应反映最新数据");
+
+        backpack.clear();
+        assertEquals(0, backpack.getItemCount(), "清空后不应有物品");
+        assertEquals(-1, backpack.nextOccupiedSlot(0), "清空后不应有占用槽位");
+    }
+
+    @Test
+    public void testBinaryFormatRoundTripAndLegacyJson() {
+        // 测试二进制格式的序列化往返，以及旧JSON数据仍可读取
+        PlayerBackpack backpack = new PlayerBackpack(player1.getUniqueId(), 54);
+        backpack.setItem(0, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 5));
+        backpack.setItem(300, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 64));
+        backpack.setItem(7, new org.bukkit.inventory.ItemStack(org.bukkit.Material.GOLD_INGOT, 3));
+
+        String data = backpack.serialize();
+        assertTrue(com.leeinx.xibackpack.backpack.BackpackCodec.isBinary(data), "默认应使用二进制格式保存");
+
+        PlayerBackpack decoded = PlayerBackpack.deserialize(data, player1.getUniqueId());
+        assertEquals(backpack.getSize(), decoded.getSize(), "背包大小应一致");
+        assertEquals(3, decoded.getItemCount(), "物品数量应一致");
+        assertEquals(org.bukkit.Material.DIAMOND, decoded.getItem(300).getType(), "物品类型应一致");
+        assertEquals(64, decoded.getItem(300).getAmount(), "物品数量应一致");
+        assertEquals(3, decoded.getItem(7).getAmount(), "物品数量应一致");
+        assertFalse(decoded.isDirty(), "刚加载的背包不应为脏");
+
+        String legacy = "{\"size\":27,\"items\":{\"4\":{\"type\":\"DIAMOND\",\"amount\":\"2\"}}}";
+        PlayerBackpack legacyBackpack = PlayerBackpack.deserialize(legacy, player1.getUniqueId());
+        assertEquals(27, legacyBackpack.getSize(), "旧格式背包大小应正确");
+        assertEquals(2, legacyBackpack.getItem(4).getAmount(), "旧格式物品应正确加载");
+        assertTrue(com.leeinx.xibackpack.backpack.BackpackCodec.isBinary(legacyBackpack.serialize()), "旧格式数据再次保存时应使用二进制格式");
+    }
+
+    @Test
+    public void testLegacyJsonIsRewrittenInBinary() {
+        // 测试从旧JSON数据加载的背包保持为脏，下次保存时以二进制格式写回数据库
+        java.util.UUID uuid = player1.getUniqueId();
+        String legacy = "{\"size\":27,\"items\":{\"4\":{\"type\":\"DIAMOND\",\"amount\":\"2\"}}}";
+        com.leeinx.xibackpack.handler.DatabaseManager databaseManager = plugin.getDatabaseManager();
+        assertTrue(databaseManager.savePlayerBackpack(uuid, legacy), "写入旧格式数据应成功");
+
+        PlayerBackpack backpack = plugin.getBackpackManager().loadAndCacheBackpackAsync(uuid).join();
+        assertTrue(backpack.isDirty(), "旧格式数据加载后应为脏");
+        plugin.getBackpackManager().saveBackpack(backpack);
+        databaseManager.flushPendingSaves();
+
+        String stored = databaseManager.loadPlayerBackpack(uuid);
+        assertTrue(com.leeinx.xibackpack.backpack.BackpackCodec.isBinary(stored), "保存后数据库中应为二进制格式");
+        assertEquals(2, PlayerBackpack.deserialize(stored, uuid).getItem(4).getAmount(), "重写后物品应保留");
+        assertTrue(com.leeinx.xibackpack.backpack.TeamBackpack.deserialize(legacy, "team_legacy", "legacy", uuid).isDirty(),
+            "旧格式团队背包加载后也应为脏");
+    }
+
+    @Test
+    public void testConcurrentLoadsShareOneInstance() {
+        // 测试同一玩家并发加载背包时共享同一次加载，得到同一个实例
+        java.util.UUID uuid = java.util.UUID.randomUUID();
+        java.util.concurrent.CompletableFuture<PlayerBackpack> first = plugin.getBackpackManager().loadAndCacheBackpackAsync(uuid);
+        java.util.concurrent.CompletableFuture<PlayerBackpack> second = plugin.getBackpackManager().loadAndCacheBackpackAsync(uuid);
+
+        PlayerBackpack backpack = first.join();
+        assertNotNull(backpack, "加载结果不应为null");
+        assertSame(backpack, second.join(), "并发加载应得到同一个背包实例");
+        assertSame(backpack, plugin.getBackpackManager().loadAndCacheBackpackAsync(uuid).join(), "加载完成后应从缓存返回同一实例");
+    }
+
+    @Test
+    public void testNonBlockingAccessors() {
+        // 测试非阻塞接口：未加载时getIfLoaded返回null，异步加载完成后可以直接从缓存获取
+        java.util.UUID uuid = java.util.UUID.randomUUID();
+        assertNull(plugin.getBackpackManager().getIfLoaded(uuid), "未加载的背包不应出现在缓存中");
+
+        PlayerBackpack backpack = plugin.getBackpackManager().getOrLoadAsync(uuid).join();
+        assertNotNull(backpack, "异步加载结果不应为null");
+        assertSame(backpack, plugin.getBackpackManager().getIfLoaded(uuid), "异步加载完成后应能从缓存获取同一实例");
+
+        // 团队背包同样可以只从缓存获取
+        String teamId = plugin.getTeamBackpackManager().createBackpack(player1, "cached");
+        assertNotNull(plugin.getTeamBackpackManager().getIfLoaded(teamId), "创建的团队背包应在缓存中");
+        assertNull(plugin.getTeamBackpackManager().getIfLoaded("team_not_loaded"), "未加载的团队背包不应访问数据库");
+    }
+
+    @Test
+    public void testBackpackCacheEviction() {
+        // 测试缓存淘汰：超出上限时淘汰最久未使用的条目，固定的条目不淘汰，脏数据先写回再淘汰
+        com.leeinx.xibackpack.handler.BackpackCache<String, String> cache =
+            new com.leeinx.xibackpack.handler.BackpackCache<>(value -> 1L);
+        cache.configure(1, 0L, 0L);
+        java.util.Set<String> dirty = new java.util.HashSet<>(java.util.Collections.singleton("dirty"));
+        java.util.List<String> written = new java.util.ArrayList<>();
+        com.leeinx.xibackpack.handler.BackpackCache.EvictionHandler<String, String> handler =
+            new com.leeinx.xibackpack.handler.BackpackCache.EvictionHandler<String, String>() {
+                @Override
+                public boolean isPinned(String key, String value) {
+                    return key.equals("pinned");
+                }
+
+                @Override
+                public boolean isDirty(String value) {
+                    return dirty.contains(value);
+                }
+
+                @Override
+                public void writeBack(String key, String value) {
+                    written.add(key);
+                    dirty.remove(value);
+                }
+
+                @Override
+                public boolean hasPendingWrite(String key) {
+                    return false;
+                }
+            };
+
+        cache.put("pinned", "pinned");
+        cache.put("dirty", "dirty");
+        assertEquals(0, cache.sweep(handler), "脏数据应先写回，不应立即淘汰");
+        assertEquals(java.util.Collections.singletonList("dirty"), written, "淘汰前应提交保存");
+        assertEquals(1, cache.sweep(handler), "写回完成后应被淘汰");
+        assertNull(cache.get("dirty"), "被淘汰的条目不应再出现在缓存中");
+        assertEquals("pinned", cache.get("pinned"), "固定的条目不应被淘汰");
+
+        cache.putIfAbsent("dirty", "dirty");
+        assertEquals(1, cache.getReloads(), "淘汰后重新放入应计为重新加载");
+    }
+
+    @Test
+    public void testMemoryWeightedCache() {
+        // 测试按估算内存加权的缓存：总量随内容变化更新，超出上限时淘汰
+        PlayerBackpack backpack = new PlayerBackpack(java.util.UUID.randomUUID(), 27);
+        long empty = com.leeinx.xibackpack.backpack.BackpackMemoryEstimator.estimate(backpack);
+        assertTrue(empty > 0, "空背包也应有固定开销");
+
+        com.leeinx.xibackpack.handler.BackpackCache<java.util.UUID, PlayerBackpack> cache =
+            new com.leeinx.xibackpack.handler.BackpackCache<>(
+                com.leeinx.xibackpack.backpack.BackpackMemoryEstimator::estimate, PlayerBackpack::getVersion);
+        com.leeinx.xibackpack.handler.BackpackCache.EvictionHandler<java.util.UUID, PlayerBackpack> handler =
+            new com.leeinx.xibackpack.handler.BackpackCache.EvictionHandler<java.util.UUID, PlayerBackpack>() {
+                @Override
+                public boolean isPinned(java.util.UUID key, PlayerBackpack value) {
+                    return false;
+                }
+
+                @Override
+                public boolean isDirty(PlayerBackpack value) {
+                    return false;
+                }
+
+                @Override
+                public void writeBack(java.util.UUID key, PlayerBackpack value) {
+                }
+
+                @Override
+                public boolean hasPendingWrite(java.util.UUID key) {
+                    return false;
+                }
+            };
+        cache.putIfAbsent(backpack.getPlayerUUID(), backpack);
+        assertEquals(0, cache.getTotalWeight(), "放入时可能在加载线程上，不应估算内存");
+        cache.sweep(handler);
+        assertEquals(empty, cache.getTotalWeight(), "清理时应计入估算内存");
+
+        backpack.setItem(0, new org.bukkit.inventory.ItemStack(org.bukkit.Material.DIAMOND, 5));
+        cache.configure(0, empty, 0L);
+        cache.sweep(handler);
+        assertNull(cache.get(backpack.getPlayerUUID()), "内容增加后超出内存上限应被淘汰");
+        assertEquals(0, cache.getTotalWeight(), "淘汰后应从总量中扣除");
+    }
+}
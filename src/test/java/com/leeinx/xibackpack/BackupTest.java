@@ -82,6 +82,21 @@ public class BackupTest extends TestBase {
         // 注意：由于测试环境的限制，我们无法直接检查数据库中的备份数量，但可以验证命令执行没有异常
     }
 
+    @Test
+    public void testAutoBackupOffsetsAreSpread() {
+        // 测试自动备份的偏移刻均匀分布在备份间隔内，不会集中在同一时刻
+        long intervalTicks = 3600 * 20L;
+        int[] buckets = new int[10];
+        for (int i = 0; i < 1000; i++) {
+            long offset = com.leeinx.xibackpack.util.AutoBackupManager.getBackupOffset(java.util.UUID.randomUUID(), intervalTicks);
+            assertTrue(offset >= 0 && offset < intervalTicks, "偏移刻应在备份间隔内");
+            buckets[(int) (offset * buckets.length / intervalTicks)]++;
+        }
+        for (int count : buckets) {
+            assertTrue(count > 50 && count < 150, "偏移刻应均匀分布，实际区间数量: " + count);
+        }
+    }
+
     @Test
     public void testBackupPermission() {
         // 普通玩家尝试创建备份（应该失败）
@@ -177,6 +177,453 @@ public class DatabaseTest extends TestBase {
         assertEquals(5, restoredItem.getAmount(), "恢复的物品数量应该正确");
     }
 
+    @Test
+    public void testBatchSavePlayerBackpacks() {
+        // 测试批量保存多个玩家背包
+        UUID player1UUID = player1.getUniqueId();
+        UUID player2UUID = player2.getUniqueId();
+
+        PlayerBackpack backpack1 = new PlayerBackpack(player1UUID, 27);
+        backpack1.setItem(0, new ItemStack(Material.DIAMOND, 3));
+        PlayerBackpack backpack2 = new PlayerBackpack(player2UUID, 36);
+        backpack2.setItem(5, new ItemStack(Material.GOLD_INGOT, 7));
+
+        java.util.Map<UUID, String> batch = new java.util.HashMap<>();
+        batch.put(player1UUID, backpack1.serialize());
+        batch.put(player2UUID, backpack2.serialize());
+        assertTrue(plugin.getDatabaseManager().savePlayerBackpacksBatch(batch), "批量保存应该成功");
+
+        PlayerBackpack reloaded1 = PlayerBackpack.deserialize(plugin.getDatabaseManager().loadPlayerBackpack(player1UUID), player1UUID);
+        PlayerBackpack reloaded2 = PlayerBackpack.deserialize(plugin.getDatabaseManager().loadPlayerBackpack(player2UUID), player2UUID);
+        assertEquals(Material.DIAMOND, reloaded1.getItem(0).getType(), "Player1的物品应该批量保存成功");
+        assertEquals(36, reloaded2.getSize(), "Player2的背包大小应该批量保存成功");
+        assertEquals(7, reloaded2.getItem(5).getAmount(), "Player2的物品数量应该批量保存成功");
+    }
+
+    @Test
+    public void testBatchSaveCommitsOlderJournalEntries() throws Exception {
+        // 测试批量保存写入后，日志中同一玩家更早的保存不会在读取或重放时覆盖新数据
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        UUID playerUUID = player1.getUniqueId();
+        PlayerBackpack stale = new PlayerBackpack(playerUUID, 27);
+        stale.setItem(0, new ItemStack(Material.DIRT, 1));
+        databaseManager.getSaveJournal().appendPlayer(playerUUID, stale.serialize()).join();
+
+        PlayerBackpack latest = new PlayerBackpack(playerUUID, 27);
+        latest.setItem(0, new ItemStack(Material.DIAMOND, 2));
+        assertTrue(databaseManager.savePlayerBackpacksBatch(java.util.Collections.singletonMap(playerUUID, latest.serialize())), "批量保存应该成功");
+        for (int i = 0; i < 100 && databaseManager.getSaveJournal().getPending(playerUUID) != null; i++) {
+            Thread.sleep(10);
+        }
+
+        assertNull(databaseManager.getSaveJournal().getPending(playerUUID), "批量写入后日志中的旧保存应标记完成");
+        databaseManager.replayJournal(true);
+        PlayerBackpack reloaded = PlayerBackpack.deserialize(databaseManager.loadPlayerBackpack(playerUUID), playerUUID);
+        assertEquals(Material.DIAMOND, reloaded.getItem(0).getType(), "应读取到批量写入的新数据");
+    }
+
+    @Test
+    public void testPayloadCompressionRoundTrip() throws Exception {
+        // 测试压缩后的数据可以还原，未压缩的旧数据原样读取
+        com.leeinx.xibackpack.handler.PayloadCompressor compressor = new com.leeinx.xibackpack.handler.PayloadCompressor(true, 6, 0);
+        PlayerBackpack backpack = new PlayerBackpack(player1.getUniqueId(), 54);
+        for (int slot = 0; slot < 54; slot++) {
+            backpack.setItem(slot, new ItemStack(Material.DIAMOND, slot + 1));
+        }
+        String data = backpack.serialize();
+
+        String compressed = compressor.compress(data);
+        assertTrue(compressed.startsWith(com.leeinx.xibackpack.handler.PayloadCompressor.PREFIX), "数据应被压缩");
+        assertTrue(compressed.length() < data.length(), "压缩后的数据应更小");
+        assertEquals(data, compressor.decompress(compressed), "解压后应与原数据一致");
+        assertEquals(data, compressor.decompress(data), "未压缩的数据应原样返回");
+        assertTrue(compressor.getRatio() < 1.0, "压缩率应小于1");
+
+        // Deflater/Inflater放回池中复用，关闭后全部释放，之后仍可使用
+        assertTrue(compressor.getPooledCount() > 0, "用完的实例应放回池中");
+        compressor.close();
+        assertEquals(0, compressor.getPooledCount(), "关闭后池中不应保留实例");
+        assertEquals(data, compressor.decompress(compressor.compress(data)), "关闭后仍应能压缩和解压");
+        assertEquals(0, compressor.getPooledCount(), "关闭后用完的实例应立即释放");
+    }
+
+    @Test
+    public void testKeyedSavesKeepOrder() {
+        // 测试同一玩家的多次异步保存按提交顺序执行，最后提交的数据最终保留在数据库中
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        java.util.List<java.util.concurrent.CompletableFuture<Boolean>> saves = new java.util.ArrayList<>();
+        String last = null;
+        for (int amount = 1; amount <= 20; amount++) {
+            PlayerBackpack backpack = new PlayerBackpack(player1.getUniqueId(), 27);
+            backpack.setItem(0, new ItemStack(Material.DIAMOND, amount));
+            last = backpack.serialize();
+            saves.add(databaseManager.savePlayerBackpackAsync(player1.getUniqueId(), last));
+        }
+        for (java.util.concurrent.CompletableFuture<Boolean> save : saves) {
+            assertTrue(save.join(), "保存应成功");
+        }
+
+        PlayerBackpack reloaded = PlayerBackpack.deserialize(
+            databaseManager.loadPlayerBackpackAsync(player1.getUniqueId()).join(), player1.getUniqueId());
+        assertEquals(20, reloaded.getItem(0).getAmount(), "最后提交的保存应最后写入");
+        assertTrue(databaseManager.getKeyedExecutor().getMaxQueueDepth() >= 1, "应记录单键队列深度");
+    }
+
+    @Test
+    public void testSqliteWriterGroupsWrites() {
+        // 测试SQLite写入都经过单写线程，读取从只读连接读到已提交的数据
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        com.leeinx.xibackpack.handler.SqliteWriter writer = databaseManager.getSqliteWriter();
+        assertNotNull(writer, "SQLite后端应使用单写线程");
+        long writesBefore = writer.getCompletedWrites();
+
+        java.util.List<java.util.concurrent.CompletableFuture<Boolean>> saves = new java.util.ArrayList<>();
+        UUID last = null;
+        for (int i = 0; i < 50; i++) {
+            last = UUID.randomUUID();
+            saves.add(databaseManager.savePlayerBackpackAsync(last, new PlayerBackpack(last, 27).serialize()));
+        }
+        for (java.util.concurrent.CompletableFuture<Boolean> save : saves) {
+            assertTrue(save.join(), "保存应成功");
+        }
+
+        assertTrue(writer.getCompletedWrites() - writesBefore >= 50, "所有保存都应由单写线程执行");
+        assertTrue(writer.getCommittedTransactions() <= writer.getCompletedWrites(), "事务数不应超过写入数");
+        assertNotNull(databaseManager.loadPlayerBackpack(last), "应能从只读连接读取已提交的数据");
+    }
+
+    @Test
+    public void testExecutorRejectsInsteadOfCallerRuns() throws Exception {
+        // 测试线程池队列已满时任务被拒绝，而不是在调用线程上执行
+        com.leeinx.xibackpack.handler.DatabaseExecutor executor = new com.leeinx.xibackpack.handler.DatabaseExecutor(
+            1, 1, 1, java.util.concurrent.Executors.defaultThreadFactory());
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            executor.execute(() -> { });
+            Thread caller = Thread.currentThread();
+            java.util.concurrent.atomic.AtomicBoolean ranOnCaller = new java.util.concurrent.atomic.AtomicBoolean();
+            java.util.concurrent.CompletableFuture<Boolean> rejected =
+                new com.leeinx.xibackpack.handler.KeyedExecutor<String>(executor, 4)
+                    .submit("key", () -> ranOnCaller.compareAndSet(false, Thread.currentThread() == caller));
+            assertTrue(rejected.isCompletedExceptionally(), "队列已满时应拒绝任务");
+            assertFalse(ranOnCaller.get(), "被拒绝的任务不应在调用线程上执行");
+            try {
+                rejected.join();
+                fail("被拒绝的任务应以异常完成");
+            } catch (java.util.concurrent.CompletionException e) {
+                assertTrue(com.leeinx.xibackpack.handler.DatabaseExecutor.isBusy(e), "应识别为数据库繁忙");
+            }
+            assertEquals(1, executor.getRejectedTasks());
+            assertEquals(1, executor.getHighWaterMark());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaveJournalRecoversUncommittedSaves() throws Exception {
+        // 测试未标记完成的保存在重新打开日志后仍能恢复，已完成的保存不会被重放
+        java.io.File directory = new java.io.File(plugin.getDataFolder(), "journal-test");
+        com.leeinx.xibackpack.handler.SaveJournal journal = new com.leeinx.xibackpack.handler.SaveJournal(directory, 0, 0);
+        journal.open();
+        UUID committed = player1.getUniqueId();
+        UUID uncommitted = player2.getUniqueId();
+        long seq = journal.appendPlayer(committed, "committed").join();
+        journal.appendPlayer(uncommitted, "old").join();
+        journal.appendPlayer(uncommitted, "latest").join();
+        journal.commit(committed, seq);
+        journal.close();
+
+        com.leeinx.xibackpack.handler.SaveJournal reopened = new com.leeinx.xibackpack.handler.SaveJournal(directory, 0, 0);
+        reopened.open();
+        try {
+            assertNull(reopened.getPending(committed), "已写入数据库的保存不应被重放");
+            assertNotNull(reopened.getPending(uncommitted), "未完成的保存应从日志中恢复");
+            assertEquals("latest", reopened.getPending(uncommitted).getData(), "应恢复同一玩家最新的保存");
+        } finally {
+            reopened.commit(uncommitted, Long.MAX_VALUE);
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testQueuedSaveIsWrittenByImmediateFlush() throws Exception {
+        // 测试保存立即进入写回队列，不等待日志刷盘：关服和退出时的同步刷新能写入刚提交的保存
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        assertNotNull(databaseManager.getWriteBehindQueue(), "默认应启用写回队列");
+        PlayerBackpack backpack = new PlayerBackpack(player1.getUniqueId(), 27);
+        backpack.setItem(0, new ItemStack(Material.EMERALD, 9));
+
+        java.util.concurrent.CompletableFuture<Boolean> save =
+            databaseManager.queuePlayerBackpackSave(player1.getUniqueId(), backpack.serialize());
+        assertTrue(databaseManager.flushPendingSaves() >= 1, "同步刷新应写入刚提交的保存");
+        assertTrue(save.isDone() && save.join(), "刷新返回时保存应已写入数据库");
+
+        // 日志刷盘后标记完成，之后不会再被重放
+        for (int i = 0; i < 100 && databaseManager.getSaveJournal().getPending(player1.getUniqueId()) != null; i++) {
+            Thread.sleep(10);
+        }
+        assertNull(databaseManager.getSaveJournal().getPending(player1.getUniqueId()), "写入成功后日志记录应标记完成");
+    }
+
+    @Test
+    public void testFailedBatchFallsBackToPerKeyWrites() {
+        // 测试批量写入失败后逐个写入：无法写入的数据只让自己留在队列中，不影响同一批的其他数据
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        com.leeinx.xibackpack.handler.WriteBehindQueue queue =
+            new com.leeinx.xibackpack.handler.WriteBehindQueue(databaseManager, 60000L, 1000);
+        String data = new PlayerBackpack(player1.getUniqueId(), 27).serialize();
+
+        java.util.concurrent.CompletableFuture<Boolean> good = queue.enqueueTeam(new com.leeinx.xibackpack.handler.TeamBackpackRecord(
+            "team_flush_ok", "ok", player1.getUniqueId(), data, java.util.Collections.singleton(player1.getUniqueId())));
+        // 没有所有者的快照在写入时一定失败
+        java.util.concurrent.CompletableFuture<Boolean> bad = queue.enqueueTeam(new com.leeinx.xibackpack.handler.TeamBackpackRecord(
+            "team_flush_bad", "bad", null, data, null));
+
+        assertEquals(2, queue.flushAll());
+        assertTrue(good.join(), "同一批中可以写入的数据应写入成功");
+        assertFalse(bad.join(), "无法写入的数据应返回失败");
+        assertEquals(1, queue.getPendingCount(), "只有写入失败的数据留在队列中");
+        assertEquals(1, queue.getFailedWrites(), "只统计实际写入失败的数据");
+        assertNotNull(queue.peekTeam("team_flush_bad"));
+        assertNotNull(databaseManager.loadTeamBackpack("team_flush_ok"), "成功的数据应已写入数据库");
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAndRecovers() throws Exception {
+        // 测试按SQLState分类异常，以及熔断器在连续失败后打开、探测成功后关闭
+        assertTrue(com.leeinx.xibackpack.handler.SqlErrorClassifier.indicatesOutage(new java.sql.SQLException("link failure", "08S01")));
+        assertTrue(com.leeinx.xibackpack.handler.SqlErrorClassifier.isTransient(new java.sql.SQLException("deadlock", "40001", 1213)));
+        assertFalse(com.leeinx.xibackpack.handler.SqlErrorClassifier.indicatesOutage(new java.sql.SQLException("deadlock", "40001", 1213)),
+            "死锁说明数据库可以访问，不应计入熔断");
+        assertFalse(com.leeinx.xibackpack.handler.SqlErrorClassifier.isTransient(new java.sql.SQLException("duplicate", "23000", 1062)),
+            "约束冲突不应重试");
+
+        com.leeinx.xibackpack.handler.CircuitBreaker breaker = new com.leeinx.xibackpack.handler.CircuitBreaker(2, 50);
+        java.util.List<com.leeinx.xibackpack.handler.CircuitBreaker.State> transitions = new java.util.concurrent.CopyOnWriteArrayList<>();
+        breaker.addListener((from, to) -> transitions.add(to));
+
+        breaker.recordFailure();
+        assertEquals(com.leeinx.xibackpack.handler.CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.recordFailure();
+        assertEquals(com.leeinx.xibackpack.handler.CircuitBreaker.State.OPEN, breaker.getState(), "连续失败后应打开");
+        assertFalse(breaker.allowRequest(), "打开期间应直接拒绝");
+
+        Thread.sleep(80);
+        assertTrue(breaker.allowRequest(), "打开一段时间后应放行一次探测");
+        assertFalse(breaker.allowRequest(), "半开状态只放行一次探测");
+        breaker.recordSuccess();
+        assertEquals(com.leeinx.xibackpack.handler.CircuitBreaker.State.CLOSED, breaker.getState(), "探测成功后应关闭");
+        assertEquals(java.util.Arrays.asList(
+            com.leeinx.xibackpack.handler.CircuitBreaker.State.OPEN,
+            com.leeinx.xibackpack.handler.CircuitBreaker.State.HALF_OPEN,
+            com.leeinx.xibackpack.handler.CircuitBreaker.State.CLOSED), transitions);
+        assertEquals(2, breaker.getRejectedCalls());
+    }
+
+    @Test
+    public void testSyncLoadFailsWhileDatabaseUnavailable() {
+        // 测试熔断期间同步加载抛出异常，而不是把空背包放入缓存
+        com.leeinx.xibackpack.handler.CircuitBreaker breaker = plugin.getDatabaseManager().getCircuitBreaker();
+        while (breaker.getState() != com.leeinx.xibackpack.handler.CircuitBreaker.State.OPEN) {
+            breaker.recordFailure();
+        }
+
+        assertThrows(com.leeinx.xibackpack.handler.DatabaseUnavailableException.class,
+            () -> plugin.getBackpackManager().getBackpack(player1), "数据库不可用时不应创建空背包");
+        assertNull(plugin.getBackpackManager().getIfLoaded(player1.getUniqueId()), "加载失败时不应缓存背包");
+        assertThrows(com.leeinx.xibackpack.handler.DatabaseUnavailableException.class,
+            () -> plugin.getTeamBackpackManager().getBackpack("team_missing"), "数据库不可用时不应当作背包不存在");
+    }
+
+    @Test
+    public void testPostgresDialectStatements() throws Exception {
+        // 测试PostgreSQL方言的upsert、数据块引用计数和bytea读写
+        // SQLite 3.24+ 支持相同的 INSERT ... ON CONFLICT DO UPDATE 语法，用内存SQLite作为嵌入式替代执行这些语句
+        com.leeinx.xibackpack.handler.SqlDialect postgres = com.leeinx.xibackpack.handler.SqlDialect.forType("postgresql");
+        assertEquals("postgresql", postgres.getName());
+        for (String ddl : postgres.getSchemaStatements()) {
+            assertFalse(ddl.contains("ON UPDATE CURRENT_TIMESTAMP"), "PostgreSQL不支持ON UPDATE CURRENT_TIMESTAMP");
+        }
+        assertTrue(postgres.getSchemaStatements().get(0).contains("BYTEA"), "背包数据应存为bytea");
+
+        try (java.sql.Connection connection = java.sql.DriverManager.getConnection("jdbc:sqlite::memory:");
+             java.sql.Statement statement = connection.createStatement()) {
+            for (String ddl : com.leeinx.xibackpack.handler.SqlDialect.forType("sqlite").getSchemaStatements()) {
+                statement.executeUpdate(ddl);
+            }
+
+            String playerUUID = UUID.randomUUID().toString();
+            for (String data : new String[]{"first", "第二次保存"}) {
+                try (java.sql.PreparedStatement stmt = connection.prepareStatement(postgres.upsertPlayerBackpackSql())) {
+                    stmt.setString(1, playerUUID);
+                    postgres.setPayload(stmt, 2, data);
+                    stmt.executeUpdate();
+                }
+            }
+            try (java.sql.ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM player_backpacks")) {
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1), "重复保存应更新原行");
+            }
+            try (java.sql.ResultSet rs = statement.executeQuery("SELECT backpack_data FROM player_backpacks")) {
+                assertTrue(rs.next());
+                assertEquals("第二次保存", postgres.getPayload(rs, "backpack_data"), "bytea应按UTF-8还原");
+            }
+
+            // 二进制格式保存原始字节而不是Base64文本
+            byte[] raw = new byte[300];
+            new java.util.Random(7).nextBytes(raw);
+            String binary = com.leeinx.xibackpack.backpack.BackpackCodec.BINARY_PREFIX + java.util.Base64.getEncoder().encodeToString(raw);
+            try (java.sql.PreparedStatement stmt = connection.prepareStatement(postgres.upsertPlayerBackpackSql())) {
+                stmt.setString(1, playerUUID);
+                postgres.setPayload(stmt, 2, binary);
+                stmt.executeUpdate();
+            }
+            try (java.sql.ResultSet rs = statement.executeQuery("SELECT backpack_data FROM player_backpacks")) {
+                assertTrue(rs.next());
+                assertEquals(raw.length + 1, rs.getBytes("backpack_data").length, "二进制数据应只多一个格式标记字节");
+                assertEquals(binary, postgres.getPayload(rs, "backpack_data"), "应还原为原来的二进制格式数据");
+            }
+
+            // 旧版本按UTF-8保存的数据不需要迁移
+            try (java.sql.PreparedStatement stmt = connection.prepareStatement("UPDATE player_backpacks SET backpack_data = ?")) {
+                stmt.setBytes(1, binary.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                stmt.executeUpdate();
+            }
+            try (java.sql.ResultSet rs = statement.executeQuery("SELECT backpack_data FROM player_backpacks")) {
+                assertTrue(rs.next());
+                assertEquals(binary, postgres.getPayload(rs, "backpack_data"), "旧数据应原样读取");
+            }
+
+            for (int i = 0; i < 2; i++) {
+                try (java.sql.PreparedStatement stmt = connection.prepareStatement(postgres.upsertBlobSql())) {
+                    stmt.setString(1, "hash");
+                    postgres.setPayload(stmt, 2, "blob");
+                    stmt.executeUpdate();
+                }
+            }
+            try (java.sql.ResultSet rs = statement.executeQuery("SELECT COUNT(*), MAX(ref_count) FROM player_backpack_blobs")) {
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1), "相同哈希应只有一个数据块");
+                assertEquals(2, rs.getInt(2), "重复写入应增加引用数");
+            }
+        }
+    }
+
+    @Test
+    public void testTieredBackupRetention() throws Exception {
+        // 测试保留策略：保留最新的N个备份，以及最近一天每小时、最近一周每天最新的备份
+        // 不支持窗口函数时逐个玩家标记，结果应与窗口函数一致
+        com.leeinx.xibackpack.handler.SqlDialect sqlite = com.leeinx.xibackpack.handler.SqlDialect.forType("sqlite");
+        com.leeinx.xibackpack.handler.BackupRetention retention = new com.leeinx.xibackpack.handler.BackupRetention(sqlite, 3, 24, 7);
+        for (boolean windowFunctions : new boolean[]{true, false}) {
+            try (java.sql.Connection connection = java.sql.DriverManager.getConnection("jdbc:sqlite::memory:");
+                 java.sql.Statement statement = connection.createStatement()) {
+                for (String ddl : sqlite.getSchemaStatements()) {
+                    statement.executeUpdate(ddl);
+                }
+                assertTrue(retention.detectWindowFunctions(connection), "内置的SQLite应支持窗口函数");
+                // 玩家a：2到6天前和9天前每天6点、18点各一个备份；玩家b：刚刚创建的5个备份
+                for (int day : new int[]{2, 3, 4, 5, 6, 9}) {
+                    for (int hour : new int[]{6, 18}) {
+                        statement.executeUpdate("INSERT INTO player_backpack_backups (player_uuid, backup_id, created_at) VALUES ('a', 'a"
+                            + day + "-" + hour + "', datetime('now', 'start of day', '-" + day + " days', '+" + hour + " hours'))");
+                    }
+                }
+                for (int i = 0; i < 5; i++) {
+                    statement.executeUpdate("INSERT INTO player_backpack_backups (player_uuid, backup_id) VALUES ('b', 'b" + i + "')");
+                }
+
+                int marked = windowFunctions ? retention.markExpired(connection) : retention.markExpiredPerPlayer(connection);
+                java.util.Set<String> kept = new java.util.HashSet<>();
+                try (java.sql.ResultSet rs = statement.executeQuery("SELECT backup_id FROM player_backpack_backups WHERE pruned = 0")) {
+                    while (rs.next()) {
+                        kept.add(rs.getString(1));
+                    }
+                }
+                assertEquals(17 - kept.size(), marked, "未保留的备份应全部被标记");
+                assertEquals(new java.util.HashSet<>(java.util.Arrays.asList(
+                    "a2-18", "a2-6", "a3-18", "a4-18", "a5-18", "a6-18", "b2", "b3", "b4")), kept,
+                    "应保留每个玩家最新的3个备份，以及最近一周每天最新的备份");
+                assertEquals(0, windowFunctions ? retention.markExpired(connection) : retention.markExpiredPerPlayer(connection),
+                    "再次执行不应标记更多备份");
+            }
+        }
+    }
+
+    @Test
+    public void testBackupBlobsAreDeduplicated() {
+        // 测试内容相同的备份共用一个数据块，最后一个引用删除后数据块被回收
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        com.leeinx.xibackpack.handler.BackupBlobStore blobs = databaseManager.getBackupBlobStore();
+        UUID playerUUID = UUID.randomUUID();
+        PlayerBackpack backpack = new PlayerBackpack(playerUUID, 27);
+        backpack.setItem(0, new ItemStack(Material.DIAMOND, 1));
+        String data = backpack.serialize();
+
+        long written = blobs.getWrittenBlobs();
+        long reused = blobs.getReusedBlobs();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(databaseManager.savePlayerBackpackBackup(playerUUID, "same-" + i, data), "备份应保存成功");
+        }
+        assertEquals(written + 1, blobs.getWrittenBlobs(), "相同内容只应写入一个数据块");
+        assertEquals(reused + 2, blobs.getReusedBlobs(), "之后的备份应复用数据块");
+        assertEquals(data, databaseManager.loadPlayerBackpackBackup(playerUUID, "same-2"), "备份应能从数据块还原");
+
+        // 写入足够多的不同备份，使三个相同的备份全部被淘汰
+        long collected = blobs.getCollectedBlobs();
+        int maxCount = com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.backup.max-count", 10);
+        for (int i = 0; i < maxCount; i++) {
+            backpack.setItem(0, new ItemStack(Material.DIAMOND, i + 2));
+            assertTrue(databaseManager.savePlayerBackpackBackup(playerUUID, "changed-" + i, backpack.serialize()), "备份应保存成功");
+        }
+        // 超出数量限制的备份由后台维护任务淘汰
+        databaseManager.runBackupMaintenance();
+        assertTrue(blobs.getCollectedBlobs() > collected, "不再被引用的数据块应被回收");
+        assertNull(databaseManager.loadPlayerBackpackBackup(playerUUID, "same-0"), "最旧的备份应已删除");
+    }
+
+    @Test
+    public void testIncrementalBackupChain() throws Exception {
+        // 测试增量备份只保存变化的槽位，淘汰和整理后所有备份仍能完整还原
+        DatabaseManager databaseManager = plugin.getDatabaseManager();
+        com.leeinx.xibackpack.handler.BackupChainStore chains = databaseManager.getBackupChainStore();
+        UUID playerUUID = UUID.randomUUID();
+        PlayerBackpack backpack = new PlayerBackpack(playerUUID, 54);
+        for (int i = 0; i < 54; i++) {
+            backpack.setItem(i, new ItemStack(i % 2 == 0 ? Material.STONE : Material.DIRT, i + 1));
+        }
+
+        int maxCount = com.leeinx.xibackpack.util.ConfigManager.getInt("backpack.backup.max-count", 10);
+        int total = maxCount + 4;
+        long deltas = chains.getDeltaBackups();
+        java.util.Map<String, String> saved = new java.util.HashMap<>();
+        for (int i = 0; i < total; i++) {
+            backpack.setItem(i % 54, new ItemStack(Material.DIAMOND, i + 1));
+            String data = backpack.serialize();
+            saved.put("chain-" + i, data);
+            assertTrue(databaseManager.savePlayerBackpackBackup(playerUUID, "chain-" + i, data), "备份应保存成功");
+        }
+        assertTrue(chains.getDeltaBackups() > deltas, "只改变一个槽位的备份应保存为增量");
+        assertTrue(chains.getAverageDeltaChars() < saved.get("chain-0").length() / 4, "增量应远小于完整数据");
+
+        assertTrue(databaseManager.runBackupMaintenance() >= total - maxCount, "已淘汰的备份应被删除");
+        assertEquals(maxCount, databaseManager.getPlayerBackupIds(playerUUID).size(), "被淘汰的备份不应出现在列表中");
+        assertNull(databaseManager.loadPlayerBackpackBackup(playerUUID, "chain-0"), "最旧的备份应已淘汰");
+
+        for (int i = total - maxCount; i < total; i++) {
+            String loaded = databaseManager.loadPlayerBackpackBackup(playerUUID, "chain-" + i);
+            assertTrue(com.leeinx.xibackpack.backpack.BackpackDelta.sameContent(saved.get("chain-" + i), loaded), "备份 chain-" + i + " 应能完整还原");
+        }
+    }
+
     @Test
     public void testDatabaseClose() {
         // 测试数据库连接关闭